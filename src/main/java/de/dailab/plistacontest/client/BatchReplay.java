@@ -0,0 +1,257 @@
+package de.dailab.plistacontest.client;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+
+import org.json.simple.JSONObject;
+import org.json.simple.JSONValue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Replays idomaar logs offline by feeding them straight into a Recommender, without the
+ * HTTP round trip per line. Recommendation requests are collected and answered in batches
+ * through Recommender.recommendAll, so the profiles of the users of a batch are scored
+ * together. The predictions are written in the format of the sender, so they can be
+ * evaluated by the Evaluator.
+ *
+ * A batch starts with its first request. The other messages of a batch are applied after
+ * its requests have been answered, in the order of the log, so a request sees the state of
+ * the recommender at the start of its batch and never a message that follows it. The larger
+ * the batch, the older that state.
+ *
+ * Usage: java BatchReplay logFile[,logFile...] predictionFile [batchSize] [propertiesFile]
+ */
+public class BatchReplay {
+
+	private static final Logger logger = LoggerFactory.getLogger(BatchReplay.class);
+
+	/**
+	 * The number of recommendations per request, as in the idomaar handler of the server.
+	 */
+	private static final int LIMIT = 6;
+
+	private final Recommender recommender;
+	private final int batchSize;
+
+	/**
+	 * The messages of the current batch in the order of the log; requests have the
+	 * notification type recommendation_request.
+	 */
+	private final List<RecommenderItem> messages = new ArrayList<RecommenderItem>();
+	private final List<RecommenderItem> requests = new ArrayList<RecommenderItem>();
+	private final List<String> requestIds = new ArrayList<String>();
+
+	private long requestCount;
+	private long messageCount;
+
+	/**
+	 * @param recommender - the recommender to feed
+	 * @param batchSize - the number of requests answered together
+	 */
+	public BatchReplay(Recommender recommender, int batchSize) {
+		if (batchSize < 1) {
+			throw new IllegalArgumentException("Invalid batch size " + batchSize);
+		}
+		this.recommender = recommender;
+		this.batchSize = batchSize;
+	}
+
+	/**
+	 * Replays log files one after the other and writes a prediction line per request.
+	 * Gzipped files are supported.
+	 * @param logs - the log files, with items and relations in the order they happened
+	 * @param predictions - receives the predictions
+	 */
+	public void replay(File[] logs, Writer predictions) throws IOException {
+		for (File log : logs) {
+			BufferedReader reader = BulkLoader.open(log);
+			try {
+				for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+					if (line.startsWith("null") || line.startsWith("#")) {
+						continue;
+					}
+					add(line, predictions);
+				}
+			} finally {
+				reader.close();
+			}
+		}
+		flush(predictions);
+		logger.info("Replayed {} messages with {} requests", messageCount, requestCount);
+	}
+
+	/**
+	 * Adds a line of the log to the current batch, and answers the batch once it is full.
+	 */
+	void add(String line, Writer predictions) throws IOException {
+		RecommenderItem message = parseMessage(line);
+		if (message == null) {
+			return;
+		}
+		messageCount++;
+		boolean request = "recommendation_request".equals(message.getNotificationType());
+		if (!request && requests.isEmpty()) {
+			// a batch starts with its first request
+			apply(message, null);
+			return;
+		}
+		messages.add(message);
+		if (request) {
+			requests.add(message);
+			requestIds.add(line.split("\t")[1]);
+			if (requests.size() >= batchSize) {
+				flush(predictions);
+			}
+		}
+	}
+
+	/**
+	 * Answers the requests of the current batch, then applies its messages.
+	 */
+	void flush(Writer predictions) throws IOException {
+		long start = System.currentTimeMillis();
+		List<List<Long>> results = recommender.recommendAll(requests);
+		// the time of the batch is shared by its requests
+		long responseTime = requests.isEmpty() ? 0
+				: (System.currentTimeMillis() - start) / requests.size();
+		for (int i = 0; i < requests.size(); i++) {
+			RecommenderItem request = requests.get(i);
+			predictions.write("prediction\t" + requestIds.get(i) + "\t" + request.getTimeStamp()
+					+ "\t" + responseTime + "\t" + request.getItemID() + "\t"
+					+ request.getUserID() + "\t" + request.getDomainID() + "\t"
+					+ "{\"recs\": {\"ints\": {\"3\": " + results.get(i) + "}}}");
+			predictions.write('\n');
+		}
+
+		int next = 0;
+		for (RecommenderItem message : messages) {
+			boolean request = "recommendation_request".equals(message.getNotificationType());
+			apply(message, request ? results.get(next++) : null);
+		}
+		requestCount += requests.size();
+		messages.clear();
+		requests.clear();
+		requestIds.clear();
+	}
+
+	/**
+	 * Passes a message to the recommender.
+	 * @param recommended - the recommendations made on a request, null for other messages
+	 */
+	private void apply(RecommenderItem message, List<Long> recommended) {
+		String type = message.getNotificationType();
+		if ("item_update".equals(type)) {
+			recommender.handleItemUpdate(message);
+		} else if ("recommendation_request".equals(type)) {
+			recommender.handleRecommended(message, recommended);
+		} else if ("click".equals(type)) {
+			recommender.handleClick(message);
+		} else {
+			recommender.handleImpression(message);
+		}
+	}
+
+	/**
+	 * Parses an idomaar line: type, id, timestamp, message body and properties, separated by
+	 * tabs. Items are created or updated from the body; for relations, the properties name
+	 * the user, the item and the publisher. A missing user is mapped to the anonymous user 0.
+	 * @return the message, with its notification type set to item_update,
+	 * recommendation_request, impression or click; null if the line is invalid
+	 */
+	static RecommenderItem parseMessage(String line) {
+		String[] columns = line.split("\t");
+		if (columns.length < 5) {
+			return null;
+		}
+		String type = columns[0];
+		if (type.startsWith("item")) {
+			RecommenderItem item = RecommenderItem.parseItemUpdate(columns[3]);
+			if (item == null || item.getItemID() == null) {
+				return null;
+			}
+			item.setNotificationType("item_update");
+			return item;
+		}
+		Object parsed = JSONValue.parse(columns[4]);
+		if (!(parsed instanceof JSONObject)) {
+			return null;
+		}
+		JSONObject properties = (JSONObject) parsed;
+		Long itemId = getLong(properties, "itemID");
+		if (itemId == null) {
+			return null;
+		}
+		// the converter writes a null user if the request had none, i.e. an anonymous user
+		Long userId = getLong(properties, "userID");
+		RecommenderItem message;
+		try {
+			message = new RecommenderItem(userId == null ? Long.valueOf(0) : userId, itemId,
+					getLong(properties, "domainID"), Long.valueOf(columns[2]));
+		} catch (NumberFormatException e) {
+			return null;
+		}
+		if ("click".equalsIgnoreCase(type)) {
+			message.setNotificationType("click");
+			message.setListOfDisplayedRecs(Arrays.asList(itemId));
+		} else if (columns[3].contains("\"event_type\": \"recommendation_request\"")) {
+			message.setNotificationType("recommendation_request");
+			message.setNumberOfRequestedResults(LIMIT);
+		} else {
+			message.setNotificationType("impression");
+		}
+		return message;
+	}
+
+	private static Long getLong(JSONObject properties, String key) {
+		Object value = properties.get(key);
+		return value instanceof Number ? ((Number) value).longValue() : null;
+	}
+
+	/**
+	 * The main method analyzes the arguments and replays the logs.
+	 * @param args args[0] - log files separated by commas, args[1] - prediction file,
+	 * args[2] - batch size (optional), args[3] - properties of the recommender (optional)
+	 */
+	public static void main(String[] args) throws Exception {
+		if (args.length < 2 || args.length > 4) {
+			System.out.println("usage: java BatchReplay logFile[,logFile...] predictionFile "
+					+ "[batchSize] [propertiesFile]");
+			System.exit(0);
+		}
+		Properties properties = new Properties();
+		if (args.length > 3) {
+			FileInputStream input = new FileInputStream(args[3]);
+			try {
+				properties.load(input);
+			} finally {
+				input.close();
+			}
+		}
+		Recommender recommender = Client.createRecommender(properties);
+		String itemModelFile = properties.getProperty("recommender.itemmodel.file");
+		if (itemModelFile != null) {
+			recommender.setItemModel(ItemNeighbourModel.load(new File(itemModelFile)));
+		}
+
+		File[] logs = BulkLoader.getFiles(args[0]);
+		BatchReplay replay = new BatchReplay(recommender,
+				args.length > 2 ? Integer.parseInt(args[2]) : 1000);
+		BufferedWriter predictions = new BufferedWriter(new FileWriter(args[1]));
+		try {
+			replay.replay(logs, predictions);
+		} finally {
+			predictions.close();
+		}
+	}
+
+}
@@ -0,0 +1,122 @@
+package de.dailab.plistacontest.client;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.zip.GZIPInputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Loads the items of idomaar entity files, as written by ConverterJson2IdomaarEntities,
+ * into a Recommender in large batches, to bootstrap the content model after a restart
+ * instead of replaying the item updates one by one. Every batch goes through
+ * Recommender.handleItemUpdates: the updates of an item are collapsed into the last one,
+ * and the articles of a publisher are tokenized in parallel and indexed in one snapshot of
+ * its shard.
+ *
+ * Usage: java BulkLoader entityFile[,entityFile...] [propertiesFile]
+ */
+public class BulkLoader {
+
+	private static final Logger logger = LoggerFactory.getLogger(BulkLoader.class);
+
+	/**
+	 * The number of item updates applied at once.
+	 */
+	private static final int BATCH_SIZE = 20000;
+
+	/**
+	 * Loads entity files one after the other. Lines that are not items are skipped.
+	 * Gzipped files are supported.
+	 * @param recommender - the recommender to load the items into
+	 * @param files - the entity files, with the items in the order they were updated
+	 * @return the number of loaded item updates
+	 */
+	public static long load(Recommender recommender, File[] files) throws IOException {
+		long start = System.currentTimeMillis();
+		long count = 0;
+		List<RecommenderItem> batch = new ArrayList<RecommenderItem>(BATCH_SIZE);
+		for (File file : files) {
+			BufferedReader reader = open(file);
+			try {
+				for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+					RecommenderItem item = BatchReplay.parseMessage(line);
+					if (item == null || !"item_update".equals(item.getNotificationType())) {
+						continue;
+					}
+					batch.add(item);
+					if (batch.size() == BATCH_SIZE) {
+						recommender.handleItemUpdates(batch);
+						count += batch.size();
+						batch.clear();
+					}
+				}
+			} finally {
+				reader.close();
+			}
+		}
+		recommender.handleItemUpdates(batch);
+		count += batch.size();
+		logger.info("Loaded {} item updates into {} articles in {} ms", new Object[] {count,
+				recommender.getNewsArticles().size(), System.currentTimeMillis() - start});
+		return count;
+	}
+
+	/**
+	 * Opens a log or entity file for reading, decompressing it if its name ends with .gz.
+	 */
+	static BufferedReader open(File file) throws IOException {
+		InputStream input = new FileInputStream(file);
+		if (file.getName().toLowerCase().endsWith(".gz")) {
+			input = new GZIPInputStream(input);
+		}
+		return new BufferedReader(new InputStreamReader(input));
+	}
+
+	/**
+	 * Splits a comma separated list of file names.
+	 */
+	static File[] getFiles(String names) {
+		String[] split = names.split(",");
+		File[] files = new File[split.length];
+		for (int i = 0; i < split.length; i++) {
+			files[i] = new File(split[i]);
+		}
+		return files;
+	}
+
+	/**
+	 * The main method loads the entity files into a recommender configured by the
+	 * properties, and reports the time it took and the size of the model.
+	 * @param args args[0] - entity files separated by commas, args[1] - properties of the
+	 * recommender (optional)
+	 */
+	public static void main(String[] args) throws Exception {
+		if (args.length < 1 || args.length > 2) {
+			System.out.println("usage: java BulkLoader entityFile[,entityFile...] "
+					+ "[propertiesFile]");
+			System.exit(0);
+		}
+		Properties properties = new Properties();
+		if (args.length > 1) {
+			FileInputStream input = new FileInputStream(args[1]);
+			try {
+				properties.load(input);
+			} finally {
+				input.close();
+			}
+		}
+		Recommender recommender = Client.createRecommender(properties);
+		load(recommender, getFiles(args[0]));
+		logger.info("{} terms in the content model", recommender.getTermCount());
+	}
+
+}
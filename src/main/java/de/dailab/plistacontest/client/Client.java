@@ -19,10 +19,13 @@ DEALINGS IN THE SOFTWARE.
 
 package de.dailab.plistacontest.client;
 
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.net.InetSocketAddress;
+import java.util.HashSet;
 import java.util.Properties;
+import java.util.Set;
 
 import org.eclipse.jetty.server.Server;
 import org.slf4j.Logger;
@@ -52,6 +55,67 @@ public class Client {
 		super();
 	}
 
+	/**
+	 * Creates the recommender configured by the properties, without starting its
+	 * background tasks. The property recommender.parallel.threshold has no default, since
+	 * the number of postings from which on parallel scoring pays off depends on the cores of
+	 * the machine; it is measured there with RecommenderScoringBenchmark.
+	 * @throws IllegalArgumentException if recommender.parallel.threshold is not set
+	 */
+	static Recommender createRecommender(Properties properties) {
+		String parallelThreshold = properties.getProperty("recommender.parallel.threshold");
+		if (parallelThreshold == null || parallelThreshold.trim().isEmpty()) {
+			throw new IllegalArgumentException("recommender.parallel.threshold is not set; "
+					+ "measure it with RecommenderScoringBenchmark on the target machine");
+		}
+		Recommender recommender = new Recommender();
+		recommender.setProfileHalfLife(
+				Long.parseLong(properties.getProperty("recommender.profile.halflife", "0")));
+		recommender.setParallelScoringThreshold(Long.parseLong(parallelThreshold.trim()));
+		recommender.setScoringBudget(
+				Long.parseLong(properties.getProperty("recommender.scoring.budget", "50")));
+		recommender.setRetention(
+				Long.parseLong(properties.getProperty("recommender.retention.maxage", "172800000")),
+				Integer.parseInt(properties.getProperty("recommender.retention.maxperpublisher", "0")));
+		recommender.setMaxHistoryLength(
+				Integer.parseInt(properties.getProperty("recommender.history.maxlength", "100")));
+		int seenBits = Integer.parseInt(properties.getProperty("recommender.seen.bits", "512"));
+		if (seenBits > 0) {
+			recommender.setSeenFilter(new SeenFilter(seenBits,
+					Integer.parseInt(properties.getProperty("recommender.seen.articles", "50"))));
+		}
+		int coClickWindow = Integer.parseInt(
+				properties.getProperty("recommender.coclick.window", "10"));
+		recommender.setCoClickModel(coClickWindow <= 0 ? null : new CoClickModel(coClickWindow,
+				Integer.parseInt(properties.getProperty("recommender.coclick.neighbours", "32"))));
+		int contentNeighbours = Integer.parseInt(
+				properties.getProperty("recommender.contentneighbours.size", "20"));
+		recommender.setContentNeighbourModel(contentNeighbours <= 0 ? null
+				: new ContentNeighbourModel(contentNeighbours));
+		recommender.setPopularity(
+				Long.parseLong(properties.getProperty("recommender.popularity.halflife", "3600000")),
+				Double.parseDouble(properties.getProperty("recommender.popularity.clickweight", "1")));
+		long cacheTimeToLive = Long.parseLong(properties.getProperty("recommender.cache.ttl", "2000"));
+		if (cacheTimeToLive > 0) {
+			recommender.setResultCache(new RecommendationCache(cacheTimeToLive,
+					Long.parseLong(properties.getProperty("recommender.cache.changes", "20")),
+					Integer.parseInt(properties.getProperty("recommender.cache.size", "10000"))));
+		}
+		recommender.setTermPruning(new TermPruning(
+				Integer.parseInt(properties.getProperty("recommender.terms.mindf", "1")),
+				Double.parseDouble(properties.getProperty("recommender.terms.maxdf", "1")),
+				Integer.parseInt(properties.getProperty("recommender.terms.perarticle", "0")),
+				Integer.parseInt(properties.getProperty("recommender.terms.vocabulary", "0"))));
+		int lshTables = Integer.parseInt(properties.getProperty("recommender.lsh.tables", "0"));
+		if (lshTables > 0) {
+			recommender.setApproximateScoring(new RandomProjectionHash(lshTables,
+					Integer.parseInt(properties.getProperty("recommender.lsh.bits", "8")),
+					Integer.parseInt(properties.getProperty("recommender.lsh.probes", "1")),
+					Long.parseLong(properties.getProperty("recommender.lsh.seed", "42"))));
+		}
+		return recommender;
+	}
+
 	/**
 	 * This method starts the server
 	 * 
@@ -75,7 +139,24 @@ public class Client {
 		}
 
 		// you might want to use a recommender
-		Object recommender = new Recommender();
+		Recommender recommender = createRecommender(properties);
+		String bootstrapFiles = properties.getProperty("recommender.bootstrap.files");
+		if (bootstrapFiles != null) {
+			BulkLoader.load(recommender, BulkLoader.getFiles(bootstrapFiles));
+		}
+		String itemModelFile = properties.getProperty("recommender.itemmodel.file");
+		if (itemModelFile != null) {
+			recommender.startItemModelReloading(new File(itemModelFile), Long.parseLong(
+					properties.getProperty("recommender.itemmodel.interval", "60000")));
+		}
+		recommender.startEviction(
+				Long.parseLong(properties.getProperty("recommender.eviction.interval", "60000")));
+		long itemUpdateDelay = Long.parseLong(
+				properties.getProperty("recommender.itemupdates.delay", "5"));
+		if (itemUpdateDelay > 0) {
+			recommender.startItemUpdateBatching(itemUpdateDelay, Integer.parseInt(
+					properties.getProperty("recommender.itemupdates.batch", "100")));
+		}
 
 		try {
 			// initialize the recommender dynamically
@@ -110,7 +191,8 @@ public class Client {
 		// Server(Integer.parseInt(properties.getProperty("plista.port",
 		// "8081")));
 		final Server server = new Server(new InetSocketAddress(hostname, port));
-		server.setHandler(new ContestHandler(properties, recommender));
+		server.setHandler(new ContestHandler(properties, createEnsemble(properties, recommender),
+				recommender));
 		logger.debug("Serverport " + server.getConnectors()[0].getPort());
 
 		// start
@@ -118,4 +200,67 @@ public class Client {
 		server.join();
 	}
 
+	/**
+	 * Creates the ensemble configured by the property recommender.ensemble, a comma
+	 * separated list of strategy:weight with the strategies content (the recommender),
+	 * popularity, coclicks, similar and recency (an item table). The recommender is fed
+	 * once, by the content member or, without one, by the first strategy using it. The
+	 * item table excludes what the recommender knows the users have seen.
+	 * @return the ensemble, or the recommender if no ensemble is configured
+	 * @throws IllegalArgumentException if a strategy is unknown or listed twice
+	 */
+	static ContestRecommender createEnsemble(Properties properties, Recommender recommender) {
+		String ensemble = properties.getProperty("recommender.ensemble");
+		if (ensemble == null || ensemble.trim().isEmpty()) {
+			return recommender;
+		}
+		String[] entries = ensemble.split(",");
+		String[] strategies = new String[entries.length];
+		Set<String> distinct = new HashSet<String>();
+		boolean fed = false;
+		for (int i = 0; i < entries.length; i++) {
+			strategies[i] = entries[i].trim().split(":")[0].trim();
+			if (!distinct.add(strategies[i])) {
+				// a member listed twice would be fed and asked twice
+				throw new IllegalArgumentException("Duplicate ensemble strategy "
+						+ strategies[i]);
+			}
+			fed |= "content".equals(strategies[i]);
+		}
+		ContestRecommender[] members = new ContestRecommender[entries.length];
+		double[] weights = new double[entries.length];
+		for (int i = 0; i < entries.length; i++) {
+			String[] entry = entries[i].trim().split(":");
+			String strategy = strategies[i];
+			weights[i] = entry.length > 1 ? Double.parseDouble(entry[1].trim()) : 1;
+			RecommenderStrategy.Kind kind = null;
+			if ("content".equals(strategy)) {
+				members[i] = recommender;
+			} else if ("popularity".equals(strategy)) {
+				kind = RecommenderStrategy.Kind.POPULARITY;
+			} else if ("coclicks".equals(strategy)) {
+				kind = RecommenderStrategy.Kind.CO_CLICKS;
+			} else if ("similar".equals(strategy)) {
+				kind = RecommenderStrategy.Kind.SIMILAR;
+			} else if ("recency".equals(strategy)) {
+				RecommenderItemTable table = new RecommenderItemTable();
+				table.setRecommender(recommender);
+				members[i] = table;
+			} else {
+				throw new IllegalArgumentException("Unknown ensemble strategy " + strategy);
+			}
+			if (kind != null) {
+				members[i] = new RecommenderStrategy(recommender, kind, !fed);
+				fed = true;
+			}
+		}
+		return new RecommenderEnsemble(
+				Long.parseLong(properties.getProperty("recommender.ensemble.deadline", "60")),
+				Integer.parseInt(properties.getProperty("recommender.workers",
+						Integer.toString(Runtime.getRuntime().availableProcessors()))),
+				RecommenderEnsemble.Merge.valueOf(properties.getProperty(
+						"recommender.ensemble.merge", "weighted").toUpperCase()),
+				members, weights);
+	}
+
 }
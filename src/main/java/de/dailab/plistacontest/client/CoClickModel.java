@@ -0,0 +1,189 @@
+package de.dailab.plistacontest.client;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Item-to-item collaborative filtering from click co-occurrences. Every click of a user
+ * counts as a co-visit of the clicked article with each of the last articles the user read
+ * before, in both directions, so a click costs O(window).
+ *
+ * Every article keeps only a bounded number of neighbour counters, maintained with the
+ * space-saving algorithm: a new neighbour of an article whose counters are all taken
+ * replaces the neighbour with the smallest count and inherits that count plus one. Counts
+ * are thus overestimated by at most the smallest count at the time of replacement, and the
+ * frequent neighbours of an article are kept. The counters are ordered by descending count,
+ * so the neighbours of an article are read without sorting.
+ */
+public class CoClickModel {
+
+	private static final long[] NO_NEIGHBOURS = new long[0];
+
+	private static final int REFERENCE_SIZE = 4;
+	private static final int ARRAY_HEADER_SIZE = 16;
+	private static final int OBJECT_SIZE = 32;
+
+	/**
+	 * The number of most recent reads of a user a click is paired with.
+	 */
+	private final int window;
+
+	/**
+	 * The maximal number of neighbour counters per article.
+	 */
+	private final int capacity;
+
+	/**
+	 * ArticleId -> the neighbours of the article.
+	 */
+	private final ConcurrentMap<Long, Neighbours> neighboursByArticle;
+
+	/**
+	 * @param window - the number of most recent reads of a user a click is paired with
+	 * @param capacity - the maximal number of neighbours kept per article
+	 */
+	public CoClickModel(int window, int capacity) {
+		if (window < 1 || capacity < 1) {
+			throw new IllegalArgumentException("Invalid co-click configuration: window "
+					+ window + ", capacity " + capacity);
+		}
+		this.window = window;
+		this.capacity = capacity;
+		neighboursByArticle = new ConcurrentHashMap<Long, Neighbours>();
+	}
+
+	/**
+	 * Registers a click of a user.
+	 * @param history - ids of the articles the user read before, oldest first
+	 * @param articleId - the clicked article, which must not be part of the history
+	 */
+	public void addClick(long[] history, long articleId) {
+		int from = Math.max(0, history.length - window);
+		if (from == history.length) {
+			return;
+		}
+		Neighbours neighbours = getOrCreate(articleId);
+		for (int i = from; i < history.length; i++) {
+			neighbours.increment(history[i]);
+			getOrCreate(history[i]).increment(articleId);
+		}
+	}
+
+	/**
+	 * Returns the articles most often clicked together with an article.
+	 * @return the ids of the neighbours by descending count
+	 */
+	public long[] getNeighbours(long articleId) {
+		Neighbours neighbours = neighboursByArticle.get(articleId);
+		return neighbours == null ? NO_NEIGHBOURS : neighbours.getIds();
+	}
+
+	/**
+	 * Forgets the neighbours of an article, e.g. because it was evicted. The article stays
+	 * a neighbour of other articles until it is replaced there.
+	 */
+	public void remove(long articleId) {
+		neighboursByArticle.remove(articleId);
+	}
+
+	/**
+	 * @return the number of articles with neighbours
+	 */
+	public int size() {
+		return neighboursByArticle.size();
+	}
+
+	/**
+	 * Estimates the heap used by the neighbour lists and the map holding them.
+	 * @return the estimate in bytes
+	 */
+	public long getMemoryUsage() {
+		long bytes = 0;
+		for (Neighbours neighbours : neighboursByArticle.values()) {
+			// map entry, boxed key and the list with its two arrays
+			bytes += 2 * OBJECT_SIZE + 2 * ARRAY_HEADER_SIZE + REFERENCE_SIZE
+					+ 12L * neighbours.getCapacity();
+		}
+		return bytes;
+	}
+
+	private Neighbours getOrCreate(long articleId) {
+		Neighbours neighbours = neighboursByArticle.get(articleId);
+		if (neighbours == null) {
+			Neighbours created = new Neighbours(capacity);
+			neighbours = neighboursByArticle.putIfAbsent(articleId, created);
+			if (neighbours == null) {
+				neighbours = created;
+			}
+		}
+		return neighbours;
+	}
+
+	@Override
+	public String toString() {
+		return "[CoClickModel articles=" + size() + ", window=" + window + ", capacity="
+				+ capacity + ", bytes=" + getMemoryUsage() + "]";
+	}
+
+	/**
+	 * The space-saving counters of the neighbours of one article, by descending count. The
+	 * arrays grow up to the capacity, since most articles have few neighbours.
+	 */
+	private static final class Neighbours {
+
+		private final int capacity;
+		private long[] ids;
+		private int[] counts;
+		private int size;
+
+		Neighbours(int capacity) {
+			this.capacity = capacity;
+			ids = new long[Math.min(4, capacity)];
+			counts = new int[ids.length];
+		}
+
+		synchronized void increment(long id) {
+			int position = -1;
+			for (int i = 0; i < size; i++) {
+				if (ids[i] == id) {
+					position = i;
+					break;
+				}
+			}
+			if (position < 0) {
+				if (size < capacity) {
+					if (size == ids.length) {
+						int length = Math.min(capacity, 2 * size);
+						ids = Arrays.copyOf(ids, length);
+						counts = Arrays.copyOf(counts, length);
+					}
+					position = size++;
+					counts[position] = 0;
+				} else {
+					// the new neighbour takes over the counter with the smallest count
+					position = size - 1;
+				}
+				ids[position] = id;
+			}
+			int count = counts[position] + 1;
+			// move the counter in front of the counters it overtook
+			while (position > 0 && counts[position - 1] < count) {
+				ids[position] = ids[position - 1];
+				counts[position] = counts[position - 1];
+				position--;
+			}
+			ids[position] = id;
+			counts[position] = count;
+		}
+
+		synchronized long[] getIds() {
+			return Arrays.copyOf(ids, size);
+		}
+
+		synchronized int getCapacity() {
+			return ids.length;
+		}
+	}
+
+}
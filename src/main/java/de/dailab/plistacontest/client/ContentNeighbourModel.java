@@ -0,0 +1,173 @@
+package de.dailab.plistacontest.client;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Item-to-item content similarity: for every article, the articles of its publisher whose
+ * TF-IDF vectors are most similar to its own. The lists are maintained incrementally as
+ * articles arrive. A new article is scored once against the articles of its shard, which
+ * yields its own list, and it is inserted into the lists of its neighbours where it is more
+ * similar than their last neighbour, since the cosine similarity is symmetric. Users viewing
+ * an article are then served by a lookup, without scoring on the request path.
+ *
+ * The similarities are those at the time an article arrived, they drift as the document
+ * frequencies change. A removed article stays in the lists of other articles until it is
+ * pushed out, so readers have to skip articles that are gone.
+ */
+public class ContentNeighbourModel {
+
+	private static final long[] NO_NEIGHBOURS = new long[0];
+
+	private static final int REFERENCE_SIZE = 4;
+	private static final int ARRAY_HEADER_SIZE = 16;
+	private static final int OBJECT_SIZE = 32;
+
+	/**
+	 * The maximal number of neighbours per article.
+	 */
+	private final int capacity;
+
+	/**
+	 * ArticleId -> the neighbours of the article.
+	 */
+	private final ConcurrentMap<Long, Neighbours> neighboursByArticle;
+
+	/**
+	 * @param capacity - the maximal number of neighbours kept per article
+	 */
+	public ContentNeighbourModel(int capacity) {
+		if (capacity < 1) {
+			throw new IllegalArgumentException("Invalid content neighbour capacity " + capacity);
+		}
+		this.capacity = capacity;
+		neighboursByArticle = new ConcurrentHashMap<Long, Neighbours>();
+	}
+
+	public int getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * Sets the neighbours of an article, replacing those it had, and offers the article as a
+	 * neighbour to each of them.
+	 * @param articleId - the article
+	 * @param neighbourIds - ids of the most similar articles
+	 * @param similarities - the cosine similarities of the articles to the article
+	 * @param count - the number of neighbours, at most the capacity
+	 */
+	public void add(long articleId, long[] neighbourIds, float[] similarities, int count) {
+		Neighbours neighbours = new Neighbours(capacity);
+		for (int i = 0; i < count; i++) {
+			neighbours.offer(neighbourIds[i], similarities[i]);
+			getOrCreate(neighbourIds[i]).offer(articleId, similarities[i]);
+		}
+		neighboursByArticle.put(articleId, neighbours);
+	}
+
+	/**
+	 * Returns the articles most similar to an article.
+	 * @return the ids of the neighbours by descending similarity
+	 */
+	public long[] getNeighbours(long articleId) {
+		Neighbours neighbours = neighboursByArticle.get(articleId);
+		return neighbours == null ? NO_NEIGHBOURS : neighbours.getIds();
+	}
+
+	/**
+	 * Forgets the neighbours of an article, e.g. because it was evicted. The article stays
+	 * a neighbour of other articles until it is pushed out there.
+	 */
+	public void remove(long articleId) {
+		neighboursByArticle.remove(articleId);
+	}
+
+	/**
+	 * @return the number of articles with neighbours
+	 */
+	public int size() {
+		return neighboursByArticle.size();
+	}
+
+	/**
+	 * Estimates the heap used by the neighbour lists and the map holding them.
+	 * @return the estimate in bytes
+	 */
+	public long getMemoryUsage() {
+		// map entry, boxed key and the list with its two arrays
+		return neighboursByArticle.size() * (2 * OBJECT_SIZE + 2 * ARRAY_HEADER_SIZE
+				+ REFERENCE_SIZE + 12L * capacity);
+	}
+
+	private Neighbours getOrCreate(long articleId) {
+		Neighbours neighbours = neighboursByArticle.get(articleId);
+		if (neighbours == null) {
+			Neighbours created = new Neighbours(capacity);
+			neighbours = neighboursByArticle.putIfAbsent(articleId, created);
+			if (neighbours == null) {
+				neighbours = created;
+			}
+		}
+		return neighbours;
+	}
+
+	@Override
+	public String toString() {
+		return "[ContentNeighbourModel articles=" + size() + ", capacity=" + capacity
+				+ ", bytes=" + getMemoryUsage() + "]";
+	}
+
+	/**
+	 * The neighbours of one article by descending similarity.
+	 */
+	private static final class Neighbours {
+
+		private final long[] ids;
+		private final float[] similarities;
+		private int size;
+
+		Neighbours(int capacity) {
+			ids = new long[capacity];
+			similarities = new float[capacity];
+		}
+
+		/**
+		 * Inserts a neighbour if there is room or it is more similar than the last one,
+		 * replacing its earlier similarity.
+		 */
+		synchronized void offer(long id, float similarity) {
+			int position = size;
+			for (int i = 0; i < size; i++) {
+				if (ids[i] == id) {
+					// take the neighbour out, it is inserted again below
+					System.arraycopy(ids, i + 1, ids, i, size - i - 1);
+					System.arraycopy(similarities, i + 1, similarities, i, size - i - 1);
+					position = --size;
+					break;
+				}
+			}
+			if (position == ids.length) {
+				if (similarity <= similarities[size - 1]) {
+					return;
+				}
+				position = size - 1;
+			} else {
+				size++;
+			}
+			// move the neighbour in front of the less similar ones
+			while (position > 0 && similarities[position - 1] < similarity) {
+				ids[position] = ids[position - 1];
+				similarities[position] = similarities[position - 1];
+				position--;
+			}
+			ids[position] = id;
+			similarities[position] = similarity;
+		}
+
+		synchronized long[] getIds() {
+			return Arrays.copyOf(ids, size);
+		}
+	}
+
+}
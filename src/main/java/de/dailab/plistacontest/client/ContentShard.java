@@ -0,0 +1,1493 @@
+package de.dailab.plistacontest.client;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * The content model of the articles of one publisher: their term vectors and the inverted
+ * index used to find candidates. Recommendations are served within one publisher, so a
+ * request only reads the shard of its publisher. IDF weights are computed from the shard's
+ * articles only; the document frequency of a word is the length of its posting list.
+ *
+ * Term ids are taken from a dictionary shared by all shards, so that the profile of a user
+ * can be evaluated against any shard. The dictionary only interns words; all statistics about
+ * the words are kept per shard.
+ *
+ * The model is published as an immutable snapshot through an atomic reference. Readers
+ * capture the current snapshot and never block. Writers are serialized on the shard's
+ * monitor; each write builds the next snapshot from the current one, sharing everything it
+ * does not change, and swaps it in.
+ *
+ * The terms are pruned as articles come and go, as configured by a TermPruning: articles
+ * keep only their top terms, terms that are too rare or too common are not scored, and the
+ * rarest terms are dropped once the shard has too many.
+ *
+ * The snapshot keeps a bitset of the ordinals of the recommendable articles. Each request
+ * clears the ordinals of the articles the user has read from a copy of it, a word at a
+ * time, and the scoring only admits the candidates left in that set, so articles that are
+ * not recommendable, such as pictures, are never recommended.
+ *
+ * Optionally, the shard also keeps the articles in the buckets of a random projection hash.
+ * Recommendations are then scored approximately: only the articles sharing a bucket with
+ * the profile of the user are scored, exactly, instead of all articles sharing a term.
+ */
+public class ContentShard {
+
+	/**
+	 * Default half life of an impression or click in the popularity ranking: one hour.
+	 */
+	public static final long DEFAULT_POPULARITY_HALF_LIFE = 3600 * 1000L;
+
+	/**
+	 * The number of articles in the popularity ranking. Leaves room for articles that are
+	 * not recommendable or currently viewed.
+	 */
+	private static final int POPULAR_ARTICLES = 100;
+
+	/**
+	 * Pool shared by all shards for scoring large queries and tokenizing large batches of
+	 * articles in parallel.
+	 */
+	private static final ForkJoinPool scoringPool = new ForkJoinPool();
+
+	/**
+	 * The number of articles from which on a batch is tokenized in parallel.
+	 */
+	private static final int PARALLEL_TOKENIZATION_THRESHOLD = 64;
+
+	/**
+	 * Score accumulators used to evaluate profiles against the inverted index, one set per
+	 * thread serving recommendation requests.
+	 */
+	private static final ThreadLocal<ScoreAccumulator> accumulators =
+			new ThreadLocal<ScoreAccumulator>() {
+		@Override
+		protected ScoreAccumulator initialValue() {
+			return new ScoreAccumulator();
+		}
+	};
+
+	/**
+	 * Term id -> weight of the term in the profile being evaluated, one array per thread.
+	 * Only the terms of the current profile are non-zero.
+	 */
+	private static final ThreadLocal<float[]> denseProfiles = new ThreadLocal<float[]>() {
+		@Override
+		protected float[] initialValue() {
+			return new float[1024];
+		}
+	};
+
+	private final Long publisherId;
+
+	/**
+	 * Maps the keywords to the term ids used by the term vectors; shared by all shards.
+	 */
+	private final TermDictionary words;
+
+	/**
+	 * The current version of the model.
+	 */
+	private final AtomicReference<Snapshot> snapshot;
+
+	/**
+	 * ArticleId -> ordinal of the article. Written by the writers only; readers check the
+	 * ordinal against the snapshot they captured.
+	 */
+	private final ConcurrentMap<Long, Integer> ordinalById;
+
+	/**
+	 * Stack of the ordinals of removed articles, guarded by the shard's monitor.
+	 */
+	private int[] freeOrdinals;
+	private int freeOrdinalCount;
+
+	/**
+	 * The most viewed and clicked articles of the shard, served to users without a history.
+	 */
+	private final PopularityRanking popularity;
+
+	public ContentShard(Long publisherId, TermDictionary words) {
+		this(publisherId, words, DEFAULT_POPULARITY_HALF_LIFE);
+	}
+
+	/**
+	 * @param popularityHalfLife - time in milliseconds after which an impression or click
+	 * counts half as much for the popularity of an article
+	 */
+	public ContentShard(Long publisherId, TermDictionary words, long popularityHalfLife) {
+		this.publisherId = publisherId;
+		this.words = words;
+		snapshot = new AtomicReference<Snapshot>(new Snapshot());
+		ordinalById = new ConcurrentHashMap<Long, Integer>();
+		freeOrdinals = new int[16];
+		popularity = new PopularityRanking(popularityHalfLife, POPULAR_ARTICLES);
+	}
+
+	public Long getPublisherId() {
+		return publisherId;
+	}
+
+	public long getNewestTimestamp() {
+		return snapshot.get().newestTimestamp;
+	}
+
+	public int size() {
+		return snapshot.get().articleCount;
+	}
+
+	/**
+	 * @return the articles of the shard, in the order they were added
+	 */
+	public List<NewsArticle> getArticles() {
+		Snapshot current = snapshot.get();
+		return new ArrayList<NewsArticle>(
+				Arrays.asList(current.articles).subList(0, current.articleCount));
+	}
+
+	/**
+	 * Adds the words that occur in at least one article of the shard to a collection.
+	 */
+	public void collectWords(Collection<String> result) {
+		Snapshot current = snapshot.get();
+		int size = words.size();
+		for (int termId = 0; termId < size; termId++) {
+			String term = current.invertedIndex.getLength(termId) > 0 ? words.getTerm(termId)
+					: null;
+			// a newer snapshot may have dropped the term meanwhile
+			if (term != null) {
+				result.add(term);
+			}
+		}
+	}
+
+	/**
+	 * Adds an article to the shard, replacing an article of the shard with the same id.
+	 * Computes the term frequency vector of the article. The vectors of the other articles
+	 * are left untouched since IDF weights are only applied at scoring time.
+	 * @param newsArticle - the article to add
+	 */
+	public void add(NewsArticle newsArticle) {
+		addAll(Collections.singletonList(newsArticle));
+	}
+
+	/**
+	 * Adds articles to the shard in one new snapshot, replacing the articles of the shard
+	 * with the same ids. A burst of articles thus copies the index and prunes the vocabulary
+	 * once instead of once per article. Large batches, such as the articles loaded after a
+	 * restart, are tokenized in parallel on the shared pool, and if the terms per article
+	 * are limited, the top terms are selected by the document frequencies the words will
+	 * have once the whole batch is added.
+	 * @param newsArticles - the articles to add, with distinct ids
+	 */
+	public void addAll(List<NewsArticle> newsArticles) {
+		// vectorize before taking the monitor, the dictionary is thread safe
+		List<Map<String, Integer>> keywords = new ArrayList<Map<String, Integer>>(
+				Collections.<Map<String, Integer>>nCopies(newsArticles.size(), null));
+		TokenizingTask tokenizing = new TokenizingTask(newsArticles, keywords, 0,
+				newsArticles.size());
+		if (newsArticles.size() < PARALLEL_TOKENIZATION_THRESHOLD) {
+			tokenizing.compute();
+		} else {
+			scoringPool.invoke(tokenizing);
+		}
+
+		Snapshot current = snapshot.get();
+		Map<String, Integer> batchFrequencies = null;
+		if (current.pruning.getMaxTermsPerArticle() > 0 && keywords.size() > 1) {
+			batchFrequencies = new HashMap<String, Integer>();
+			for (Map<String, Integer> articleKeywords : keywords) {
+				for (String word : articleKeywords.keySet()) {
+					Integer frequency = batchFrequencies.get(word);
+					batchFrequencies.put(word, frequency == null ? 1 : frequency + 1);
+				}
+			}
+		}
+		TermVector[] termFrequencies = new TermVector[keywords.size()];
+		for (int i = 0; i < termFrequencies.length; i++) {
+			termFrequencies[i] = computeTermFrequencyVector(current, keywords.get(i),
+					batchFrequencies, keywords.size());
+		}
+		addAll(newsArticles, termFrequencies);
+	}
+
+	private synchronized void addAll(List<NewsArticle> newsArticles,
+			TermVector[] termFrequencies) {
+		Snapshot next = new Snapshot(snapshot.get());
+		Set<NewsArticle> replaced = new HashSet<NewsArticle>();
+		for (NewsArticle newsArticle : newsArticles) {
+			Integer old = ordinalById.get(newsArticle.getId());
+			if (old != null) {
+				replaced.add(next.articleByOrdinal[old]);
+				removeOrdinal(next, old);
+			}
+		}
+		if (!replaced.isEmpty()) {
+			next.removeArticles(replaced);
+		}
+		int[] ordinals = new int[termFrequencies.length];
+		for (int i = 0; i < ordinals.length; i++) {
+			ordinals[i] = allocateOrdinal(next);
+			next.setOrdinal(ordinals[i], newsArticles.get(i), termFrequencies[i]);
+			next.appendArticle(newsArticles.get(i));
+		}
+		pruneVocabulary(next);
+		snapshot.set(next);
+		for (int i = 0; i < ordinals.length; i++) {
+			ordinalById.put(newsArticles.get(i).getId(), ordinals[i]);
+		}
+		if (!replaced.isEmpty()) {
+			for (NewsArticle newsArticle : newsArticles) {
+				popularity.replace(newsArticle);
+			}
+		}
+	}
+
+	/**
+	 * Switches between exact and approximate scoring. Enabling approximate scoring hashes
+	 * all articles of the shard once; afterwards articles are hashed as they arrive.
+	 * @param projectionHash - the hash to find candidates with, null to score exactly
+	 */
+	public synchronized void setProjectionHash(RandomProjectionHash projectionHash) {
+		Snapshot next = new Snapshot(snapshot.get());
+		next.setProjectionHash(projectionHash);
+		snapshot.set(next);
+	}
+
+	/**
+	 * Changes the limits on the terms of the shard. The document frequency limits apply to
+	 * the next recommendations and a smaller vocabulary is pruned right away, while the
+	 * limit on the terms per article applies to the articles added or updated from now on.
+	 * @param pruning - the limits, TermPruning.NONE to keep all terms
+	 */
+	public synchronized void setPruning(TermPruning pruning) {
+		Snapshot next = new Snapshot(snapshot.get());
+		next.pruning = pruning;
+		pruneVocabulary(next);
+		snapshot.set(next);
+	}
+
+	/**
+	 * @return the number of distinct terms of the articles of the shard
+	 */
+	public int getTermCount() {
+		return snapshot.get().invertedIndex.getTermCount();
+	}
+
+	/**
+	 * Removes an article from the shard.
+	 * @param newsArticle - the article to remove
+	 * @return true if the article was part of the shard
+	 */
+	public synchronized boolean remove(NewsArticle newsArticle) {
+		Snapshot next = new Snapshot(snapshot.get());
+		Integer ordinal = ordinalById.get(newsArticle.getId());
+		if (ordinal == null || next.articleByOrdinal[ordinal] != newsArticle) {
+			return false;
+		}
+		next.removeArticles(Collections.singleton(newsArticle));
+		removeOrdinal(next, ordinal);
+		snapshot.set(next);
+		popularity.remove(Collections.singleton(newsArticle));
+		return true;
+	}
+
+	/**
+	 * Updates the category, text and recommendability of an article of the shard. Only the
+	 * postings of the terms whose frequency changed are re-indexed, which also corrects the
+	 * document frequencies, so an update costs O(changed terms) plus the new snapshot. The
+	 * plista stream repeats most updates unchanged; those are only compared.
+	 *
+	 * The published snapshots share their articles, so a changed article is not modified
+	 * but replaced by a new article in the next snapshot.
+	 * @return the updated article, or the given one if nothing changed
+	 */
+	public NewsArticle update(NewsArticle newsArticle, Long categoryId, String text,
+			Boolean recommendable) {
+		return updateAll(new NewsArticle[] {newsArticle}, new Long[] {categoryId},
+				new String[] {text}, new Boolean[] {recommendable})[0];
+	}
+
+	/**
+	 * Updates several articles of the shard like update, publishing all changes in one new
+	 * snapshot, or none if nothing changed.
+	 * @param newsArticles - the articles to update, distinct
+	 * @param categoryIds - per article, the new category
+	 * @param texts - per article, the new text
+	 * @param recommendable - per article, whether it may be recommended
+	 * @return per article, the updated article, or the given one if nothing changed
+	 */
+	public synchronized NewsArticle[] updateAll(NewsArticle[] newsArticles,
+			Long[] categoryIds, String[] texts, Boolean[] recommendable) {
+		Snapshot current = snapshot.get();
+		Snapshot next = null;
+		NewsArticle[] updated = newsArticles.clone();
+		Map<NewsArticle, NewsArticle> replaced = new HashMap<NewsArticle, NewsArticle>();
+		for (int i = 0; i < newsArticles.length; i++) {
+			NewsArticle newsArticle = newsArticles[i];
+			boolean contentChanged = !texts[i].equals(newsArticle.getText())
+					|| !categoryIds[i].equals(newsArticle.getCategoryId());
+			if (!contentChanged && newsArticle.isRecommendable() == recommendable[i]) {
+				continue;
+			}
+			updated[i] = new NewsArticle(newsArticle.getId(), newsArticle.getPublisherId(),
+					categoryIds[i], texts[i], recommendable[i], newsArticle.getTimestamp());
+			Integer ordinal = ordinalById.get(newsArticle.getId());
+			if (ordinal == null || current.articleByOrdinal[ordinal] != newsArticle) {
+				continue;
+			}
+			TermVector termFrequencies = null;
+			if (contentChanged) {
+				termFrequencies = computeTermFrequencyVector(current,
+						getTermFrequencies(updated[i]), null, 1);
+				if (termFrequencies.hasSameWeights(current.articleTermFrequencies[ordinal])) {
+					words.release(termFrequencies);
+					termFrequencies = null;
+				}
+			}
+			if (next == null) {
+				next = new Snapshot(current);
+			}
+			next.replaceArticle(ordinal, updated[i]);
+			replaced.put(newsArticle, updated[i]);
+			if (termFrequencies != null) {
+				TermVector old = next.articleTermFrequencies[ordinal];
+				next.updateOrdinal(ordinal, termFrequencies);
+				words.release(old);
+			}
+		}
+		if (next != null) {
+			next.replaceArticles(replaced);
+			pruneVocabulary(next);
+			snapshot.set(next);
+			for (NewsArticle newsArticle : replaced.values()) {
+				popularity.replace(newsArticle);
+			}
+		}
+		return updated;
+	}
+
+	/**
+	 * Removes the articles that are older than a timestamp or beyond the maximal number of
+	 * articles of the shard. Their words no longer count for the document frequencies. All
+	 * articles are removed in one new snapshot.
+	 * @param minTimestamp - articles with an older timestamp are removed
+	 * @param maxArticles - the number of most recent articles to keep, 0 for no limit
+	 * @return the removed articles
+	 */
+	public synchronized List<NewsArticle> evict(long minTimestamp, int maxArticles) {
+		Snapshot current = snapshot.get();
+		List<NewsArticle> expired = new ArrayList<NewsArticle>();
+		List<NewsArticle> kept = new ArrayList<NewsArticle>(current.articleCount);
+		for (int i = 0; i < current.articleCount; i++) {
+			NewsArticle article = current.articles[i];
+			if (article.getTimestamp() < minTimestamp) {
+				expired.add(article);
+			} else {
+				kept.add(article);
+			}
+		}
+		if (maxArticles > 0 && kept.size() > maxArticles) {
+			// keep the most recent articles of the publisher
+			Collections.sort(kept, new Comparator<NewsArticle>() {
+				@Override
+				public int compare(NewsArticle article, NewsArticle otherArticle) {
+					long diff = otherArticle.getTimestamp() - article.getTimestamp();
+					return diff < 0 ? -1 : (diff > 0 ? 1 : 0);
+				}
+			});
+			expired.addAll(kept.subList(maxArticles, kept.size()));
+		}
+		if (expired.isEmpty()) {
+			return expired;
+		}
+
+		Snapshot next = new Snapshot(current);
+		next.removeArticles(new HashSet<NewsArticle>(expired));
+		for (NewsArticle article : expired) {
+			removeOrdinal(next, ordinalById.get(article.getId()));
+		}
+		snapshot.set(next);
+		popularity.remove(expired);
+		return expired;
+	}
+
+	/**
+	 * Counts an impression or a click of an article of the shard towards its popularity.
+	 * @param articleId - id of the viewed or clicked article
+	 * @param weight - the weight of the event
+	 * @param timestamp - time of the event, in milliseconds
+	 * @return false if the article is not in the shard
+	 */
+	public boolean addToPopularity(Long articleId, double weight, long timestamp) {
+		Snapshot current = snapshot.get();
+		int ordinal = getOrdinal(current, articleId);
+		if (ordinal < 0) {
+			return false;
+		}
+		NewsArticle article = current.articleByOrdinal[ordinal];
+		popularity.add(article, weight, timestamp);
+		// a writer removing or replacing the article meanwhile may have updated the ranking
+		// before the event was added; it publishes its snapshot first, so the check sees it
+		Snapshot latest = snapshot.get();
+		if (latest != current) {
+			ordinal = getOrdinal(latest, articleId);
+			if (ordinal < 0) {
+				popularity.remove(Collections.singleton(article));
+			} else if (latest.articleByOrdinal[ordinal] != article) {
+				popularity.replace(latest.articleByOrdinal[ordinal]);
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Selects the most popular recommendable articles of the shard, for users the system
+	 * knows nothing about. Reads the published ranking without locking or allocating.
+	 * @param excluded - articles that must not be returned, such as the one being viewed
+	 * @param selected - receives the selected articles, most popular first; its length is the
+	 * number of articles to select
+	 * @return the number of selected articles
+	 */
+	public int selectPopularArticles(ExcludedArticles excluded, NewsArticle[] selected) {
+		NewsArticle[] ranking = popularity.getRanking();
+		int count = 0;
+		for (int i = 0; i < ranking.length && count < selected.length; i++) {
+			NewsArticle article = ranking[i];
+			if (article.isRecommendable() && !excluded.contains(article)) {
+				selected[count++] = article;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Returns the profile of a user after reading an article of the shard.
+	 * @param profile - the current profile of the user
+	 * @param articleId - id of the read article
+	 * @param timestamp - time of the read, in milliseconds
+	 * @param halfLife - half life of a read in milliseconds, or 0 to weight all reads equally
+	 * @return the updated profile, or the given one if the article is not in the shard
+	 */
+	public UserProfile addToProfile(UserProfile profile, Long articleId, long timestamp,
+			long halfLife) {
+		Snapshot current = snapshot.get();
+		int ordinal = getOrdinal(current, articleId);
+		if (ordinal < 0) {
+			return profile;
+		}
+		TermVector termFrequencies = current.articleTermFrequencies[ordinal];
+		return profile.add(termFrequencies, getNorm(current, termFrequencies), timestamp,
+				halfLife);
+	}
+
+	/**
+	 * Selects the articles of the shard most similar to a profile. Small queries are
+	 * evaluated on the calling thread. If the profile matches more postings than the parallel
+	 * scoring threshold, the article ordinals are split into ranges that are scored in
+	 * parallel on the shared fork/join pool, each range keeping its own top k, and the
+	 * partial results are merged. If the shard has a projection hash, only the articles in
+	 * the buckets probed by the profile are scored. If the deadline passes, the scoring
+	 * stops and the best articles found so far are selected.
+	 * @param profile - the profile of the user
+	 * @param excluded - articles that must not be returned
+	 * @param parallelScoringThreshold - the number of postings from which on the query is
+	 * scored in parallel
+	 * @param deadline - the deadline of the request
+	 * @param selected - receives the selected articles by descending similarity; its length
+	 * is the number of articles to select
+	 * @param scores - receives the cosine similarities of the selected articles, may be null
+	 * @return the number of selected articles
+	 */
+	public int selectArticles(UserProfile profile, ExcludedArticles excluded,
+			long parallelScoringThreshold, ScoringDeadline deadline, NewsArticle[] selected,
+			float[] scores) {
+		Snapshot current = snapshot.get();
+		TopKSelector selector = new TopKSelector(selected.length);
+		int articleCount = current.ordinalCount;
+		BitSet candidates = getCandidates(current, excluded);
+		ScoringPlan plan = current.projectionHash == null ? new ScoringPlan(current, profile)
+				: null;
+		if (plan == null) {
+			selectApproximately(current, profile, candidates, excluded, deadline, selector);
+		} else if (plan.postings < parallelScoringThreshold || articleCount < 2) {
+			selectArticles(plan, candidates, excluded, deadline, 0, articleCount, selector);
+		} else {
+			int rangeSize = Math.max(1, articleCount / (2 * scoringPool.getParallelism()));
+			selector.offerAll(scoringPool.invoke(new ScoringTask(plan, candidates, excluded,
+					deadline, 0, articleCount, selector.getCapacity(), rangeSize)));
+		}
+		int[] best = new int[selector.size()];
+		int count = selector.drainTo(best, scores);
+		for (int i = 0; i < count; i++) {
+			selected[i] = current.articleByOrdinal[best[i]];
+		}
+		return count;
+	}
+
+	/**
+	 * Selects the articles of the shard most similar to each of several profiles at once,
+	 * for replaying logs offline. Instead of evaluating every profile over the inverted
+	 * index, the profiles are merged into one index from term to the profiles containing it,
+	 * and the articles are scanned once by ordinal: the terms of an article are looked up in
+	 * the profile index and the products are added up in one array with an entry per
+	 * profile. Every article is read once for the whole batch, so this pays off from a few
+	 * profiles on. If the shard has a projection hash, the profiles are scored one by one.
+	 * There is no deadline.
+	 * @param profiles - the profiles of the users
+	 * @param excluded - per profile, the articles that must not be returned
+	 * @param selected - per profile, receives the selected articles by descending
+	 * similarity; its length is the number of articles to select
+	 * @param scores - per profile, receives the cosine similarities of the selected
+	 * articles
+	 * @return per profile, the number of selected articles
+	 */
+	public int[] selectArticles(UserProfile[] profiles, ExcludedArticles[] excluded,
+			NewsArticle[][] selected, float[][] scores) {
+		Snapshot current = snapshot.get();
+		TopKSelector[] selectors = new TopKSelector[profiles.length];
+		BitSet[] candidates = new BitSet[profiles.length];
+		for (int p = 0; p < profiles.length; p++) {
+			selectors[p] = new TopKSelector(selected[p].length);
+			candidates[p] = getCandidates(current, excluded[p]);
+		}
+		if (current.projectionHash != null) {
+			for (int p = 0; p < profiles.length; p++) {
+				selectApproximately(current, profiles[p], candidates[p], excluded[p],
+						ScoringDeadline.NONE, selectors[p]);
+			}
+		} else {
+			selectArticles(current, profiles, candidates, excluded, selectors);
+		}
+		int[] counts = new int[profiles.length];
+		for (int p = 0; p < profiles.length; p++) {
+			int[] best = new int[selectors[p].size()];
+			counts[p] = selectors[p].drainTo(best, scores[p]);
+			for (int i = 0; i < counts[p]; i++) {
+				selected[p][i] = current.articleByOrdinal[best[i]];
+			}
+		}
+		return counts;
+	}
+
+	/**
+	 * Scores every article of a snapshot against a batch of profiles.
+	 * @see #selectArticles(UserProfile[], ExcludedArticles[], NewsArticle[][], float[][])
+	 */
+	private static void selectArticles(Snapshot current, UserProfile[] profiles,
+			BitSet[] candidates, ExcludedArticles[] excluded, TopKSelector[] selectors) {
+		// term -> the profiles containing the term with their weight times IDF squared, in
+		// compressed rows: the entries of term t are at offsets[t] until offsets[t + 1]
+		int maxTerm = -1;
+		for (UserProfile profile : profiles) {
+			if (profile.size() > 0) {
+				maxTerm = Math.max(maxTerm, profile.getTerm(profile.size() - 1));
+			}
+		}
+		int[] offsets = new int[maxTerm + 2];
+		for (UserProfile profile : profiles) {
+			for (int i = 0; i < profile.size(); i++) {
+				offsets[profile.getTerm(i) + 1]++;
+			}
+		}
+		for (int term = 0; term <= maxTerm; term++) {
+			offsets[term + 1] += offsets[term];
+		}
+		int[] next = Arrays.copyOf(offsets, maxTerm + 1);
+		int[] entryProfiles = new int[offsets[maxTerm + 1]];
+		float[] entryWeights = new float[entryProfiles.length];
+		for (int p = 0; p < profiles.length; p++) {
+			UserProfile profile = profiles[p];
+			for (int i = 0; i < profile.size(); i++) {
+				int term = profile.getTerm(i);
+				double idf = getIdf(current, term);
+				entryProfiles[next[term]] = p;
+				entryWeights[next[term]++] = (float) (profile.getWeight(i) * idf * idf);
+			}
+		}
+
+		// the profiles touched by the current article, each recorded once through the
+		// article that last touched it
+		float[] dots = new float[profiles.length];
+		int[] touched = new int[profiles.length];
+		int[] lastArticles = new int[profiles.length];
+		Arrays.fill(lastArticles, -1);
+		for (int article = 0; article < current.ordinalCount; article++) {
+			TermVector termFrequencies = current.articleTermFrequencies[article];
+			if (termFrequencies == null) {
+				continue;
+			}
+			int touchedCount = 0;
+			for (int i = 0; i < termFrequencies.size(); i++) {
+				int term = termFrequencies.getTerm(i);
+				if (term > maxTerm) {
+					break;
+				}
+				float frequency = termFrequencies.getWeight(i);
+				for (int entry = offsets[term]; entry < offsets[term + 1]; entry++) {
+					int p = entryProfiles[entry];
+					if (lastArticles[p] != article) {
+						lastArticles[p] = article;
+						touched[touchedCount++] = p;
+					}
+					dots[p] += entryWeights[entry] * frequency;
+				}
+			}
+			if (touchedCount == 0) {
+				continue;
+			}
+			double norm = getNorm(current, termFrequencies);
+			float factor = norm == 0 ? 0 : (float) (1 / norm);
+			for (int t = 0; t < touchedCount; t++) {
+				int p = touched[t];
+				float score = dots[p] * factor;
+				dots[p] = 0;
+				// only candidates that make it into the top k are checked against the
+				// articles the user has seen
+				if (score > 0 && score >= selectors[p].getThreshold()
+						&& candidates[p].get(article)
+						&& !excluded[p].isSeen(current.articleByOrdinal[article])) {
+					selectors[p].offer(article, score);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns the most recently added recommendable articles of the shard.
+	 * @param n - the maximal number of articles to return
+	 * @param excluded - articles that must not be returned
+	 * @return the articles, most recent first
+	 */
+	public List<NewsArticle> getRecentArticles(int n, ExcludedArticles excluded) {
+		Snapshot current = snapshot.get();
+		List<NewsArticle> result = new ArrayList<NewsArticle>(n);
+		for (int i = current.articleCount - 1; i >= 0 && result.size() < n; i--) {
+			NewsArticle article = current.articles[i];
+			if (article.isRecommendable() && !excluded.contains(article)) {
+				result.add(article);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Selects the articles in a range of ordinals that are most similar to a profile by
+	 * evaluating the profile term at a time over the inverted index, so only articles sharing
+	 * terms with the profile are scored. Once the terms left could not lift an unseen
+	 * article above the k-th best score found so far, no new candidates are admitted and the
+	 * remaining postings only complete the scores of the known candidates (MaxScore).
+	 *
+	 * The terms are visited by descending bound, so the terms that can add most to a score
+	 * come first. If the deadline passes, the remaining postings are skipped and the
+	 * candidates are selected by the scores accumulated so far, which are lower bounds of
+	 * their similarities.
+	 * @param plan - the prepared profile of the user
+	 * @param candidates - the ordinals of the articles that may be returned
+	 * @param excluded - articles that must not be returned
+	 * @param deadline - the deadline of the request
+	 * @param from - the first ordinal to consider
+	 * @param to - the ordinal after the last one to consider
+	 * @param selector - receives the ordinals of the matching articles with their scores
+	 */
+	private static void selectArticles(ScoringPlan plan, BitSet candidates,
+			ExcludedArticles excluded, ScoringDeadline deadline, int from, int to,
+			TopKSelector selector) {
+		Snapshot current = plan.snapshot;
+		InvertedIndex invertedIndex = current.invertedIndex;
+		int k = selector.getCapacity();
+		double remaining = plan.boundSum;
+		ScoreAccumulator accumulator = accumulators.get();
+		accumulator.reset(current.ordinalCount, k);
+		boolean admitCandidates = true;
+		terms:
+		for (int i = 0; i < plan.terms.length; i++) {
+			if (deadline.hasPassed()) {
+				break;
+			}
+			int term = plan.terms[i];
+			float weight = plan.weights[i];
+			remaining -= plan.bounds[i];
+
+			int[] termArticles = invertedIndex.getArticles(term);
+			float[] frequencies = invertedIndex.getFrequencies(term);
+			int length = invertedIndex.getLength(term);
+			int p = from == 0 ? 0 : invertedIndex.getPosition(term, from);
+			for (int visited = 1; p < length && termArticles[p] < to; p++, visited++) {
+				if (visited % ScoringDeadline.CHECK_INTERVAL == 0 && deadline.hasPassed()) {
+					break terms;
+				}
+				int article = termArticles[p];
+				if (!accumulator.contains(article)) {
+					if (!admitCandidates) {
+						continue;
+					}
+					if (!candidates.get(article)) {
+						accumulator.exclude(article);
+						continue;
+					}
+					NewsArticle newsArticle = current.articleByOrdinal[article];
+					double norm = getNorm(current, current.articleTermFrequencies[article]);
+					if (norm == 0 || excluded.isSeen(newsArticle)) {
+						accumulator.exclude(article);
+						continue;
+					}
+					accumulator.create(article, (float) (1 / norm));
+				}
+				accumulator.add(article, weight * frequencies[p]);
+			}
+
+			if (admitCandidates && remaining < accumulator.getThreshold()) {
+				admitCandidates = false;
+			}
+		}
+
+		for (int i = 0; i < accumulator.size(); i++) {
+			int article = accumulator.getArticle(i);
+			if (accumulator.getScore(article) != Float.NEGATIVE_INFINITY) {
+				selector.offer(article, accumulator.getScore(article));
+			}
+		}
+	}
+
+	/**
+	 * Selects the articles that are most similar to a profile among the articles in the
+	 * buckets the profile probes in the projection hash tables of a snapshot. Every
+	 * candidate is scored once by its exact cosine similarity to the profile. The buckets
+	 * are visited in probing order, nearest first, until the deadline passes.
+	 * @param current - the snapshot, which must have a projection hash
+	 * @param profile - the profile of the user
+	 * @param candidates - the ordinals of the articles that may be returned
+	 * @param excluded - articles that must not be returned
+	 * @param deadline - the deadline of the request
+	 * @param selector - receives the ordinals of the best candidates with their scores
+	 */
+	private static void selectApproximately(Snapshot current, UserProfile profile,
+			BitSet candidates, ExcludedArticles excluded, ScoringDeadline deadline,
+			TopKSelector selector) {
+		// the profile in TF-IDF space for hashing, and weighted by IDF squared in a dense
+		// array for the exact similarity, so a candidate is scored in O(terms of the article)
+		int size = profile.size();
+		int[] terms = new int[size];
+		float[] weights = new float[size];
+		float[] dense = denseProfiles.get();
+		if (size > 0 && profile.getTerm(size - 1) >= dense.length) {
+			dense = new float[Math.max(profile.getTerm(size - 1) + 1, 2 * dense.length)];
+			denseProfiles.set(dense);
+		}
+		for (int i = 0; i < size; i++) {
+			terms[i] = profile.getTerm(i);
+			double idf = getIdf(current, terms[i]);
+			weights[i] = (float) (profile.getWeight(i) * idf);
+			dense[terms[i]] = (float) (weights[i] * idf);
+		}
+		try {
+			selectApproximately(current, terms, weights, dense, candidates, excluded, deadline,
+					selector);
+		} finally {
+			for (int i = 0; i < size; i++) {
+				dense[terms[i]] = 0;
+			}
+		}
+	}
+
+	private static void selectApproximately(Snapshot current, int[] terms, float[] weights,
+			float[] dense, BitSet candidates, ExcludedArticles excluded,
+			ScoringDeadline deadline, TopKSelector selector) {
+		int size = terms.length;
+		RandomProjectionHash projectionHash = current.projectionHash;
+		int[] buckets = projectionHash.getProbeBuckets(projectionHash.project(terms, weights,
+				size));
+
+		// candidates are marked as excluded once they are scored, so an article found in
+		// several buckets is scored only once
+		ScoreAccumulator seen = accumulators.get();
+		seen.reset(current.ordinalCount);
+		for (int bucket : buckets) {
+			if (deadline.hasPassed()) {
+				break;
+			}
+			int[] bucketArticles = current.buckets.getArticles(bucket);
+			int length = current.buckets.getLength(bucket);
+			for (int p = 0; p < length; p++) {
+				int article = bucketArticles[p];
+				if (seen.contains(article)) {
+					continue;
+				}
+				seen.exclude(article);
+				if (!candidates.get(article)) {
+					continue;
+				}
+				TermVector termFrequencies = current.articleTermFrequencies[article];
+				double norm = getNorm(current, termFrequencies);
+				if (norm == 0) {
+					continue;
+				}
+				double dot = 0;
+				for (int i = 0; i < termFrequencies.size(); i++) {
+					int term = termFrequencies.getTerm(i);
+					if (term < dense.length) {
+						dot += termFrequencies.getWeight(i) * dense[term];
+					}
+				}
+				// only candidates that make it into the top k are checked against the
+				// articles the user has seen
+				float score = (float) (dot / norm);
+				if (score > 0 && score >= selector.getThreshold()
+						&& !excluded.isSeen(current.articleByOrdinal[article])) {
+					selector.offer(article, score);
+				}
+			}
+		}
+	}
+
+	/**
+	 * A profile prepared for evaluation over the inverted index of a snapshot: the profile
+	 * terms with an IDF above zero, in descending order of the most they can add to the
+	 * cosine similarity of an article. A term has at most a weight of 1 in a normalized
+	 * TF-IDF vector, so this bound is its profile weight times its IDF.
+	 */
+	private static class ScoringPlan {
+
+		final Snapshot snapshot;
+
+		final int[] terms;
+
+		/**
+		 * Profile weight times IDF squared, multiplied with the term frequencies of the
+		 * postings.
+		 */
+		final float[] weights;
+
+		final float[] bounds;
+
+		final double boundSum;
+
+		/**
+		 * Number of postings the plan visits.
+		 */
+		final long postings;
+
+		ScoringPlan(Snapshot snapshot, UserProfile profile) {
+			this.snapshot = snapshot;
+			// the bounds are packed with the term index so the terms can be sorted by bound
+			// in one go
+			long[] order = new long[profile.size()];
+			int n = 0;
+			for (int i = 0; i < profile.size(); i++) {
+				float bound = (float) (profile.getWeight(i) * getIdf(snapshot, profile.getTerm(i)));
+				if (bound > 0) {
+					order[n++] = ((long) Float.floatToIntBits(bound) << 32) | i;
+				}
+			}
+			Arrays.sort(order, 0, n);
+
+			terms = new int[n];
+			weights = new float[n];
+			bounds = new float[n];
+			double sum = 0;
+			long count = 0;
+			for (int r = 0; r < n; r++) {
+				int i = (int) order[n - 1 - r];
+				double idf = getIdf(snapshot, profile.getTerm(i));
+				terms[r] = profile.getTerm(i);
+				weights[r] = (float) (profile.getWeight(i) * idf * idf);
+				bounds[r] = Float.intBitsToFloat((int) (order[n - 1 - r] >>> 32));
+				sum += bounds[r];
+				count += snapshot.invertedIndex.getLength(terms[r]);
+			}
+			boundSum = sum;
+			postings = count;
+		}
+	}
+
+	/**
+	 * Scores a range of article ordinals, splitting it in halves that are scored in parallel
+	 * until the ranges are small enough.
+	 */
+	private static class ScoringTask extends RecursiveTask<TopKSelector> {
+
+		private static final long serialVersionUID = 1L;
+
+		private final ScoringPlan plan;
+		private final BitSet candidates;
+		private final ExcludedArticles excluded;
+		private final ScoringDeadline deadline;
+		private final int from;
+		private final int to;
+		private final int k;
+		private final int rangeSize;
+
+		ScoringTask(ScoringPlan plan, BitSet candidates, ExcludedArticles excluded,
+				ScoringDeadline deadline, int from, int to, int k, int rangeSize) {
+			this.plan = plan;
+			this.candidates = candidates;
+			this.excluded = excluded;
+			this.deadline = deadline;
+			this.from = from;
+			this.to = to;
+			this.k = k;
+			this.rangeSize = rangeSize;
+		}
+
+		@Override
+		protected TopKSelector compute() {
+			if (to - from <= rangeSize) {
+				TopKSelector selector = new TopKSelector(k);
+				selectArticles(plan, candidates, excluded, deadline, from, to, selector);
+				return selector;
+			}
+			int middle = (from + to) >>> 1;
+			ScoringTask lower = new ScoringTask(plan, candidates, excluded, deadline, from,
+					middle, k, rangeSize);
+			lower.fork();
+			TopKSelector selector = new ScoringTask(plan, candidates, excluded, deadline,
+					middle, to, k, rangeSize).compute();
+			selector.offerAll(lower.join());
+			return selector;
+		}
+	}
+
+	/**
+	 * Tokenizes a range of articles, splitting it in halves that are tokenized in parallel
+	 * until the ranges are small enough.
+	 */
+	private static class TokenizingTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final List<NewsArticle> newsArticles;
+		private final List<Map<String, Integer>> keywords;
+		private final int from;
+		private final int to;
+
+		TokenizingTask(List<NewsArticle> newsArticles, List<Map<String, Integer>> keywords,
+				int from, int to) {
+			this.newsArticles = newsArticles;
+			this.keywords = keywords;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from <= PARALLEL_TOKENIZATION_THRESHOLD) {
+				for (int i = from; i < to; i++) {
+					keywords.set(i, getTermFrequencies(newsArticles.get(i)));
+				}
+				return;
+			}
+			int middle = (from + to) >>> 1;
+			invokeAll(new TokenizingTask(newsArticles, keywords, from, middle),
+					new TokenizingTask(newsArticles, keywords, middle, to));
+		}
+	}
+
+	/**
+	 * One version of the model of a shard. A snapshot is built by a writer from the previous
+	 * one and is never changed once it has been published. It shares the arrays of the
+	 * previous version as long as it only appends behind the end the previous version can
+	 * see, and copies them before changing anything else.
+	 */
+	private static final class Snapshot {
+
+		/**
+		 * The articles of the shard in the order they were added, the first articleCount
+		 * entries are valid.
+		 */
+		NewsArticle[] articles;
+		int articleCount;
+
+		/**
+		 * Ordinal -> article. Every article in the shard has a dense integer ordinal that is
+		 * used by the inverted index and the score accumulators. Ordinals of removed
+		 * articles are reused, unused ordinals map to null.
+		 */
+		NewsArticle[] articleByOrdinal;
+
+		/**
+		 * Ordinal -> sparse vector of the raw term frequencies of the article. IDF weights
+		 * are applied when the vectors are compared.
+		 */
+		TermVector[] articleTermFrequencies;
+
+		/**
+		 * The ordinals of the recommendable articles.
+		 */
+		BitSet recommendable;
+
+		/**
+		 * The number of ordinals handed out so far, including free ones.
+		 */
+		int ordinalCount;
+
+		/**
+		 * Term -> postings index over the term vectors. The postings refer to articles by
+		 * their ordinal.
+		 */
+		InvertedIndex invertedIndex;
+
+		/**
+		 * The hash used for approximate scoring, null to score exactly.
+		 */
+		RandomProjectionHash projectionHash;
+
+		/**
+		 * Bucket -> ordinals of the articles in the bucket; null unless there is a
+		 * projection hash.
+		 */
+		InvertedIndex buckets;
+
+		/**
+		 * Ordinal -> the buckets of the article, computed with the IDF weights of the
+		 * version the article was added in.
+		 */
+		TermVector[] articleBuckets;
+
+		/**
+		 * Incremented with every version. Used to invalidate the cached TF-IDF norms of the
+		 * term vectors, since every version may change the document frequencies.
+		 */
+		int generation;
+
+		/**
+		 * Timestamp of the newest article added to the shard.
+		 */
+		long newestTimestamp;
+
+		/**
+		 * The limits on the terms that are kept and scored.
+		 */
+		TermPruning pruning = TermPruning.NONE;
+
+		/**
+		 * Whether the ordinal arrays were allocated by this version.
+		 */
+		private boolean ordinalsOwned;
+
+		/**
+		 * Whether the bitset of the recommendable articles was copied by this version. It is
+		 * copied before any change, since a bitset may reallocate its words when it grows.
+		 */
+		private boolean recommendableOwned;
+
+		Snapshot() {
+			articles = new NewsArticle[64];
+			articleByOrdinal = new NewsArticle[64];
+			articleTermFrequencies = new TermVector[64];
+			articleBuckets = new TermVector[64];
+			recommendable = new BitSet();
+			invertedIndex = new InvertedIndex();
+			ordinalsOwned = true;
+			recommendableOwned = true;
+		}
+
+		Snapshot(Snapshot previous) {
+			articles = previous.articles;
+			articleCount = previous.articleCount;
+			articleByOrdinal = previous.articleByOrdinal;
+			articleTermFrequencies = previous.articleTermFrequencies;
+			articleBuckets = previous.articleBuckets;
+			recommendable = previous.recommendable;
+			ordinalCount = previous.ordinalCount;
+			invertedIndex = new InvertedIndex(previous.invertedIndex);
+			projectionHash = previous.projectionHash;
+			if (previous.buckets != null) {
+				buckets = new InvertedIndex(previous.buckets);
+			}
+			generation = previous.generation + 1;
+			newestTimestamp = previous.newestTimestamp;
+			pruning = previous.pruning;
+		}
+
+		void appendArticle(NewsArticle article) {
+			if (articleCount == articles.length) {
+				articles = Arrays.copyOf(articles, 2 * articleCount);
+			}
+			articles[articleCount++] = article;
+			newestTimestamp = Math.max(newestTimestamp, article.getTimestamp());
+		}
+
+		/**
+		 * Drops articles from the list of articles, compacting it into a new array.
+		 */
+		void removeArticles(Set<NewsArticle> removed) {
+			NewsArticle[] remaining = new NewsArticle[articles.length];
+			int count = 0;
+			for (int i = 0; i < articleCount; i++) {
+				if (!removed.contains(articles[i])) {
+					remaining[count++] = articles[i];
+				}
+			}
+			articles = remaining;
+			articleCount = count;
+		}
+
+		/**
+		 * Indexes an article under an ordinal, replacing the postings of an article that
+		 * already has the ordinal.
+		 */
+		void setOrdinal(int ordinal, NewsArticle article, TermVector termFrequencies) {
+			if (ordinal == ordinalCount) {
+				if (ordinalCount == articleByOrdinal.length) {
+					articleByOrdinal = Arrays.copyOf(articleByOrdinal, 2 * ordinalCount);
+					articleTermFrequencies = Arrays.copyOf(articleTermFrequencies,
+							2 * ordinalCount);
+					articleBuckets = Arrays.copyOf(articleBuckets, 2 * ordinalCount);
+					ordinalsOwned = true;
+				}
+				ordinalCount++;
+			} else {
+				ownOrdinals();
+				if (articleTermFrequencies[ordinal] != null) {
+					unindex(ordinal);
+				}
+			}
+			articleByOrdinal[ordinal] = article;
+			articleTermFrequencies[ordinal] = termFrequencies;
+			setRecommendable(ordinal, article.isRecommendable());
+			invertedIndex.add(ordinal, termFrequencies);
+			if (projectionHash != null) {
+				hash(ordinal);
+			}
+		}
+
+		/**
+		 * Replaces the term vector of an article, applying only the difference to the
+		 * inverted index.
+		 * @return the number of changed postings
+		 */
+		int updateOrdinal(int ordinal, TermVector termFrequencies) {
+			ownOrdinals();
+			int changed = invertedIndex.update(ordinal, articleTermFrequencies[ordinal],
+					termFrequencies);
+			articleTermFrequencies[ordinal] = termFrequencies;
+			if (articleBuckets[ordinal] != null) {
+				buckets.remove(ordinal, articleBuckets[ordinal]);
+				hash(ordinal);
+			}
+			return changed;
+		}
+
+		/**
+		 * Puts a new version of an article in the place of the old one under its ordinal,
+		 * keeping its postings.
+		 */
+		void replaceArticle(int ordinal, NewsArticle article) {
+			ownOrdinals();
+			articleByOrdinal[ordinal] = article;
+			setRecommendable(ordinal, article.isRecommendable());
+		}
+
+		/**
+		 * Replaces articles in the list of articles, copying it into a new array.
+		 * @param replaced - old article -> new article
+		 */
+		void replaceArticles(Map<NewsArticle, NewsArticle> replaced) {
+			if (replaced.isEmpty()) {
+				return;
+			}
+			articles = articles.clone();
+			for (int i = 0; i < articleCount; i++) {
+				NewsArticle article = replaced.get(articles[i]);
+				if (article != null) {
+					articles[i] = article;
+				}
+			}
+		}
+
+		void clearOrdinal(int ordinal) {
+			ownOrdinals();
+			unindex(ordinal);
+			articleByOrdinal[ordinal] = null;
+			articleTermFrequencies[ordinal] = null;
+			setRecommendable(ordinal, false);
+		}
+
+		void setRecommendable(int ordinal, boolean value) {
+			if (recommendable.get(ordinal) != value) {
+				if (!recommendableOwned) {
+					recommendable = (BitSet) recommendable.clone();
+					recommendableOwned = true;
+				}
+				recommendable.set(ordinal, value);
+			}
+		}
+
+		/**
+		 * Replaces the projection hash, hashing all articles with the new one.
+		 */
+		void setProjectionHash(RandomProjectionHash hash) {
+			ownOrdinals();
+			Arrays.fill(articleBuckets, null);
+			projectionHash = hash;
+			buckets = hash == null ? null : new InvertedIndex();
+			if (hash != null) {
+				for (int ordinal = 0; ordinal < ordinalCount; ordinal++) {
+					if (articleTermFrequencies[ordinal] != null) {
+						hash(ordinal);
+					}
+				}
+			}
+		}
+
+		private void unindex(int ordinal) {
+			invertedIndex.remove(ordinal, articleTermFrequencies[ordinal]);
+			if (articleBuckets[ordinal] != null) {
+				buckets.remove(ordinal, articleBuckets[ordinal]);
+				articleBuckets[ordinal] = null;
+			}
+		}
+
+		/**
+		 * Puts an article into the buckets of its TF-IDF vector.
+		 */
+		private void hash(int ordinal) {
+			TermVector termFrequencies = articleTermFrequencies[ordinal];
+			int size = termFrequencies.size();
+			int[] terms = new int[size];
+			float[] weights = new float[size];
+			for (int i = 0; i < size; i++) {
+				terms[i] = termFrequencies.getTerm(i);
+				weights[i] = (float) (termFrequencies.getWeight(i) * getIdf(this, terms[i]));
+			}
+			int[] articleBucketIds = projectionHash.getBuckets(projectionHash.project(terms,
+					weights, size));
+			float[] ones = new float[articleBucketIds.length];
+			Arrays.fill(ones, 1f);
+			articleBuckets[ordinal] = new TermVector(articleBucketIds, ones);
+			buckets.add(ordinal, articleBuckets[ordinal]);
+		}
+
+		private void ownOrdinals() {
+			if (!ordinalsOwned) {
+				articleByOrdinal = articleByOrdinal.clone();
+				articleTermFrequencies = articleTermFrequencies.clone();
+				articleBuckets = articleBuckets.clone();
+				ordinalsOwned = true;
+			}
+		}
+	}
+
+	/**
+	 * Returns the ordinals of the articles of a snapshot that a request may recommend: the
+	 * recommendable articles without the excluded ones. The articles the user has seen are
+	 * only known approximately by their ids, so they are checked per candidate instead.
+	 */
+	private BitSet getCandidates(Snapshot current, ExcludedArticles excluded) {
+		BitSet candidates = (BitSet) current.recommendable.clone();
+		for (long articleId : excluded.getIds()) {
+			int ordinal = getOrdinal(current, articleId);
+			if (ordinal >= 0) {
+				candidates.clear(ordinal);
+			}
+		}
+		return candidates;
+	}
+
+	/**
+	 * Returns the ordinal of an article in a snapshot, or -1 if the snapshot does not
+	 * contain the article.
+	 */
+	private int getOrdinal(Snapshot current, Long articleId) {
+		Integer ordinal = ordinalById.get(articleId);
+		if (ordinal == null || ordinal >= current.ordinalCount
+				|| current.articleByOrdinal[ordinal] == null
+				|| !current.articleByOrdinal[ordinal].getId().equals(articleId)) {
+			return -1;
+		}
+		return ordinal;
+	}
+
+	/**
+	 * Removes the article with an ordinal from a new snapshot and frees the ordinal and the
+	 * terms of the article. The list of articles is cleaned up by the caller.
+	 */
+	private void removeOrdinal(Snapshot next, int ordinal) {
+		ordinalById.remove(next.articleByOrdinal[ordinal].getId());
+		words.release(next.articleTermFrequencies[ordinal]);
+		next.clearOrdinal(ordinal);
+		if (freeOrdinalCount == freeOrdinals.length) {
+			freeOrdinals = Arrays.copyOf(freeOrdinals, 2 * freeOrdinalCount);
+		}
+		freeOrdinals[freeOrdinalCount++] = ordinal;
+	}
+
+	private int allocateOrdinal(Snapshot next) {
+		if (freeOrdinalCount > 0) {
+			return freeOrdinals[--freeOrdinalCount];
+		}
+		return next.ordinalCount;
+	}
+
+	/**
+	 * Returns the IDF of a word in a snapshot. The number of articles is smoothed by one so
+	 * that words occurring in every article of a small shard, such as the publisher id,
+	 * keep a small positive weight. Words the pruning of the snapshot excludes from scoring
+	 * have an IDF of zero.
+	 */
+	private static double getIdf(Snapshot snapshot, int termId) {
+		int documentFrequency = snapshot.invertedIndex.getLength(termId);
+		double result = 0;
+		if (documentFrequency > 0
+				&& snapshot.pruning.isScored(documentFrequency, snapshot.articleCount)) {
+			result = Math.log((double) (snapshot.articleCount + 1) / documentFrequency);
+		}
+		return result;
+	}
+
+	/**
+	 * Tokenizes an article into its words with their (dampened) frequencies. The article
+	 * does not keep its keywords, so every call runs the language processor over the whole
+	 * text again; callers tokenize an article once when it is added and once per update
+	 * that changes its text or category.
+	 */
+	private static Map<String, Integer> getTermFrequencies(NewsArticle newsArticle) {
+		Map<String, Integer> keywords = newsArticle.getKeywords();
+		for (Map.Entry<String, Integer> keyword : keywords.entrySet()) {
+			keyword.setValue((int) dampen(keyword.getValue()));
+		}
+		return keywords;
+	}
+
+	/**
+	 * Computes the term frequency vector of an article, keeping only its top terms if the
+	 * pruning limits the terms per article. The vector is counted in the dictionary.
+	 * @param current - the snapshot the article is added to
+	 * @param keywords - the words of the article with their frequencies
+	 * @param batchFrequencies - word -> the number of articles of the batch containing it,
+	 * null if the article is added on its own
+	 * @param batchSize - the number of articles added together with the article
+	 */
+	private TermVector computeTermFrequencyVector(Snapshot current,
+			Map<String, Integer> keywords, Map<String, Integer> batchFrequencies,
+			int batchSize) {
+		int maxTerms = current.pruning.getMaxTermsPerArticle();
+		if (maxTerms > 0 && keywords.size() > maxTerms) {
+			keywords = selectTopTerms(current, keywords, maxTerms, batchFrequencies, batchSize);
+		}
+		return TermVector.fromKeywords(keywords, words);
+	}
+
+	/**
+	 * Selects the keywords of an article with the highest TF-IDF weights. The document
+	 * frequencies are those the words will have once the article and the rest of its batch
+	 * are added, and all words are considered, whether or not they are scored yet, so that
+	 * new words can qualify. Words new to the dictionary are looked up without registering
+	 * them, so the words that are not kept never get an id.
+	 */
+	private Map<String, Integer> selectTopTerms(Snapshot current,
+			Map<String, Integer> keywords, int maxTerms, Map<String, Integer> batchFrequencies,
+			int batchSize) {
+		List<Map.Entry<String, Integer>> entries =
+				new ArrayList<Map.Entry<String, Integer>>(keywords.entrySet());
+		TopKSelector selector = new TopKSelector(maxTerms);
+		for (int i = 0; i < entries.size(); i++) {
+			String word = entries.get(i).getKey();
+			int termId = words.getId(word);
+			int documentFrequency = termId < 0 ? 0 : current.invertedIndex.getLength(termId);
+			documentFrequency += batchFrequencies == null ? 1 : batchFrequencies.get(word);
+			double idf = Math.log((double) (current.articleCount + batchSize + 1)
+					/ documentFrequency);
+			selector.offer(i, (float) (entries.get(i).getValue() * idf));
+		}
+		int[] best = new int[selector.size()];
+		selector.drainTo(best, null);
+		Map<String, Integer> selected = new LinkedHashMap<String, Integer>();
+		for (int index : best) {
+			selected.put(entries.get(index).getKey(), entries.get(index).getValue());
+		}
+		return selected;
+	}
+
+	/**
+	 * Drops the terms in the fewest articles of a new snapshot if it has more distinct terms
+	 * than the pruning allows, removing them from the index and from the term vectors of the
+	 * articles. The vocabulary is pruned to a tenth below the limit, so that the terms are
+	 * not scanned again with every article that follows.
+	 */
+	private void pruneVocabulary(Snapshot next) {
+		int maxTerms = next.pruning.getMaxVocabularySize();
+		int termCount = next.invertedIndex.getTermCount();
+		if (maxTerms == 0 || termCount <= maxTerms) {
+			return;
+		}
+		// the ids are offered reversed, since ties are broken in favour of the larger item:
+		// of two terms in as many articles the one with the smaller id, mostly the older one
+		// unless its id was recycled, is dropped, the newer one is more likely to occur in
+		// the articles to come
+		TopKSelector rarest = new TopKSelector(termCount - (maxTerms - maxTerms / 10));
+		int size = words.size();
+		for (int termId = 0; termId < size; termId++) {
+			int documentFrequency = next.invertedIndex.getLength(termId);
+			if (documentFrequency > 0) {
+				rarest.offer(size - 1 - termId, -documentFrequency);
+			}
+		}
+		int[] dropped = new int[rarest.size()];
+		rarest.drainTo(dropped, null);
+		boolean[] removed = new boolean[size];
+		boolean[] affected = new boolean[next.ordinalCount];
+		for (int reversed : dropped) {
+			int termId = size - 1 - reversed;
+			removed[termId] = true;
+			int[] termArticles = next.invertedIndex.getArticles(termId);
+			for (int p = 0; p < next.invertedIndex.getLength(termId); p++) {
+				affected[termArticles[p]] = true;
+			}
+		}
+		for (int ordinal = 0; ordinal < affected.length; ordinal++) {
+			if (affected[ordinal]) {
+				TermVector termFrequencies = next.articleTermFrequencies[ordinal];
+				next.updateOrdinal(ordinal, termFrequencies.without(removed));
+				for (int i = 0; i < termFrequencies.size(); i++) {
+					if (removed[termFrequencies.getTerm(i)]) {
+						words.release(termFrequencies.getTerm(i));
+					}
+				}
+			}
+		}
+	}
+
+	private static double dampen(int integer) {
+		return (double) integer;
+	}
+
+	/**
+	 * Returns the norm of the TF-IDF weighted vector in a snapshot, using the cached value
+	 * if it was computed for the same snapshot.
+	 * @param snapshot - the snapshot providing the document frequencies
+	 * @param vector - the term frequency vector
+	 * @return the TF-IDF norm of the vector
+	 */
+	private static double getNorm(Snapshot snapshot, TermVector vector) {
+		float norm = vector.getCachedNorm(snapshot.generation);
+		if (norm < 0) {
+			double sum = 0;
+			for (int i = 0; i < vector.size(); i++) {
+				double weight = vector.getWeight(i) * getIdf(snapshot, vector.getTerm(i));
+				sum += weight * weight;
+			}
+			norm = (float) Math.sqrt(sum);
+			vector.setCachedNorm(norm, snapshot.generation);
+		}
+		return norm;
+	}
+
+}
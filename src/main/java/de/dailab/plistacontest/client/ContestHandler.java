@@ -20,7 +20,6 @@ package de.dailab.plistacontest.client;
 
 import java.io.IOException;
 import java.net.URLDecoder;
-import java.util.ArrayList;
 import java.util.List;
 import java.util.Properties;
 
@@ -55,18 +54,53 @@ public class ContestHandler extends AbstractHandler {
 	 */
 	private final RecommenderItemTable recommenderItemTable = new RecommenderItemTable();
 
-	private Object contestRecommender;
+	/**
+	 * The recommender serving the traditional messages, backed by the item table if it
+	 * does not answer in time.
+	 */
+	private final ContestRecommender contestRecommender;
 
 	/**
 	 * Constructor, sets some default values.
 	 * 
 	 * @param _properties
-	 * @param _contestRecommender
+	 * @param _contestRecommender the recommender, null to only recommend the most recent items
 	 */
 	public ContestHandler(final Properties _properties,
-			final Object _contestRecommender) {
+			final ContestRecommender _contestRecommender) {
+		this(_properties, _contestRecommender, _contestRecommender instanceof Recommender
+				? (Recommender) _contestRecommender : null);
+	}
 
-		this.contestRecommender = _contestRecommender;
+	/**
+	 * Constructor, sets some default values.
+	 * 
+	 * @param _properties
+	 * @param _contestRecommender the recommender, null to only recommend the most recent items
+	 * @param _recommender the recommender keeping the users' histories and seen articles, which the
+	 * item table excludes as well when it serves as the fallback; may be null
+	 */
+	public ContestHandler(final Properties _properties,
+			final ContestRecommender _contestRecommender, final Recommender _recommender) {
+
+		recommenderItemTable.setRecommender(_recommender);
+		if (_contestRecommender == null) {
+			this.contestRecommender = recommenderItemTable;
+		} else {
+			this.contestRecommender = new RecommenderChain(
+					Long.parseLong(_properties.getProperty("recommender.deadline", "80")),
+					Integer.parseInt(_properties.getProperty("recommender.workers",
+							Integer.toString(Runtime.getRuntime().availableProcessors()))),
+					_contestRecommender, recommenderItemTable);
+		}
+		
+		// cache the recently served items for a few seconds, like the recommender does
+		long cacheTimeToLive = Long.parseLong(_properties.getProperty("recommender.cache.ttl", "2000"));
+		if (cacheTimeToLive > 0) {
+			recommenderItemTable.setCache(new RecommendationCache(cacheTimeToLive,
+					Long.parseLong(_properties.getProperty("recommender.cache.changes", "20")),
+					Integer.parseInt(_properties.getProperty("recommender.cache.size", "10000"))));
+		}
 
 	}
 
@@ -170,7 +204,8 @@ public class ContestHandler extends AbstractHandler {
 		if ("impression".equalsIgnoreCase(messageType) || "recommendation".equalsIgnoreCase(messageType)) {
 
 			// parse the type of the event
-			final RecommenderItem item = RecommenderItem.parseEventNotification(jOP.toJSONString());
+			final RecommenderItem item = withAnonymousUser(
+					RecommenderItem.parseEventNotification(jOP.toJSONString()));
 			final String eventNotificationType = messageType; 
 
 			// impression refers to articles read by the user
@@ -254,27 +289,7 @@ public class ContestHandler extends AbstractHandler {
 
 			// we mark this information in the article table
 			if (recommenderItem.getItemID() != null) {
-				if (contestRecommender instanceof Recommender) {
-					// cast to known recommender
-					Recommender recommender = (Recommender) contestRecommender;
-					
-					if (recommender.hasArticleId(recommenderItem.getItemID())) {
-						recommender.updateExistingArticle(recommenderItem.getItemID(),
-								recommenderItem.getDomainID(),
-								recommenderItem.getCategoryId(),
-								recommenderItem.getTitle() + " " + recommenderItem.getText()
-								+ " " + recommenderItem.getKicker(),
-								recommenderItem.getRecommendable());
-					} else {
-						recommender.addNewsArticle(
-								new NewsArticle(recommenderItem.getItemID(),
-										recommenderItem.getDomainID(),
-										recommenderItem.getCategoryId(),
-										recommenderItem.getTitle() + " " + recommenderItem.getText()
-										+ " " + recommenderItem.getKicker(),
-										recommenderItem.getRecommendable()));		
-					}
-				}
+				contestRecommender.handleItemUpdate(recommenderItem);
 			}
 
 			response = ";item_update successfull";
@@ -285,13 +300,13 @@ public class ContestHandler extends AbstractHandler {
 			// we handle a recommendation request
 			try {
 				// parse the new recommender request
-				RecommenderItem currentRequest = RecommenderItem.parseRecommendationRequest(_jsonMessageBody);
+				RecommenderItem currentRequest = withAnonymousUser(
+						RecommenderItem.parseRecommendationRequest(_jsonMessageBody));
 
 				// gather the items to be recommended
-				List<Long> resultList = new ArrayList<Long>();
-				if (contestRecommender instanceof Recommender) {
-					resultList = ((Recommender) contestRecommender).recommend(currentRequest.getUserID(),
-															currentRequest.getNumberOfRequestedResults());
+				List<Long> resultList = contestRecommender.recommend(currentRequest);
+				if (resultList != null) {
+					contestRecommender.handleRecommended(currentRequest, resultList);
 				}
 				if (resultList == null) {
 					response = "[]";
@@ -310,7 +325,8 @@ public class ContestHandler extends AbstractHandler {
 		} else if ("event_notification".equalsIgnoreCase(messageType)) {
 
 			// parse the type of the event
-			final RecommenderItem item = RecommenderItem.parseEventNotification(_jsonMessageBody);
+			final RecommenderItem item = withAnonymousUser(
+					RecommenderItem.parseEventNotification(_jsonMessageBody));
 			final String eventNotificationType = item.getNotificationType();
 
 			// impression refers to articles read by the user
@@ -320,16 +336,13 @@ public class ContestHandler extends AbstractHandler {
 				// we mark this information in the article table
 				if (item.getItemID() != null) {
 					// new items shall be added to the list of items
-					recommenderItemTable.handleItemUpdate(item);
+					contestRecommender.handleImpression(item);
 
 					response = "handle impression eventNotification successful";
 				}
 				// click refers to recommendations clicked by the user
 			} else if ("click".equalsIgnoreCase(eventNotificationType)) {
-				if (contestRecommender instanceof Recommender) {
-					((Recommender) contestRecommender).userReadArticle(item.getUserID(),
-													item.getListOfDisplayedRecs().get(0));
-				}
+				contestRecommender.handleClick(item);
 				response = "handle click eventNotification successful";
 
 			} else {
@@ -377,6 +390,23 @@ public class ContestHandler extends AbstractHandler {
 		}
 	}
 
+	/**
+	 * Map the user of a parsed message to the anonymous user 0 if the message has none.
+	 * The parser marks a missing user with the id -2; left as it is, all these users
+	 * would share one profile, history and seen filter and never be served from the cache.
+	 * 
+	 * @param _item
+	 *     the parsed request or event
+	 * @return 
+	 * 		the same item
+	 */
+	static RecommenderItem withAnonymousUser(final RecommenderItem _item) {
+		if (_item != null && _item.getUserID() != null && _item.getUserID() < 0) {
+			_item.setUserID(0L);
+		}
+		return _item;
+	}
+
 	/**
 	 * Create a json response object for recommendation requests.
 	 * 
@@ -0,0 +1,39 @@
+package de.dailab.plistacontest.client;
+
+import java.util.List;
+
+/**
+ * A recommender fed with the messages of the contest server. The handlers pass every
+ * parsed message to it, whatever the recommender does with it.
+ */
+public interface ContestRecommender {
+
+	/**
+	 * Handles a new or updated item.
+	 * @return false if the item was ignored
+	 */
+	boolean handleItemUpdate(RecommenderItem item);
+
+	/**
+	 * Recommends items for a request.
+	 * @return the ids of the recommended items, never null
+	 */
+	List<Long> recommend(RecommenderItem request);
+
+	/**
+	 * Handles the items that were sent as the response to a request, whichever recommender
+	 * computed them.
+	 */
+	void handleRecommended(RecommenderItem request, List<Long> itemIds);
+
+	/**
+	 * Handles an impression: a user was shown an item.
+	 */
+	void handleImpression(RecommenderItem item);
+
+	/**
+	 * Handles a click: a user clicked on a recommended item.
+	 */
+	void handleClick(RecommenderItem item);
+
+}
@@ -97,6 +97,21 @@ public class DirtyRingBuffer<K, V> {
 		}
 	}
 	
+	/**
+	 * Decides which values must not be returned by getValuesByKey.
+	 * 
+	 * @param <V> the type of the values in the ring buffer
+	 */
+	public interface Exclusion<V> {
+
+		/**
+		 * @param value
+		 *            a value of the ring buffer
+		 * @return true if the value must not be returned
+		 */
+		boolean isExcluded(V value);
+	}
+
 	/**
 	 * Get some values from the ring buffer.
 	 * This method is NOT synchronized and may return inconsistent values.
@@ -108,8 +123,28 @@ public class DirtyRingBuffer<K, V> {
 	 * @param _blackListedIDs
 	 * @return
 	 */
-	@SuppressWarnings("unchecked")
 	public Set<V> getValuesByKey(final K key, final int numberOfValues, final Set<V> _blackListedIDs) {
+		return getValuesByKey(key, numberOfValues, new Exclusion<V>() {
+			@Override
+			public boolean isExcluded(final V value) {
+				return _blackListedIDs.contains(value);
+			}
+		});
+	}
+
+	/**
+	 * Get some values from the ring buffer, skipping the values an exclusion rejects, e.g. the values that cannot
+	 * be listed in a black list.
+	 * 
+	 * @param key
+	 * @param numberOfValues
+	 * @param _exclusion
+	 *            decides which values are skipped
+	 * @return
+	 * @see #getValuesByKey(Object, int, Set)
+	 */
+	@SuppressWarnings("unchecked")
+	public Set<V> getValuesByKey(final K key, final int numberOfValues, final Exclusion<V> _exclusion) {
 
 		if (key == null) {
 			throw new RuntimeException("invalid arguments k=" + key);
@@ -136,7 +171,7 @@ public class DirtyRingBuffer<K, V> {
 				currentIndex = currentIndex-1;
 				V currentObject = (V) this.listByKey.get(key)[currentIndex];
 				// the itemID may not be null, already contained in the result list, or contained in the black list
-				if (currentObject != null && !result.contains(currentObject) && !_blackListedIDs.contains(currentObject)) {
+				if (currentObject != null && !result.contains(currentObject) && !_exclusion.isExcluded(currentObject)) {
 					result.add(currentObject);
 				}
 				
@@ -0,0 +1,84 @@
+package de.dailab.plistacontest.client;
+
+import java.util.Arrays;
+
+/**
+ * The articles that must not be recommended to a user in a request: the articles the user
+ * has read, the article the user is viewing, and, approximately, the articles the user has
+ * already been shown. Instances are immutable and are checked for every candidate, so
+ * lookups neither lock nor allocate.
+ */
+public class ExcludedArticles {
+
+	public static final ExcludedArticles NONE = new ExcludedArticles(new long[0], null, null);
+
+	/**
+	 * Ids of the excluded articles, in ascending order.
+	 */
+	private final long[] ids;
+
+	private final SeenFilter seenFilter;
+
+	/**
+	 * The filter words of the user in the seen filter, null if nothing was seen.
+	 */
+	private final long[] seen;
+
+	/**
+	 * @param ids - ids of the excluded articles, in ascending order
+	 * @param seenFilter - the filter of the articles shown to the users, may be null
+	 * @param seen - the words of the user in the seen filter, may be null
+	 */
+	public ExcludedArticles(long[] ids, SeenFilter seenFilter, long[] seen) {
+		this.ids = ids;
+		this.seenFilter = seenFilter;
+		this.seen = seen;
+	}
+
+	/**
+	 * Returns the excluded articles of a request.
+	 * @param history - ids of the articles read by the user, in ascending order
+	 * @param currentArticleId - id of the article the user is viewing, may be null
+	 * @param seenFilter - the filter of the articles shown to the users, may be null
+	 * @param userId - the user, may be null
+	 */
+	public static ExcludedArticles of(long[] history, Long currentArticleId,
+			SeenFilter seenFilter, Long userId) {
+		long[] ids = history;
+		if (currentArticleId != null && Arrays.binarySearch(history, currentArticleId) < 0) {
+			ids = Arrays.copyOf(history, history.length + 1);
+			ids[history.length] = currentArticleId;
+			Arrays.sort(ids);
+		}
+		long[] seen = seenFilter == null || userId == null ? null : seenFilter.get(userId);
+		return new ExcludedArticles(ids, seenFilter, seen);
+	}
+
+	/**
+	 * @return the ids of the excluded articles, in ascending order; must not be changed
+	 */
+	public long[] getIds() {
+		return ids;
+	}
+
+	public boolean contains(NewsArticle article) {
+		return contains(article.getId());
+	}
+
+	/**
+	 * @return true if the article with an id is excluded, e.g. an article of the recency
+	 * table, which only knows the ids
+	 */
+	public boolean contains(long articleId) {
+		return (ids.length > 0 && Arrays.binarySearch(ids, articleId) >= 0)
+				|| (seen != null && seenFilter.mightContain(seen, articleId));
+	}
+
+	/**
+	 * @return true if the user has probably been shown the article
+	 */
+	public boolean isSeen(NewsArticle article) {
+		return seen != null && seenFilter.mightContain(seen, article.getId());
+	}
+
+}
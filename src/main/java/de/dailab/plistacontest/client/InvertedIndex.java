@@ -0,0 +1,243 @@
+package de.dailab.plistacontest.client;
+
+import java.util.Arrays;
+
+/**
+ * Term -> postings index over the term vectors of the articles in the system. Each posting
+ * list holds the ordinals of the articles containing the term, sorted in ascending order,
+ * together with the term frequency of the term in each article. The index allows the
+ * recommender to look only at articles that share at least one term with a user's profile.
+ *
+ * An index can be copied cheaply to build a new version while readers keep using the old
+ * one. The copy shares the posting lists with the original and only copies a posting list
+ * before changing it in a way the original could observe; postings appended behind the end
+ * of a shared list are invisible to the original, since it only reads its own lengths. The
+ * original must not be changed once it has been copied. An index is not thread safe while
+ * it is being changed, but any number of threads may read an index nobody changes.
+ */
+public class InvertedIndex {
+
+	private static final int[] NO_ARTICLES = new int[0];
+	private static final float[] NO_FREQUENCIES = new float[0];
+
+	/**
+	 * TermId -> ordinals of the articles containing the term.
+	 */
+	private int[][] articles;
+
+	/**
+	 * TermId -> term frequencies, parallel to articles.
+	 */
+	private float[][] frequencies;
+
+	/**
+	 * TermId -> number of used entries in the posting list.
+	 */
+	private int[] lengths;
+
+	/**
+	 * TermId -> whether the posting list was allocated by this index, i.e. whether it can
+	 * be changed in place without affecting an earlier version.
+	 */
+	private boolean[] owned;
+
+	/**
+	 * The number of terms with a non-empty posting list.
+	 */
+	private int termCount;
+
+	public InvertedIndex() {
+		articles = new int[1024][];
+		frequencies = new float[1024][];
+		lengths = new int[1024];
+		owned = new boolean[1024];
+	}
+
+	/**
+	 * Creates a new version of an index. Costs O(terms), the posting lists are shared.
+	 * @param other - the index to copy; it must not be changed afterwards
+	 */
+	public InvertedIndex(InvertedIndex other) {
+		articles = other.articles.clone();
+		frequencies = other.frequencies.clone();
+		lengths = other.lengths.clone();
+		owned = new boolean[lengths.length];
+		termCount = other.termCount;
+	}
+
+	/**
+	 * Adds the postings of an article.
+	 * @param article - ordinal of the article
+	 * @param vector - term vector of the article
+	 */
+	public void add(int article, TermVector vector) {
+		for (int i = 0; i < vector.size(); i++) {
+			addPosting(vector.getTerm(i), article, vector.getWeight(i));
+		}
+	}
+
+	/**
+	 * Removes the postings of an article.
+	 * @param article - ordinal of the article
+	 * @param vector - the term vector the article was indexed with
+	 */
+	public void remove(int article, TermVector vector) {
+		for (int i = 0; i < vector.size(); i++) {
+			removePosting(vector.getTerm(i), article);
+		}
+	}
+
+	/**
+	 * Replaces the postings of an article indexed with one vector by those of another,
+	 * touching only the terms whose frequency changed.
+	 * @param article - ordinal of the article
+	 * @param oldVector - the term vector the article was indexed with
+	 * @param newVector - the new term vector of the article
+	 * @return the number of changed postings
+	 */
+	public int update(int article, TermVector oldVector, TermVector newVector) {
+		int changed = 0;
+		int i = 0, j = 0;
+		while (i < oldVector.size() || j < newVector.size()) {
+			int oldTerm = i < oldVector.size() ? oldVector.getTerm(i) : Integer.MAX_VALUE;
+			int newTerm = j < newVector.size() ? newVector.getTerm(j) : Integer.MAX_VALUE;
+			if (oldTerm < newTerm) {
+				removePosting(oldTerm, article);
+				i++;
+				changed++;
+			} else if (newTerm < oldTerm) {
+				addPosting(newTerm, article, newVector.getWeight(j));
+				j++;
+				changed++;
+			} else {
+				if (oldVector.getWeight(i) != newVector.getWeight(j)) {
+					addPosting(newTerm, article, newVector.getWeight(j));
+					changed++;
+				}
+				i++;
+				j++;
+			}
+		}
+		return changed;
+	}
+
+	/**
+	 * @return the number of terms occurring in at least one article
+	 */
+	public int getTermCount() {
+		return termCount;
+	}
+
+	public int getLength(int term) {
+		return term < lengths.length ? lengths[term] : 0;
+	}
+
+	/**
+	 * Returns the article ordinals of a posting list. Only the first getLength(term) entries
+	 * are valid.
+	 */
+	public int[] getArticles(int term) {
+		return term < articles.length && articles[term] != null ? articles[term] : NO_ARTICLES;
+	}
+
+	/**
+	 * Returns the term frequencies of a posting list, parallel to getArticles(term).
+	 */
+	public float[] getFrequencies(int term) {
+		return term < frequencies.length && frequencies[term] != null ? frequencies[term]
+				: NO_FREQUENCIES;
+	}
+
+	/**
+	 * Returns the position of the first posting of a term that refers to an article with an
+	 * ordinal greater than or equal to the given one.
+	 */
+	public int getPosition(int term, int article) {
+		int position = Arrays.binarySearch(getArticles(term), 0, getLength(term), article);
+		return position < 0 ? -position - 1 : position;
+	}
+
+	private void addPosting(int term, int article, float frequency) {
+		ensureTermCapacity(term + 1);
+		int length = lengths[term];
+		// articles normally arrive in ascending order, so appending is the common case.
+		// An append to a shared list needs no copy unless the list is full.
+		boolean append = length == 0 || articles[term][length - 1] < article;
+		if (articles[term] == null) {
+			articles[term] = new int[4];
+			frequencies[term] = new float[4];
+			owned[term] = true;
+		} else if (length == articles[term].length) {
+			articles[term] = Arrays.copyOf(articles[term], 2 * length);
+			frequencies[term] = Arrays.copyOf(frequencies[term], 2 * length);
+			owned[term] = true;
+		} else if (!append) {
+			own(term);
+		}
+		int[] termArticles = articles[term];
+		float[] termFrequencies = frequencies[term];
+
+		int position = length;
+		if (!append) {
+			position = Arrays.binarySearch(termArticles, 0, length, article);
+			if (position >= 0) {
+				termFrequencies[position] = frequency;
+				return;
+			}
+			position = -position - 1;
+			System.arraycopy(termArticles, position, termArticles, position + 1, length - position);
+			System.arraycopy(termFrequencies, position, termFrequencies, position + 1,
+					length - position);
+		}
+		termArticles[position] = article;
+		termFrequencies[position] = frequency;
+		lengths[term] = length + 1;
+		if (length == 0) {
+			termCount++;
+		}
+	}
+
+	private void removePosting(int term, int article) {
+		int length = getLength(term);
+		int position = Arrays.binarySearch(getArticles(term), 0, length, article);
+		if (position < 0) {
+			return;
+		}
+		lengths[term] = length - 1;
+		if (length == 1) {
+			// let the list go, the terms of the stream come and go
+			articles[term] = null;
+			frequencies[term] = null;
+			owned[term] = false;
+			termCount--;
+			return;
+		}
+		own(term);
+		System.arraycopy(articles[term], position + 1, articles[term], position,
+				length - position - 1);
+		System.arraycopy(frequencies[term], position + 1, frequencies[term], position,
+				length - position - 1);
+	}
+
+	/**
+	 * Copies the posting list of a term unless this index allocated it.
+	 */
+	private void own(int term) {
+		if (!owned[term]) {
+			articles[term] = articles[term].clone();
+			frequencies[term] = frequencies[term].clone();
+			owned[term] = true;
+		}
+	}
+
+	private void ensureTermCapacity(int size) {
+		if (size > lengths.length) {
+			int capacity = Math.max(size, 2 * lengths.length);
+			articles = Arrays.copyOf(articles, capacity);
+			frequencies = Arrays.copyOf(frequencies, capacity);
+			lengths = Arrays.copyOf(lengths, capacity);
+			owned = Arrays.copyOf(owned, capacity);
+		}
+	}
+
+}
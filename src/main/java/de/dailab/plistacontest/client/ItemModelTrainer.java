@@ -0,0 +1,282 @@
+package de.dailab.plistacontest.client;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import net.librec.common.LibrecException;
+import net.librec.conf.Configuration;
+import net.librec.data.model.TextDataModel;
+import net.librec.math.algorithm.Randoms;
+import net.librec.math.structure.DenseMatrix;
+import net.librec.recommender.RecommenderContext;
+import net.librec.recommender.cf.ranking.BPRRecommender;
+
+import org.json.simple.JSONObject;
+import org.json.simple.JSONValue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Offline training of the item model used by the server. Reads the user-item interactions
+ * from idomaar relation logs, as written by ConverterJson2IdomaarRelations, factorizes them
+ * with librec's Bayesian personalized ranking (BPR), and writes the nearest neighbours of
+ * every item by cosine similarity of the item factors to an ItemNeighbourModel file. The
+ * server maps the file and picks up a new one while running, so the model can be retrained
+ * periodically without a restart.
+ *
+ * Usage: java ItemModelTrainer relationsFile[,relationsFile...] modelFile [factors]
+ * [iterations] [neighbours]
+ */
+public class ItemModelTrainer {
+
+	private static final Logger logger = LoggerFactory.getLogger(ItemModelTrainer.class);
+
+	/**
+	 * librec only splits the interactions with a train ratio below 1, so a small share of
+	 * them is held out.
+	 */
+	private static final String TRAIN_RATIO = "0.99";
+
+	private final int factors;
+	private final int iterations;
+	private final int neighbours;
+	private float learnRate = 0.05f;
+	private long seed = 42;
+
+	/**
+	 * @param factors - the number of latent factors of an item
+	 * @param iterations - the number of passes of the training
+	 * @param neighbours - the number of neighbours kept per item
+	 */
+	public ItemModelTrainer(int factors, int iterations, int neighbours) {
+		if (factors < 1 || iterations < 1 || neighbours < 1) {
+			throw new IllegalArgumentException("Invalid training configuration: " + factors
+					+ " factors, " + iterations + " iterations, " + neighbours + " neighbours");
+		}
+		this.factors = factors;
+		this.iterations = iterations;
+		this.neighbours = neighbours;
+	}
+
+	public void setLearnRate(float learnRate) {
+		this.learnRate = learnRate;
+	}
+
+	/**
+	 * Sets the seed of the random initialization and sampling, for reproducible models.
+	 */
+	public void setSeed(long seed) {
+		this.seed = seed;
+	}
+
+	/**
+	 * Trains a model on relation logs and writes it.
+	 * @param relations - the relation log files
+	 * @param model - the model file, replaced atomically
+	 * @return the number of items of the model
+	 */
+	public int train(File[] relations, File model) throws IOException, LibrecException {
+		File directory = File.createTempFile("item-model", "");
+		if (!directory.delete() || !directory.mkdir()) {
+			throw new IOException("Cannot create directory " + directory);
+		}
+		File ratings = new File(directory, "ratings.txt");
+		try {
+			int count = writeInteractions(relations, ratings);
+			logger.info("Training on {} interactions", count);
+
+			Configuration conf = new Configuration();
+			conf.set("dfs.data.dir", directory.getAbsolutePath());
+			conf.set("data.input.path", ratings.getName());
+			conf.set("data.column.format", "UIR");
+			conf.set("data.model.splitter", "ratio");
+			conf.set("data.splitter.ratio", "rating");
+			conf.set("data.splitter.trainset.ratio", TRAIN_RATIO);
+			conf.set("rec.recommender.isranking", "true");
+			conf.set("rec.iterator.maximum", Integer.toString(iterations));
+			conf.set("rec.factor.number", Integer.toString(factors));
+			conf.set("rec.iterator.learnrate", Float.toString(learnRate));
+			conf.set("rec.recommender.verbose", "false");
+			Randoms.seed(seed);
+			TextDataModel dataModel = new TextDataModel(conf);
+			dataModel.buildDataModel();
+			DenseMatrix itemFactors = new FactorExportingBPR().train(
+					new RecommenderContext(conf, dataModel));
+
+			// librec numbers the items itself, the model is ordered by item id
+			long[] items = new long[itemFactors.numRows()];
+			int[] rows = new int[items.length];
+			long[] keys = new long[items.length];
+			for (Map.Entry<String, Integer> entry : dataModel.getItemMappingData().entrySet()) {
+				keys[entry.getValue()] = Long.parseLong(entry.getKey());
+			}
+			long[] sorted = keys.clone();
+			Arrays.sort(sorted);
+			for (int row = 0; row < keys.length; row++) {
+				int index = Arrays.binarySearch(sorted, keys[row]);
+				items[index] = keys[row];
+				rows[index] = row;
+			}
+			long[][] itemNeighbours = new long[items.length][];
+			float[][] similarities = new float[items.length][];
+			computeNeighbours(normalize(itemFactors), keys, rows, itemNeighbours, similarities);
+			ItemNeighbourModel.write(model, items, itemNeighbours, similarities);
+			logger.info("Wrote {} items to {}", items.length, model);
+			return items.length;
+		} finally {
+			ratings.delete();
+			directory.delete();
+		}
+	}
+
+	/**
+	 * Extracts the distinct pairs of known user and item from relation logs into a file of
+	 * "user item 1" lines.
+	 * @return the number of pairs
+	 */
+	static int writeInteractions(File[] relations, File ratings) throws IOException {
+		Set<String> pairs = new HashSet<String>();
+		BufferedWriter writer = new BufferedWriter(new FileWriter(ratings));
+		try {
+			for (File file : relations) {
+				BufferedReader reader = new BufferedReader(new FileReader(file));
+				try {
+					String line;
+					while ((line = reader.readLine()) != null) {
+						String pair = parseInteraction(line);
+						if (pair != null && pairs.add(pair)) {
+							writer.write(pair);
+							writer.write(" 1\n");
+						}
+					}
+				} finally {
+					reader.close();
+				}
+			}
+		} finally {
+			writer.close();
+		}
+		return pairs.size();
+	}
+
+	/**
+	 * Parses a relation line: type, id, timestamp, message body and the properties
+	 * {"userID": .., "itemID": .., "domainID": ..}, separated by tabs.
+	 * @return "user item", or null if the line has no known user or no item
+	 */
+	static String parseInteraction(String line) {
+		String[] columns = line.split("\t");
+		if (columns.length < 5) {
+			return null;
+		}
+		Object parsed = JSONValue.parse(columns[4]);
+		if (!(parsed instanceof JSONObject)) {
+			return null;
+		}
+		JSONObject properties = (JSONObject) parsed;
+		Object userId = properties.get("userID");
+		Object itemId = properties.get("itemID");
+		if (!(userId instanceof Number) || !(itemId instanceof Number)
+				|| ((Number) userId).longValue() == 0 || ((Number) itemId).longValue() == 0) {
+			return null;
+		}
+		return ((Number) userId).longValue() + " " + ((Number) itemId).longValue();
+	}
+
+	/**
+	 * @return the rows of the factors scaled to unit length, so that their dot products are
+	 * cosine similarities
+	 */
+	private static float[][] normalize(DenseMatrix itemFactors) {
+		float[][] vectors = new float[itemFactors.numRows()][itemFactors.numColumns()];
+		for (int row = 0; row < vectors.length; row++) {
+			double norm = 0;
+			for (int column = 0; column < vectors[row].length; column++) {
+				double value = itemFactors.get(row, column);
+				norm += value * value;
+			}
+			norm = Math.sqrt(norm);
+			for (int column = 0; norm > 0 && column < vectors[row].length; column++) {
+				vectors[row][column] = (float) (itemFactors.get(row, column) / norm);
+			}
+		}
+		return vectors;
+	}
+
+	/**
+	 * Selects the most similar items of every item by comparing it with all other items,
+	 * which takes O(n^2) dot products and is fine for the few ten thousand items of a
+	 * training window.
+	 */
+	private void computeNeighbours(float[][] vectors, long[] keys, int[] rows,
+			long[][] itemNeighbours, float[][] similarities) {
+		TopKSelector selector = new TopKSelector(Math.min(neighbours,
+				Math.max(1, vectors.length - 1)));
+		int[] selected = new int[selector.getCapacity()];
+		float[] scores = new float[selected.length];
+		for (int index = 0; index < rows.length; index++) {
+			float[] vector = vectors[rows[index]];
+			for (int other = 0; other < vectors.length; other++) {
+				if (other != rows[index]) {
+					float similarity = 0;
+					for (int i = 0; i < vector.length; i++) {
+						similarity += vector[i] * vectors[other][i];
+					}
+					selector.offer(other, similarity);
+				}
+			}
+			int count = selector.drainTo(selected, scores);
+			itemNeighbours[index] = new long[count];
+			for (int i = 0; i < count; i++) {
+				itemNeighbours[index][i] = keys[selected[i]];
+			}
+			similarities[index] = Arrays.copyOf(scores, count);
+		}
+	}
+
+	/**
+	 * BPR stopping after the training: recommending the top items to every user, which
+	 * librec does as part of a run, is not needed for the item factors.
+	 */
+	private static final class FactorExportingBPR extends BPRRecommender {
+
+		DenseMatrix train(RecommenderContext recommenderContext) throws LibrecException {
+			context = recommenderContext;
+			setup();
+			trainModel();
+			return itemFactors;
+		}
+	}
+
+	/**
+	 * The main method analyzes the arguments and trains the model.
+	 * @param args args[0] - relation log files separated by commas, args[1] - model file,
+	 * args[2..4] - factors, iterations and neighbours (optional)
+	 */
+	public static void main(String[] args) throws Exception {
+		if (args.length < 2 || args.length > 5) {
+			System.out.println("usage: java ItemModelTrainer relationsFile[,relationsFile...] "
+					+ "modelFile [factors] [iterations] [neighbours]");
+			System.exit(0);
+		}
+		String[] names = args[0].split(",");
+		File[] relations = new File[names.length];
+		for (int i = 0; i < names.length; i++) {
+			relations[i] = new File(names[i]);
+		}
+		ItemModelTrainer trainer = new ItemModelTrainer(
+				args.length > 2 ? Integer.parseInt(args[2]) : 16,
+				args.length > 3 ? Integer.parseInt(args[3]) : 30,
+				args.length > 4 ? Integer.parseInt(args[4]) : 20);
+		trainer.train(relations, new File(args[1]));
+	}
+
+}
@@ -0,0 +1,206 @@
+package de.dailab.plistacontest.client;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * The nearest neighbours of each item according to a model trained offline, read from a
+ * memory mapped file, so a large model costs neither heap nor loading time in the server.
+ *
+ * The file is written by ItemModelTrainer and has the layout (big endian):
+ * magic, version, number of items n, total number of neighbours m (ints); the item ids in
+ * ascending order (n longs); the offset of the neighbours of each item and m (n + 1 ints);
+ * the neighbour ids (m longs); the similarities of the neighbours (m floats). The
+ * neighbours of an item are ordered by descending similarity. Lookups binary search the
+ * item ids in place. Instances are immutable and can be shared by any number of threads.
+ */
+public class ItemNeighbourModel {
+
+	private static final int MAGIC = 0x4E52494D;
+	private static final int VERSION = 1;
+	private static final int HEADER_SIZE = 16;
+
+	private static final long[] NO_NEIGHBOURS = new long[0];
+
+	private final File file;
+	private final int itemCount;
+	private final LongBuffer items;
+	private final IntBuffer offsets;
+	private final LongBuffer neighbours;
+	private final FloatBuffer similarities;
+
+	private ItemNeighbourModel(File file, ByteBuffer buffer) throws IOException {
+		this.file = file;
+		if (buffer.limit() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+			throw new IOException("Not an item model: " + file);
+		}
+		if (buffer.getInt(4) != VERSION) {
+			throw new IOException("Unsupported item model version " + buffer.getInt(4) + ": "
+					+ file);
+		}
+		itemCount = buffer.getInt(8);
+		int neighbourCount = buffer.getInt(12);
+		long expected = HEADER_SIZE + 8L * itemCount + 4L * (itemCount + 1) + 12L * neighbourCount;
+		if (itemCount < 0 || neighbourCount < 0 || buffer.limit() != expected) {
+			throw new IOException("Truncated item model: " + file);
+		}
+		int position = HEADER_SIZE;
+		items = slice(buffer, position, 8 * itemCount).asLongBuffer();
+		position += 8 * itemCount;
+		offsets = slice(buffer, position, 4 * (itemCount + 1)).asIntBuffer();
+		position += 4 * (itemCount + 1);
+		neighbours = slice(buffer, position, 8 * neighbourCount).asLongBuffer();
+		position += 8 * neighbourCount;
+		similarities = slice(buffer, position, 4 * neighbourCount).asFloatBuffer();
+	}
+
+	/**
+	 * Maps a model file into memory. The file may be replaced afterwards; the model keeps
+	 * the contents it mapped.
+	 * @throws IOException if the file cannot be read or is not a valid model
+	 */
+	public static ItemNeighbourModel load(File file) throws IOException {
+		RandomAccessFile input = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = input.getChannel();
+			// the mapping stays valid after the channel is closed
+			return new ItemNeighbourModel(file, channel.map(FileChannel.MapMode.READ_ONLY, 0,
+					channel.size()));
+		} finally {
+			input.close();
+		}
+	}
+
+	/**
+	 * Writes a model file. The file is written next to the target and moved over it, so a
+	 * server watching the target never maps a partially written model.
+	 * @param file - the target file
+	 * @param items - the item ids, in ascending order
+	 * @param neighbours - the neighbour ids of each item, by descending similarity
+	 * @param similarities - the similarities of the neighbours
+	 */
+	public static void write(File file, long[] items, long[][] neighbours,
+			float[][] similarities) throws IOException {
+		File temporary = new File(file.getAbsoluteFile().getParentFile(), file.getName() + ".tmp");
+		DataOutputStream output = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(temporary)));
+		try {
+			int neighbourCount = 0;
+			for (long[] itemNeighbours : neighbours) {
+				neighbourCount += itemNeighbours.length;
+			}
+			output.writeInt(MAGIC);
+			output.writeInt(VERSION);
+			output.writeInt(items.length);
+			output.writeInt(neighbourCount);
+			for (int i = 0; i < items.length; i++) {
+				if (i > 0 && items[i] <= items[i - 1]) {
+					throw new IllegalArgumentException("Item ids are not ascending");
+				}
+				output.writeLong(items[i]);
+			}
+			int offset = 0;
+			for (long[] itemNeighbours : neighbours) {
+				output.writeInt(offset);
+				offset += itemNeighbours.length;
+			}
+			output.writeInt(offset);
+			for (long[] itemNeighbours : neighbours) {
+				for (long neighbour : itemNeighbours) {
+					output.writeLong(neighbour);
+				}
+			}
+			for (float[] itemSimilarities : similarities) {
+				for (float similarity : itemSimilarities) {
+					output.writeFloat(similarity);
+				}
+			}
+		} finally {
+			output.close();
+		}
+		Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * @return the ids of the neighbours of an item by descending similarity, empty if the
+	 * model does not know the item
+	 */
+	public long[] getNeighbours(long itemId) {
+		int index = indexOf(itemId);
+		if (index < 0) {
+			return NO_NEIGHBOURS;
+		}
+		int from = offsets.get(index);
+		long[] result = new long[offsets.get(index + 1) - from];
+		for (int i = 0; i < result.length; i++) {
+			result[i] = neighbours.get(from + i);
+		}
+		return result;
+	}
+
+	/**
+	 * @return the similarities of the neighbours of an item, parallel to getNeighbours
+	 */
+	public float[] getSimilarities(long itemId) {
+		int index = indexOf(itemId);
+		if (index < 0) {
+			return new float[0];
+		}
+		int from = offsets.get(index);
+		float[] result = new float[offsets.get(index + 1) - from];
+		for (int i = 0; i < result.length; i++) {
+			result[i] = similarities.get(from + i);
+		}
+		return result;
+	}
+
+	public int getItemCount() {
+		return itemCount;
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	private int indexOf(long itemId) {
+		int low = 0;
+		int high = itemCount - 1;
+		while (low <= high) {
+			int middle = (low + high) >>> 1;
+			long item = items.get(middle);
+			if (item < itemId) {
+				low = middle + 1;
+			} else if (item > itemId) {
+				high = middle - 1;
+			} else {
+				return middle;
+			}
+		}
+		return -1;
+	}
+
+	private static ByteBuffer slice(ByteBuffer buffer, int position, int length) {
+		ByteBuffer view = buffer.duplicate();
+		view.position(position);
+		view.limit(position + length);
+		return view.slice();
+	}
+
+	@Override
+	public String toString() {
+		return "[ItemNeighbourModel file=" + file + ", items=" + itemCount + "]";
+	}
+
+}
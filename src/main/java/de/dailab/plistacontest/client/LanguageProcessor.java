@@ -8,6 +8,7 @@ import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.regex.Pattern;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -28,7 +29,19 @@ public enum LanguageProcessor {
 	
 	private static final Logger logger = LoggerFactory.getLogger(LanguageProcessor.class);
 	
-	SnowballStemmer stemmer = new SnowballStemmer(SnowballStemmer.ALGORITHM.GERMAN);
+	/**
+	 * The stemmer keeps the word being stemmed in its fields, so every thread tokenizing
+	 * texts gets its own.
+	 */
+	private static final ThreadLocal<SnowballStemmer> stemmers =
+			new ThreadLocal<SnowballStemmer>() {
+		@Override
+		protected SnowballStemmer initialValue() {
+			return new SnowballStemmer(SnowballStemmer.ALGORITHM.GERMAN);
+		}
+	};
+	
+	private static final Pattern NON_LETTERS = Pattern.compile("[^\\p{L}]");
 	
 	/**
 	 * Returns a list of clean, stemmed words from a text. Starts with performing tokenization
@@ -41,6 +54,7 @@ public enum LanguageProcessor {
 	 */
 	public List<String> getWords(String text) {
 		List<String> words = new ArrayList<String>();
+		SnowballStemmer stemmer = stemmers.get();
 		String[] tokens = text.split(" ");
 		for (String token : tokens) {
 			String clean = getClean(token);
@@ -74,7 +88,7 @@ public enum LanguageProcessor {
 	 * @return
 	 */
 	public String getClean(String word) {
-		return word.replaceAll("[^\\p{L}]", "").trim();
+		return NON_LETTERS.matcher(word).replaceAll("").trim();
 	}
 	
 	public Map<String, Integer> getKeywordMap(String text) {
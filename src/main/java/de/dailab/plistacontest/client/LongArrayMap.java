@@ -0,0 +1,143 @@
+package de.dailab.plistacontest.client;
+
+/**
+ * A hash table with linear probing from primitive long keys to long arrays, kept at most
+ * half full. A slot is free if its value is null. Every key carries the time it was last
+ * put, and keys are only removed all at once by removeOlderThan, which rebuilds the table,
+ * so no deletion markers are needed. Not thread safe.
+ */
+class LongArrayMap {
+
+	private long[] keys = new long[16];
+	private long[][] values = new long[16][];
+	private long[] stamps = new long[16];
+	private int size;
+
+	/**
+	 * @return the value of a key, or null if the key is not in the map
+	 */
+	long[] get(long key) {
+		int mask = keys.length - 1;
+		for (int slot = (int) mix(key) & mask; values[slot] != null; slot = (slot + 1) & mask) {
+			if (keys[slot] == key) {
+				return values[slot];
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Sets the value of a key. The time of the key only moves forward, so events arriving
+	 * out of order do not make a key look older.
+	 * @param value - the value, not null
+	 * @param stamp - the time of the change
+	 */
+	void put(long key, long[] value, long stamp) {
+		int mask = keys.length - 1;
+		int slot = (int) mix(key) & mask;
+		for (; values[slot] != null; slot = (slot + 1) & mask) {
+			if (keys[slot] == key) {
+				values[slot] = value;
+				stamps[slot] = Math.max(stamps[slot], stamp);
+				return;
+			}
+		}
+		if (2 * (size + 1) > keys.length) {
+			rehash(2 * keys.length, Long.MIN_VALUE);
+			insert(key, value, stamp);
+		} else {
+			keys[slot] = key;
+			values[slot] = value;
+			stamps[slot] = stamp;
+		}
+		size++;
+	}
+
+	/**
+	 * Removes the keys last put before a given time, and shrinks the table if it has
+	 * become sparse.
+	 * @param minStamp - the oldest time kept
+	 * @return the number of removed keys
+	 */
+	int removeOlderThan(long minStamp) {
+		int kept = 0;
+		for (int slot = 0; slot < keys.length; slot++) {
+			if (values[slot] != null && stamps[slot] >= minStamp) {
+				kept++;
+			}
+		}
+		int removed = size - kept;
+		if (removed > 0) {
+			int capacity = 16;
+			while (2 * kept > capacity) {
+				capacity *= 2;
+			}
+			rehash(capacity, minStamp);
+			size = kept;
+		}
+		return removed;
+	}
+
+	/**
+	 * Moves the keys last put at or after a given time to a new table.
+	 */
+	private void rehash(int capacity, long minStamp) {
+		long[] oldKeys = keys;
+		long[][] oldValues = values;
+		long[] oldStamps = stamps;
+		keys = new long[capacity];
+		values = new long[capacity][];
+		stamps = new long[capacity];
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldValues[i] != null && oldStamps[i] >= minStamp) {
+				insert(oldKeys[i], oldValues[i], oldStamps[i]);
+			}
+		}
+	}
+
+	private void insert(long key, long[] value, long stamp) {
+		int mask = keys.length - 1;
+		int slot = (int) mix(key) & mask;
+		while (values[slot] != null) {
+			slot = (slot + 1) & mask;
+		}
+		keys[slot] = key;
+		values[slot] = value;
+		stamps[slot] = stamp;
+	}
+
+	int size() {
+		return size;
+	}
+
+	/**
+	 * @return the number of slots, for iterating over the map with getKey and getValue
+	 */
+	int capacity() {
+		return keys.length;
+	}
+
+	long getKey(int slot) {
+		return keys[slot];
+	}
+
+	/**
+	 * @return the value in a slot, or null if the slot is free
+	 */
+	long[] getValue(int slot) {
+		return values[slot];
+	}
+
+	/**
+	 * Spreads the bits of a key (the finalizer of MurmurHash3), since consecutive ids would
+	 * otherwise fill consecutive slots.
+	 */
+	static long mix(long key) {
+		key ^= key >>> 33;
+		key *= 0xff51afd7ed558ccdL;
+		key ^= key >>> 33;
+		key *= 0xc4ceb9fe1a85ec53L;
+		return key ^ (key >>> 33);
+	}
+
+}
@@ -1,6 +1,5 @@
 package de.dailab.plistacontest.client;
 
-import java.util.LinkedHashMap;
 import java.util.Map;
 
 public class NewsArticle {
@@ -16,22 +15,25 @@ public class NewsArticle {
 	private String text;
 	
 	/**
-	 * The counts of the keywords of this article's description concatenated with
-	 * it's title.
+	 * Creation time of the article in milliseconds.
 	 */
-	private Map<String, Integer> keywords;
+	private long timestamp;
 	
 	private static final LanguageProcessor languageProcessor = LanguageProcessor.INSTANCE;
 		
 	public NewsArticle(Long id, Long publisherId, Long categoryId, String text,
 															boolean recommendable) {
+		this(id, publisherId, categoryId, text, recommendable, System.currentTimeMillis());
+	}
+	
+	public NewsArticle(Long id, Long publisherId, Long categoryId, String text,
+			boolean recommendable, long timestamp) {
 		this.id = id;
 		this.publisherId = publisherId;
 		this.categoryId = categoryId;
 		this.recommendable = recommendable;
 		this.text = text;
-	
-		updateKeywords();
+		this.timestamp = timestamp;
 	}
 
 	public Long getId() {
@@ -50,8 +52,27 @@ public class NewsArticle {
 		return recommendable;
 	}
 	
+	public long getTimestamp() {
+		return timestamp;
+	}
+	
+	/**
+	 * Returns the counts of the keywords of this article's description concatenated with
+	 * its title, and of its publisher and category. The keywords are derived from the text
+	 * on every call rather than kept, since the shard only keeps the pruned term vector of
+	 * the article.
+	 */
 	public Map<String, Integer> getKeywords() {
-		return new LinkedHashMap<String, Integer>(keywords);
+		Map<String, Integer> keywords = languageProcessor.getKeywordMap(text);
+		
+		// also include publisher and category ids as words
+		if (publisherId != 0) {
+			keywords.put("<publisherId>" + publisherId, 1);
+		}
+		if (categoryId != 0) {
+			keywords.put("<categoryId>" + categoryId, 1);
+		}
+		return keywords;
 	}
 	
 	public String getText() {
@@ -72,19 +93,6 @@ public class NewsArticle {
 
 	public void setText(String text) {
 		this.text = text;
-		updateKeywords();
-	}
-	
-	private void updateKeywords() {
-		keywords = languageProcessor.getKeywordMap(text);
-		
-		// also include publisher and category ids as words
-		if (publisherId != 0) {
-			keywords.put("<publisherId>" + publisherId, 1);
-		}
-		if (categoryId != 0) {
-			keywords.put("<categoryId>" + categoryId, 1);
-		}
 	}
 
 	@Override
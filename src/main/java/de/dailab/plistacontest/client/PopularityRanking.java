@@ -0,0 +1,228 @@
+package de.dailab.plistacontest.client;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Recency-weighted popularity of the articles of one publisher, used to serve users without
+ * a reading history. Every impression or click adds its weight to the score of the article,
+ * and older events count exponentially less. The decay uses forward decay: an event at time
+ * t adds weight * exp(rate * (t - landmark)) with a fixed landmark, so the scores of the
+ * articles without new events never have to be touched, and the order of the scores equals
+ * the order of the exponentially decayed counts at any point in time.
+ *
+ * Since an event only raises the score of its own article, the ranking of the most popular
+ * articles is maintained incrementally in O(ranking size) per event and published as an
+ * immutable array. Reading the ranking does not lock. Events are serialized on the ranking.
+ */
+public class PopularityRanking {
+
+	/**
+	 * Scores are rescaled before the exponent of the forward decay gets this large.
+	 */
+	private static final double MAX_EXPONENT = 300;
+
+	private static final NewsArticle[] NO_ARTICLES = new NewsArticle[0];
+
+	/**
+	 * Decay rate per millisecond.
+	 */
+	private final double decayRate;
+
+	/**
+	 * The number of articles in the ranking.
+	 */
+	private final int capacity;
+
+	/**
+	 * Time in milliseconds the forward decay is relative to.
+	 */
+	private long landmark = Long.MIN_VALUE;
+
+	/**
+	 * ArticleId -> the article and its score.
+	 */
+	private final Map<Long, Score> scoreById;
+
+	/**
+	 * The most popular articles, most popular first. Replaced, never changed.
+	 */
+	private volatile NewsArticle[] ranking;
+
+	/**
+	 * The scores of the ranked articles, parallel to ranking.
+	 */
+	private double[] rankingScores;
+
+	/**
+	 * @param halfLife - time in milliseconds after which an event counts half as much
+	 * @param capacity - the number of articles in the ranking
+	 */
+	public PopularityRanking(long halfLife, int capacity) {
+		this.decayRate = Math.log(2) / halfLife;
+		this.capacity = capacity;
+		scoreById = new HashMap<Long, Score>();
+		ranking = NO_ARTICLES;
+		rankingScores = new double[0];
+	}
+
+	/**
+	 * Returns the most popular articles, most popular first. The array must not be changed.
+	 */
+	public NewsArticle[] getRanking() {
+		return ranking;
+	}
+
+	/**
+	 * Records an impression or a click of an article.
+	 * @param article - the article
+	 * @param weight - the weight of the event
+	 * @param timestamp - time of the event in milliseconds
+	 */
+	public synchronized void add(NewsArticle article, double weight, long timestamp) {
+		if (landmark == Long.MIN_VALUE) {
+			landmark = timestamp;
+		}
+		double exponent = decayRate * (timestamp - landmark);
+		if (exponent > MAX_EXPONENT) {
+			rescale(timestamp);
+			exponent = 0;
+		}
+		Score score = scoreById.get(article.getId());
+		if (score == null) {
+			score = new Score(article);
+			scoreById.put(article.getId(), score);
+		}
+		score.article = article;
+		score.value += weight * Math.exp(exponent);
+		promote(score);
+	}
+
+	/**
+	 * Replaces an article in the ranking by an article with the same id, keeping its score.
+	 */
+	public synchronized void replace(NewsArticle article) {
+		Score score = scoreById.get(article.getId());
+		if (score == null) {
+			return;
+		}
+		score.article = article;
+		int position = indexOf(article);
+		if (position >= 0) {
+			NewsArticle[] articles = ranking.clone();
+			articles[position] = article;
+			ranking = articles;
+		}
+	}
+
+	/**
+	 * Forgets articles, e.g. because they were evicted.
+	 */
+	public synchronized void remove(Collection<NewsArticle> articles) {
+		boolean ranked = false;
+		for (NewsArticle article : articles) {
+			Score score = scoreById.get(article.getId());
+			if (score != null && score.article == article) {
+				scoreById.remove(article.getId());
+				ranked |= indexOf(article) >= 0;
+			}
+		}
+		if (ranked) {
+			rebuild();
+		}
+	}
+
+	/**
+	 * Moves an article whose score has grown to its place in the ranking.
+	 */
+	private void promote(Score score) {
+		NewsArticle[] current = ranking;
+		int position = indexOf(score.article);
+		int size = current.length;
+		if (position < 0) {
+			if (size == capacity && score.value <= rankingScores[size - 1]) {
+				return;
+			}
+			position = size < capacity ? size++ : size - 1;
+		}
+		NewsArticle[] articles = Arrays.copyOf(current, size);
+		double[] scores = Arrays.copyOf(rankingScores, size);
+		while (position > 0 && scores[position - 1] < score.value) {
+			articles[position] = articles[position - 1];
+			scores[position] = scores[position - 1];
+			position--;
+		}
+		articles[position] = score.article;
+		scores[position] = score.value;
+		rankingScores = scores;
+		ranking = articles;
+	}
+
+	/**
+	 * Selects the ranking from all scores, after articles left it. O(scored articles) as
+	 * long as few scores beat the last ranked one. The scores are compared as doubles, the
+	 * forward decayed values outgrow the range of a float after about 128 half-lives.
+	 */
+	private void rebuild() {
+		NewsArticle[] articles = new NewsArticle[Math.min(capacity, scoreById.size())];
+		double[] values = new double[articles.length];
+		int size = 0;
+		for (Score score : scoreById.values()) {
+			if (size == articles.length && score.value <= values[size - 1]) {
+				continue;
+			}
+			int position = size < articles.length ? size++ : size - 1;
+			while (position > 0 && values[position - 1] < score.value) {
+				articles[position] = articles[position - 1];
+				values[position] = values[position - 1];
+				position--;
+			}
+			articles[position] = score.article;
+			values[position] = score.value;
+		}
+		rankingScores = values;
+		ranking = articles;
+	}
+
+	/**
+	 * Moves the landmark of the forward decay to a new time, dividing all scores by the
+	 * growth of the decay function since the old landmark.
+	 */
+	private void rescale(long timestamp) {
+		double factor = Math.exp(-decayRate * (timestamp - landmark));
+		for (Score score : scoreById.values()) {
+			score.value *= factor;
+		}
+		for (int i = 0; i < rankingScores.length; i++) {
+			rankingScores[i] *= factor;
+		}
+		landmark = timestamp;
+	}
+
+	private int indexOf(NewsArticle article) {
+		NewsArticle[] current = ranking;
+		for (int i = 0; i < current.length; i++) {
+			if (current[i].getId().equals(article.getId())) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private static final class Score {
+
+		NewsArticle article;
+
+		/**
+		 * Sum of the weights of the events, forward decayed.
+		 */
+		double value;
+
+		Score(NewsArticle article) {
+			this.article = article;
+		}
+	}
+
+}
@@ -0,0 +1,166 @@
+package de.dailab.plistacontest.client;
+
+/**
+ * Signed random projections (SimHash) of sparse TF-IDF vectors, used for approximate
+ * nearest neighbour search by cosine similarity. A vector is projected onto bits random
+ * hyperplanes in each of several tables, and the signs of the projections form the bucket
+ * of the vector in the table. Two vectors land in the same bucket of a table with a
+ * probability that grows with their cosine similarity, so the articles sharing a bucket with
+ * a user profile in some table are good candidates.
+ *
+ * The hyperplanes are not stored: the component of a term in all hyperplanes of a table is
+ * derived from one 64 bit hash of the term id, one sign per bit, so vectors over an unbounded
+ * vocabulary can be hashed in O(terms * tables).
+ *
+ * Buckets are numbered table * 2^bits + signature, so they can be used as the term ids of an
+ * InvertedIndex. Instances are immutable.
+ */
+public class RandomProjectionHash {
+
+	private final int tables;
+	private final int bits;
+	private final int probes;
+	private final long seed;
+
+	/**
+	 * @param tables - the number of hash tables
+	 * @param bits - the number of hyperplanes per table, between 1 and 24
+	 * @param probes - the number of least certain bits of a query that are flipped to probe
+	 * neighbouring buckets; a query probes 2^probes buckets per table
+	 * @param seed - seed of the hyperplanes
+	 */
+	public RandomProjectionHash(int tables, int bits, int probes, long seed) {
+		if (tables < 1 || bits < 1 || bits > 24 || probes < 0 || probes > bits) {
+			throw new IllegalArgumentException("Invalid hash configuration: " + tables
+					+ " tables, " + bits + " bits, " + probes + " probes");
+		}
+		this.tables = tables;
+		this.bits = bits;
+		this.probes = probes;
+		this.seed = seed;
+	}
+
+	public int getTables() {
+		return tables;
+	}
+
+	public int getBits() {
+		return bits;
+	}
+
+	public int getProbes() {
+		return probes;
+	}
+
+	/**
+	 * Projects a sparse vector onto the hyperplanes of all tables.
+	 * @param terms - the term ids of the vector
+	 * @param weights - the TF-IDF weights of the terms
+	 * @param size - the number of terms
+	 * @return the projections, bits entries per table
+	 */
+	public double[] project(int[] terms, float[] weights, int size) {
+		double[] projections = new double[tables * bits];
+		// the signs are random, so they are applied by a table lookup rather than a branch
+		double[] signed = new double[2];
+		for (int i = 0; i < size; i++) {
+			if (weights[i] == 0) {
+				continue;
+			}
+			signed[0] = weights[i];
+			signed[1] = -weights[i];
+			for (int table = 0; table < tables; table++) {
+				long signs = hash(terms[i], table);
+				int offset = table * bits;
+				for (int bit = 0; bit < bits; bit++) {
+					projections[offset + bit] += signed[(int) (signs >>> bit) & 1];
+				}
+			}
+		}
+		return projections;
+	}
+
+	/**
+	 * Returns the bucket of a vector in every table.
+	 * @param projections - the projections of the vector
+	 * @return one bucket per table, in ascending order
+	 */
+	public int[] getBuckets(double[] projections) {
+		return getBuckets(projections, 0);
+	}
+
+	/**
+	 * Returns the buckets a query probes: in every table its own bucket and the buckets
+	 * reached by flipping any combination of its least certain bits, i.e. the bits whose
+	 * projections are closest to the hyperplane.
+	 * @param projections - the projections of the query
+	 * @return 2^probes buckets per table
+	 */
+	public int[] getProbeBuckets(double[] projections) {
+		return getBuckets(projections, probes);
+	}
+
+	private int[] getBuckets(double[] projections, int flippedBits) {
+		int combinations = 1 << flippedBits;
+		int[] buckets = new int[tables * combinations];
+		int[] uncertain = new int[flippedBits];
+		for (int table = 0; table < tables; table++) {
+			int offset = table * bits;
+			int signature = 0;
+			for (int bit = 0; bit < bits; bit++) {
+				if (projections[offset + bit] > 0) {
+					signature |= 1 << bit;
+				}
+			}
+			// pick the bits with the smallest absolute projections by selection, there are
+			// only a few of them
+			for (int j = 0; j < flippedBits; j++) {
+				int best = -1;
+				for (int bit = 0; bit < bits; bit++) {
+					if (!contains(uncertain, j, bit) && (best < 0
+							|| Math.abs(projections[offset + bit])
+							< Math.abs(projections[offset + best]))) {
+						best = bit;
+					}
+				}
+				uncertain[j] = best;
+			}
+			for (int combination = 0; combination < combinations; combination++) {
+				int probe = signature;
+				for (int j = 0; j < flippedBits; j++) {
+					if (((combination >>> j) & 1) != 0) {
+						probe ^= 1 << uncertain[j];
+					}
+				}
+				buckets[table * combinations + combination] = (table << bits) | probe;
+			}
+		}
+		return buckets;
+	}
+
+	private static boolean contains(int[] values, int length, int value) {
+		for (int i = 0; i < length; i++) {
+			if (values[i] == value) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Mixes a term id and a table into 64 pseudo random bits (the finalizer of SplitMix64).
+	 */
+	private long hash(int term, int table) {
+		long z = seed + term * 0x9E3779B97F4A7C15L + table * 0xC2B2AE3D27D4EB4FL;
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+
+	@Override
+	public String toString() {
+		return "[RandomProjectionHash tables=" + tables + ", bits=" + bits + ", probes="
+				+ probes + "]";
+	}
+
+}
@@ -0,0 +1,238 @@
+package de.dailab.plistacontest.client;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Caches the recommendations for anonymous users for a few seconds, since during traffic
+ * peaks many users view the same hot article of a publisher at the same time and would get
+ * the same recommendations anyway. Results are keyed by publisher, viewed article and
+ * number of recommendations.
+ *
+ * A result is served until it is older than the time to live, or until the state of its
+ * publisher has changed too much since it was computed. Every publisher has a change
+ * counter: minor changes such as impressions and clicks add 1, and a result is dropped once
+ * the counter has grown by the change threshold; changes that make cached results wrong,
+ * such as removed articles, drop all results of the publisher at once. The number of
+ * results is bounded, and the least recently used result is evicted first.
+ */
+public class RecommendationCache {
+
+	/**
+	 * The maximal age of a result in milliseconds.
+	 */
+	private final long timeToLive;
+
+	/**
+	 * The number of minor changes of a publisher after which its results are dropped.
+	 */
+	private final long changeThreshold;
+
+	/**
+	 * The results by key, in access order for the LRU eviction, guarded by itself.
+	 */
+	private final LinkedHashMap<Key, Entry> entries;
+
+	/**
+	 * PublisherId -> the number of changes of the publisher so far.
+	 */
+	private final ConcurrentMap<Long, AtomicLong> changesByPublisher =
+			new ConcurrentHashMap<Long, AtomicLong>();
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+
+	/**
+	 * @param timeToLive - the maximal age of a result in milliseconds
+	 * @param changeThreshold - the number of minor changes of a publisher after which its
+	 * results are dropped, 1 to drop them on any change
+	 * @param capacity - the maximal number of results
+	 */
+	public RecommendationCache(long timeToLive, long changeThreshold, final int capacity) {
+		if (timeToLive < 1 || changeThreshold < 1 || capacity < 1) {
+			throw new IllegalArgumentException("Invalid cache configuration: time to live "
+					+ timeToLive + ", change threshold " + changeThreshold + ", capacity "
+					+ capacity);
+		}
+		this.timeToLive = timeToLive;
+		this.changeThreshold = changeThreshold;
+		entries = new LinkedHashMap<Key, Entry>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest) {
+				return size() > capacity;
+			}
+		};
+	}
+
+	/**
+	 * Looks up the result of a request.
+	 * @param publisherId - the publisher of the request, may be null
+	 * @param articleId - the article the user is viewing, may be null
+	 * @param limit - the number of requested recommendations
+	 * @return the cached result, which must not be modified, or null if there is no fresh one
+	 */
+	public List<Long> get(Long publisherId, Long articleId, int limit) {
+		Key key = new Key(publisherId, articleId, limit);
+		long now = System.currentTimeMillis();
+		long changes = getChanges(publisherId);
+		synchronized (entries) {
+			Entry entry = entries.get(key);
+			if (entry != null) {
+				if (now - entry.created < timeToLive && changes - entry.changes < changeThreshold) {
+					hits.incrementAndGet();
+					return entry.result;
+				}
+				entries.remove(key);
+			}
+		}
+		misses.incrementAndGet();
+		return null;
+	}
+
+	/**
+	 * Caches the result of a request. The change counter of the publisher has to be read
+	 * with getChanges before the result was computed, so that changes made meanwhile count
+	 * against it.
+	 * @param changes - the change counter of the publisher before the result was computed
+	 * @param result - the recommended article ids
+	 */
+	public void put(Long publisherId, Long articleId, int limit, long changes,
+			List<Long> result) {
+		Entry entry = new Entry(Collections.unmodifiableList(result), changes,
+				System.currentTimeMillis());
+		synchronized (entries) {
+			entries.put(new Key(publisherId, articleId, limit), entry);
+		}
+	}
+
+	/**
+	 * @return the change counter of a publisher
+	 */
+	public long getChanges(Long publisherId) {
+		AtomicLong changes = changesByPublisher.get(publisherId == null ? 0L : publisherId);
+		return changes == null ? 0 : changes.get();
+	}
+
+	/**
+	 * Records a minor change of the state of a publisher, e.g. an impression or a click.
+	 * Results computed for requests of any publisher, i.e. without publisher, also count it.
+	 */
+	public void recordChange(Long publisherId) {
+		addChanges(publisherId, 1);
+	}
+
+	/**
+	 * Drops the results of a publisher, e.g. because one of its articles was removed or is
+	 * no longer recommendable.
+	 */
+	public void invalidate(Long publisherId) {
+		addChanges(publisherId, changeThreshold);
+	}
+
+	private void addChanges(Long publisherId, long delta) {
+		if (publisherId != null) {
+			getCounter(publisherId).addAndGet(delta);
+		}
+		getCounter(0L).addAndGet(delta);
+	}
+
+	private AtomicLong getCounter(Long publisherId) {
+		AtomicLong changes = changesByPublisher.get(publisherId);
+		if (changes == null) {
+			AtomicLong created = new AtomicLong();
+			changes = changesByPublisher.putIfAbsent(publisherId, created);
+			if (changes == null) {
+				changes = created;
+			}
+		}
+		return changes;
+	}
+
+	public long getHitCount() {
+		return hits.get();
+	}
+
+	public long getMissCount() {
+		return misses.get();
+	}
+
+	/**
+	 * @return the share of the lookups that found a fresh result, 0 before the first lookup
+	 */
+	public double getHitRatio() {
+		long hitCount = hits.get();
+		long lookups = hitCount + misses.get();
+		return lookups == 0 ? 0 : (double) hitCount / lookups;
+	}
+
+	/**
+	 * @return the number of cached results, including stale ones not looked up since
+	 */
+	public int size() {
+		synchronized (entries) {
+			return entries.size();
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "[RecommendationCache results=" + size() + ", hits=" + getHitCount()
+				+ ", misses=" + getMissCount() + ", ttl=" + timeToLive + ", threshold="
+				+ changeThreshold + "]";
+	}
+
+	private static final class Key {
+
+		private final Long publisherId;
+		private final Long articleId;
+		private final int limit;
+
+		Key(Long publisherId, Long articleId, int limit) {
+			this.publisherId = publisherId;
+			this.articleId = articleId;
+			this.limit = limit;
+		}
+
+		@Override
+		public boolean equals(Object object) {
+			if (!(object instanceof Key)) {
+				return false;
+			}
+			Key other = (Key) object;
+			return limit == other.limit
+					&& (publisherId == null ? other.publisherId == null
+							: publisherId.equals(other.publisherId))
+					&& (articleId == null ? other.articleId == null
+							: articleId.equals(other.articleId));
+		}
+
+		@Override
+		public int hashCode() {
+			int hash = limit;
+			hash = 31 * hash + (publisherId == null ? 0 : publisherId.hashCode());
+			hash = 31 * hash + (articleId == null ? 0 : articleId.hashCode());
+			return hash;
+		}
+	}
+
+	private static final class Entry {
+
+		private final List<Long> result;
+		private final long changes;
+		private final long created;
+
+		Entry(List<Long> result, long changes, long created) {
+			this.result = result;
+			this.changes = changes;
+			this.created = created;
+		}
+	}
+
+}
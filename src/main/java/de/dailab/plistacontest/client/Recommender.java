@@ -1,78 +1,210 @@
 package de.dailab.plistacontest.client;
 
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-public class Recommender implements Comparator<NewsArticle> {
+public class Recommender implements ContestRecommender {
 	
 	/**
-	 * All the news articles in the system.
+	 * Orders articles from the most recent to the oldest. Articles with the same timestamp
+	 * are ordered by descending id.
 	 */
-	private List<NewsArticle> newsArticles;
-	
-	private Map<NewsArticle, List<Double>> articleTermFrequencies;
+	private static final Comparator<NewsArticle> MOST_RECENT_FIRST = new Comparator<NewsArticle>() {
+		@Override
+		public int compare(NewsArticle article, NewsArticle otherArticle) {
+			if (article.getTimestamp() != otherArticle.getTimestamp()) {
+				return article.getTimestamp() > otherArticle.getTimestamp() ? -1 : 1;
+			}
+			return otherArticle.getId().compareTo(article.getId());
+		}
+	};
 	
 	/**
 	 * ArticleId -> Article map for quick look up. Used primarily when the system needs
 	 * to look up an article after a click. 
 	 */
-	private Map<Long, NewsArticle> newsArticleById;
+	private ConcurrentMap<Long, NewsArticle> newsArticleById;
+	
+	/**
+	 * PublisherId -> the content model of the articles published by the publisher. Shards
+	 * are created on the first article of a publisher and are updated independently.
+	 */
+	private ConcurrentMap<Long, ContentShard> shardByPublisher;
 	
 	/**
-	 * PublisherId -> all articles published by the publisher known to the system.
+	 * Maps the keywords in the system to the term ids used by the term vectors. Shared by
+	 * all shards so that user profiles can be compared with the articles of any publisher.
 	 */
-	private Map<Long, Set<NewsArticle>> newsArticlesByPublisher;
+	private TermDictionary words;
 	
 	/**
-	 * Map that maps from the keywords in the system to the number of documents in which the 
-	 * word occurs.
+	 * The ids of the most recent articles read by each user, including articles unknown to
+	 * the system.
 	 */
-	private Map<String, Integer> words;
+	private UserHistoryStore readByUser;
 	
 	/**
-	 * All the articles read by a user. Stored as a map that maps from the user ID to a set of
-	 * NewsArticle objects representing the news articles.
+	 * UserId -> centroid of the articles read by the user, updated on every read.
 	 */
-	private Map<Long, Set<NewsArticle>> readByUser;
+	private Map<Long, UserProfile> profileByUser;
 	
-	private Map<Long, Set<Long>> readByUserIdOnly;
+	/**
+	 * Half life of a read in the user profiles in milliseconds, 0 to never decay reads.
+	 */
+	private long profileHalfLife;
 		
 	/**
-	 * UserId -> articles recommended over the course of the system's lifetime. Will be used to
-	 * avoid recommending the same articles repeatedly. 
+	 * The articles each user has been shown, recommended or has read, so they are not
+	 * recommended repeatedly. Null to not filter.
 	 */
-	private Map<Long, Set<NewsArticle>> recommendedToUser;
+	private volatile SeenFilter seenFilter;
 		
 	private static final LanguageProcessor languageProcessor = LanguageProcessor.INSTANCE;
 	
+	/**
+	 * Queries matching at least this many postings in a shard are scored in parallel. Until
+	 * it is configured for the machine, queries are scored on the calling thread.
+	 */
+	private volatile long parallelScoringThreshold = Long.MAX_VALUE;
+	
+	/**
+	 * The time the content scoring of a request may take in milliseconds, 0 for no limit.
+	 */
+	private volatile long scoringBudget;
+	
+	/**
+	 * The number of requests whose scoring was stopped by their deadline.
+	 */
+	private final AtomicLong partialResults = new AtomicLong();
+	
+	/**
+	 * The hash the shards use to find candidates approximately, null to score exactly.
+	 */
+	private volatile RandomProjectionHash projectionHash;
+	
+	/**
+	 * The limits on the terms of the shards.
+	 */
+	private volatile TermPruning termPruning = TermPruning.NONE;
+	
+	/**
+	 * Articles older than this many milliseconds are evicted, 0 to keep articles forever.
+	 * The age is measured against the newest article timestamp seen, so that replayed logs
+	 * age the same way as the live stream. Users idle for as long are evicted as well.
+	 */
+	private long maxArticleAge;
+	
+	/**
+	 * The number of most recent articles kept per publisher, 0 for no limit.
+	 */
+	private int maxArticlesPerPublisher;
+	
+	/**
+	 * Half life of an impression or click in the popularity rankings of the shards created
+	 * from now on, in milliseconds.
+	 */
+	private long popularityHalfLife = ContentShard.DEFAULT_POPULARITY_HALF_LIFE;
+	
+	/**
+	 * The weight of a click in the popularity rankings; an impression weighs 1.
+	 */
+	private volatile double clickWeight = 1;
+	
+	/**
+	 * Articles clicked together by the same users, null to not use co-clicks.
+	 */
+	private volatile CoClickModel coClicks = new CoClickModel(10, 32);
+	
+	/**
+	 * The most similar articles of each article, null to not maintain them.
+	 */
+	private volatile ContentNeighbourModel contentNeighbours;
+	
+	/**
+	 * Neighbours of the articles according to a model trained offline, null if there is none.
+	 */
+	private volatile ItemNeighbourModel itemModel;
+	
+	/**
+	 * Recent recommendations for anonymous users, null to not cache them.
+	 */
+	private volatile RecommendationCache resultCache;
+	
+	/**
+	 * Checks for a new item model file, created by startItemModelReloading.
+	 */
+	private ScheduledExecutorService itemModelExecutor;
+	
+	/**
+	 * Runs the periodic eviction, created by startEviction.
+	 */
+	private ScheduledExecutorService evictionExecutor;
+	
+	/**
+	 * Applies the buffered item updates, created by startItemUpdateBatching; null while item
+	 * updates are applied right away.
+	 */
+	private volatile ScheduledExecutorService itemUpdateExecutor;
+	
+	/**
+	 * The item updates waiting to be applied, guarded by itself.
+	 */
+	private final List<RecommenderItem> pendingItemUpdates = new ArrayList<RecommenderItem>();
+	
+	private long itemUpdateDelay;
+	
+	private int itemUpdateBatchSize;
+	
+	/**
+	 * The number of most recent reads kept per user by default.
+	 */
+	private static final int DEFAULT_MAX_HISTORY_LENGTH = 100;
+	
+	/**
+	 * The number of users of a publisher from which on the requests of a batch are scored
+	 * together in one pass over the shards.
+	 */
+	private static final int MIN_BATCH_USERS = 8;
+	
+	/**
+	 * The number of dropped term ids from which on they are recycled right after the update
+	 * that dropped them, rather than by the next eviction, which may never run.
+	 */
+	private static final int MAX_DROPPED_TERM_IDS = 1024;
+	
 	private static final Logger logger = LoggerFactory.getLogger(Recommender.class);
 	
-	private Collection<NewsArticle> readByActiveUser;
 		
 	public Recommender() {
 		// initialize data structures
-		newsArticles = new ArrayList<NewsArticle>();
-		readByUser = new HashMap<Long, Set<NewsArticle>>();
-		newsArticleById = new HashMap<Long, NewsArticle>();
-		newsArticlesByPublisher = new HashMap<Long, Set<NewsArticle>>();
-		words = new LinkedHashMap<String, Integer>();
-		readByUserIdOnly = new HashMap<Long, Set<Long>>();
-		articleTermFrequencies = new HashMap<NewsArticle, List<Double>>();
+		readByUser = new UserHistoryStore(DEFAULT_MAX_HISTORY_LENGTH);
+		newsArticleById = new ConcurrentHashMap<Long, NewsArticle>();
+		shardByPublisher = new ConcurrentHashMap<Long, ContentShard>();
+		words = new TermDictionary();
+		profileByUser = new ConcurrentHashMap<Long, UserProfile>();
 		
 		// load the stop words of the language processor
 		try {
@@ -82,23 +214,365 @@ public class Recommender implements Comparator<NewsArticle> {
 		}
 	}
 	
+	/**
+	 * Sets the half life of a read in the user profiles. Reads that happened one half life
+	 * before the most recent read count half as much.
+	 * @param profileHalfLife - half life in milliseconds, 0 to weight all reads equally
+	 */
+	public void setProfileHalfLife(long profileHalfLife) {
+		this.profileHalfLife = profileHalfLife;
+	}
+	
+	/**
+	 * Sets the number of postings a query has to match in a shard before its candidates are
+	 * scored in parallel on the shared fork/join pool.
+	 * @param parallelScoringThreshold - the number of postings, Long.MAX_VALUE to always
+	 * score on the calling thread
+	 */
+	public void setParallelScoringThreshold(long parallelScoringThreshold) {
+		this.parallelScoringThreshold = parallelScoringThreshold;
+	}
+	
+	/**
+	 * Sets the time the content scoring of a request may take. When it is up, the articles
+	 * scored best so far are recommended.
+	 * @param scoringBudget - the time in milliseconds, 0 for no limit
+	 */
+	public void setScoringBudget(long scoringBudget) {
+		this.scoringBudget = scoringBudget;
+	}
+	
+	/**
+	 * @return the number of requests whose scoring was stopped by their deadline
+	 */
+	public long getPartialResultCount() {
+		return partialResults.get();
+	}
+	
+	/**
+	 * Switches between exact and approximate scoring at runtime. In approximate mode, the
+	 * candidates of a request are the articles that share a bucket with the profile of the
+	 * user in the random projection hash tables of the shard, rather than all articles that
+	 * share a term with it. The candidates are still ranked by their exact similarity.
+	 * @param projectionHash - the hash to find candidates with, null to score exactly
+	 */
+	public void setApproximateScoring(RandomProjectionHash projectionHash) {
+		this.projectionHash = projectionHash;
+		for (ContentShard shard : shardByPublisher.values()) {
+			shard.setProjectionHash(projectionHash);
+		}
+		logger.info("Scoring {}", projectionHash == null ? "exactly" : "with " + projectionHash);
+	}
+	
+	/**
+	 * Changes the limits on the terms the shards keep and score, for all publishers.
+	 * @param termPruning - the limits, TermPruning.NONE to keep all terms
+	 * @see TermPruning
+	 */
+	public void setTermPruning(TermPruning termPruning) {
+		this.termPruning = termPruning;
+		for (ContentShard shard : shardByPublisher.values()) {
+			shard.setPruning(termPruning);
+		}
+		recycleTermIds();
+		logger.info("Pruning terms with {}", termPruning);
+	}
+	
+	/**
+	 * @return the number of distinct words of the articles in the system
+	 */
+	public int getTermCount() {
+		return words.getTermCount();
+	}
+	
+	/**
+	 * @return the dictionary of the words of the articles, shared by the shards
+	 */
+	TermDictionary getDictionary() {
+		return words;
+	}
+	
+	/**
+	 * Configures which articles are evicted by evictExpiredArticles.
+	 * @param maxArticleAge - maximal age of an article in milliseconds, relative to the
+	 * newest article in the system, 0 for no limit; also the time after which the users
+	 * who have neither read nor been shown an article are forgotten
+	 * @param maxArticlesPerPublisher - the number of most recent articles to keep per
+	 * publisher, 0 for no limit
+	 */
+	public void setRetention(long maxArticleAge, int maxArticlesPerPublisher) {
+		this.maxArticleAge = maxArticleAge;
+		this.maxArticlesPerPublisher = maxArticlesPerPublisher;
+	}
+	
+	/**
+	 * Configures the popularity rankings used for users without a history. The half life
+	 * applies to the publishers seen from now on, so it is set before articles arrive.
+	 * @param popularityHalfLife - time in milliseconds after which an impression or click
+	 * counts half as much
+	 * @param clickWeight - the weight of a click relative to an impression
+	 */
+	public void setPopularity(long popularityHalfLife, double clickWeight) {
+		this.popularityHalfLife = popularityHalfLife;
+		this.clickWeight = clickWeight;
+	}
+	
+	/**
+	 * Starts evicting expired articles periodically on a background thread, so that the
+	 * request path never pays for it.
+	 * @param interval - time between two evictions in milliseconds
+	 */
+	public synchronized void startEviction(long interval) {
+		if (evictionExecutor != null) {
+			evictionExecutor.shutdownNow();
+		}
+		evictionExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "article-eviction");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		evictionExecutor.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					evictExpiredArticles();
+					logger.info("User histories: {}", readByUser);
+					logger.info("User profiles: {}", profileByUser.size());
+					if (seenFilter != null) {
+						logger.info("Seen articles: {}", seenFilter);
+					}
+					if (coClicks != null) {
+						logger.info("Co-clicks: {}", coClicks);
+					}
+					if (contentNeighbours != null) {
+						logger.info("Content neighbours: {}", contentNeighbours);
+					}
+					if (resultCache != null) {
+						logger.info("Result cache: {}", resultCache);
+					}
+					if (partialResults.get() > 0) {
+						logger.info("Partial results: {}", partialResults.get());
+					}
+				} catch (RuntimeException e) {
+					logger.error("Article eviction failed", e);
+				}
+			}
+		}, interval, interval, TimeUnit.MILLISECONDS);
+	}
+	
+	/**
+	 * Starts buffering item updates and applying them in batches on a background thread, so
+	 * that handleItemUpdate returns at once. A batch is applied a delay after its first
+	 * update, or as soon as it is full. Publishers often send whole sections again, so the
+	 * updates of an item within a batch are collapsed into the last one, and the articles of
+	 * a publisher are indexed in one snapshot of its shard. Requests do not see an update
+	 * until its batch is applied.
+	 * @param delay - the time an update may wait in milliseconds
+	 * @param batchSize - the number of updates that are applied at once at the latest
+	 */
+	public synchronized void startItemUpdateBatching(long delay, int batchSize) {
+		if (delay <= 0 || batchSize < 1) {
+			throw new IllegalArgumentException("Invalid item update batching: delay " + delay
+					+ ", batch size " + batchSize);
+		}
+		if (itemUpdateExecutor != null) {
+			itemUpdateExecutor.shutdownNow();
+		}
+		itemUpdateDelay = delay;
+		itemUpdateBatchSize = batchSize;
+		itemUpdateExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "item-updates");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+	
+	/**
+	 * Applies the buffered item updates. Runs on the item update thread only, so the batches
+	 * are applied in the order they were buffered.
+	 */
+	private final Runnable itemUpdateFlush = new Runnable() {
+		@Override
+		public void run() {
+			List<RecommenderItem> batch;
+			synchronized (pendingItemUpdates) {
+				if (pendingItemUpdates.isEmpty()) {
+					return;
+				}
+				batch = new ArrayList<RecommenderItem>(pendingItemUpdates);
+				pendingItemUpdates.clear();
+			}
+			try {
+				handleItemUpdates(batch);
+			} catch (RuntimeException e) {
+				logger.error("Applying " + batch.size() + " item updates failed", e);
+			}
+		}
+	};
+	
+	/**
+	 * Sets the filter of the articles users have already seen, which are then excluded from
+	 * the recommendations. Replacing the filter forgets what users have seen.
+	 * @param seenFilter - the filter, null to not filter
+	 */
+	public void setSeenFilter(SeenFilter seenFilter) {
+		this.seenFilter = seenFilter;
+	}
+	
+	/**
+	 * Sets the model of the articles clicked together, which serves users without a profile
+	 * who are reading an article. Replacing the model forgets all co-clicks.
+	 * @param coClicks - the model, null to not use co-clicks
+	 */
+	public void setCoClickModel(CoClickModel coClicks) {
+		this.coClicks = coClicks;
+	}
+	
+	/**
+	 * Sets the lists of the most similar articles of each article, which serve users without
+	 * a profile who are reading an article, after the co-clicks. The lists are filled as
+	 * articles are added or change their text; the articles already known get no list.
+	 * @param contentNeighbours - the model, null to not maintain the lists
+	 */
+	public void setContentNeighbourModel(ContentNeighbourModel contentNeighbours) {
+		this.contentNeighbours = contentNeighbours;
+	}
+	
+	public ContentNeighbourModel getContentNeighbourModel() {
+		return contentNeighbours;
+	}
+	
+	/**
+	 * Sets the cache of the recommendations for anonymous users. The state changes of the
+	 * publishers are recorded in the cache from now on.
+	 * @param resultCache - the cache, null to not cache recommendations
+	 */
+	public void setResultCache(RecommendationCache resultCache) {
+		this.resultCache = resultCache;
+	}
+	
+	public RecommendationCache getResultCache() {
+		return resultCache;
+	}
+	
+	/**
+	 * Sets the model of the neighbours of the articles trained offline, which serves users
+	 * without a profile after the co-clicks.
+	 * @param itemModel - the model, null to not use one
+	 */
+	public void setItemModel(ItemNeighbourModel itemModel) {
+		this.itemModel = itemModel;
+	}
+	
+	public ItemNeighbourModel getItemModel() {
+		return itemModel;
+	}
+	
+	/**
+	 * Loads the item model from a file, and then keeps checking the file on a background
+	 * thread: whenever it is replaced, e.g. by a new run of ItemModelTrainer, the new model is
+	 * mapped and swapped in, while requests in flight finish with the old one. A file that
+	 * cannot be loaded is logged and the current model is kept.
+	 * @param file - the model file, which need not exist yet
+	 * @param interval - time between two checks in milliseconds
+	 */
+	public synchronized void startItemModelReloading(final File file, long interval) {
+		if (itemModelExecutor != null) {
+			itemModelExecutor.shutdownNow();
+		}
+		itemModelExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "item-model-reloading");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		itemModelExecutor.scheduleWithFixedDelay(new Runnable() {
+			
+			private long lastModified;
+			
+			@Override
+			public void run() {
+				long modified = file.lastModified();
+				if (modified == 0 || modified == lastModified) {
+					return;
+				}
+				lastModified = modified;
+				try {
+					itemModel = ItemNeighbourModel.load(file);
+					logger.info("Loaded item model {}", itemModel);
+				} catch (IOException e) {
+					logger.error("Loading the item model from " + file + " failed", e);
+				} catch (RuntimeException e) {
+					logger.error("Loading the item model from " + file + " failed", e);
+				}
+			}
+		}, 0, interval, TimeUnit.MILLISECONDS);
+	}
+	
+	/**
+	 * Sets the number of most recent reads kept per user; older reads are no longer excluded
+	 * from the recommendations. The profiles of the users are not affected.
+	 * @param maxHistoryLength - the number of reads, 0 to keep all reads
+	 */
+	public void setMaxHistoryLength(int maxHistoryLength) {
+		readByUser.setMaxLength(maxHistoryLength);
+	}
+	
+	/**
+	 * Returns the known articles in the history of each user. Builds the map on every call.
+	 */
 	public Map<Long, Set<NewsArticle>> getReadByUser() {
-		return new HashMap<Long, Set<NewsArticle>>(readByUser);
+		Map<Long, Set<NewsArticle>> result = new HashMap<Long, Set<NewsArticle>>();
+		for (long userId : readByUser.getUsers()) {
+			Set<NewsArticle> read = new LinkedHashSet<NewsArticle>();
+			for (long articleId : readByUser.getHistory(userId)) {
+				NewsArticle article = newsArticleById.get(articleId);
+				if (article != null) {
+					read.add(article);
+				}
+			}
+			if (!read.isEmpty()) {
+				result.put(userId, read);
+			}
+		}
+		return result;
+	}
+	
+	/**
+	 * @return the store of the user histories, e.g. to report its memory use
+	 */
+	public UserHistoryStore getUserHistories() {
+		return readByUser;
 	}
 	
 	public List<NewsArticle> getNewsArticles() {
-		return new ArrayList<NewsArticle>(newsArticles);
+		List<NewsArticle> result = new ArrayList<NewsArticle>(newsArticleById.size());
+		for (ContentShard shard : shardByPublisher.values()) {
+			result.addAll(shard.getArticles());
+		}
+		return result;
 	}
 	
 	public Collection<String> getWords() {
-		return new LinkedHashSet<String>(words.keySet());
+		Collection<String> result = new LinkedHashSet<String>();
+		for (ContentShard shard : shardByPublisher.values()) {
+			shard.collectWords(result);
+		}
+		return result;
 	}
 		
 	/**
-	 * Adds a news article to the system. Removes any existing reference to the article if
-	 * necessary. Maintains the global word list with any new words from the article.
-	 * Computes the frequency list of the article, and pads the frequency lists of all the other
-	 * articles with zeroes for any new words. 
+	 * Adds a news article to the shard of its publisher. Removes any existing reference to
+	 * the article if necessary. Only the shard of the publisher is changed, and
+	 * recommendations served meanwhile keep reading the previous snapshot of the shard.
 	 * @param newsArticle - article that is to be added to the system
 	 */
 	public void addNewsArticle(NewsArticle newsArticle) {
@@ -109,188 +583,796 @@ public class Recommender implements Comparator<NewsArticle> {
 		// TODO: store categoryId -> set of articles?
 		
 		// check if the article already exists in the system
-//		if (newsArticleById.containsKey(id)) {
-//			NewsArticle old = newsArticleById.get(id);
-//			// if it does, simply remove the old reference
-//			// it will be a different article object in memory, but with a matching id
-//			logger.info("Updating existing article {}", id);
-//			newsArticles.remove(old);
-//			
-//			// update the article in the sets mapped to 
-//			for (Set<NewsArticle> read : readByUser.values()) {
-//				if (read.contains(old)) {
-//					read.remove(old);
-//					read.add(newsArticle);
-//				}
-//			}
-//		}
+		NewsArticle old = newsArticleById.get(id);
+		if (old != null) {
+			// if it does, simply remove the old reference
+			// it will be a different article object in memory, but with a matching id.
+			// The shard replaces articles of its own publisher by itself.
+			logger.info("Replacing existing article {}", id);
+			if (!old.getPublisherId().equals(publisherId)) {
+				getShard(old.getPublisherId()).remove(old);
+			}
+			invalidateResults(old.getPublisherId());
+		}
 		
-		// add the article to the system
-		newsArticles.add(newsArticle);
+		getShard(publisherId).add(newsArticle);
 		newsArticleById.put(id, newsArticle);
-		
-		// add the words from the article to the global list of words
-		for (String word : newsArticle.getKeywords().keySet()) {
-			words.put(word, words.containsKey(word) ? words.get(word) + 1 : 1);
+		recordChange(publisherId);
+		updateContentNeighbours(newsArticle);
+		recycleManyTermIds();
+	}
+	
+	/**
+	 * Scores an article of a shard against the other articles of the shard, and records the
+	 * most similar ones in the content neighbour model.
+	 */
+	private void updateContentNeighbours(NewsArticle article) {
+		ContentNeighbourModel model = contentNeighbours;
+		if (model == null) {
+			return;
 		}
-				
-		// compute the term frequency lists
-		for (NewsArticle article : newsArticles) {
-			articleTermFrequencies.put(article, computeTermFrequencyList(article));
+		ContentShard shard = getShard(article.getPublisherId());
+		UserProfile profile = shard.addToProfile(UserProfile.EMPTY, article.getId(), 0, 0);
+		NewsArticle[] selected = new NewsArticle[model.getCapacity()];
+		float[] similarities = new float[selected.length];
+		int count = profile.isEmpty() ? 0 : shard.selectArticles(profile,
+				ExcludedArticles.of(new long[] {article.getId()}, null, null, null),
+				parallelScoringThreshold, ScoringDeadline.NONE, selected, similarities);
+		long[] ids = new long[count];
+		for (int i = 0; i < count; i++) {
+			ids[i] = selected[i].getId();
 		}
-		
-		// pad the frequency lists of all the articles now so they are ready when a
-		// recommendation request arrives
-		for (List<Double> frequencyList : articleTermFrequencies.values()) {
-			padFrequencyList(frequencyList, words.size() - frequencyList.size());
+		model.add(article.getId(), ids, similarities, count);
+	}
+	
+	/**
+	 * Evicts the articles that are older than the maximal article age or beyond the
+	 * maximal number of articles of their publisher. Evicted articles are removed from every
+	 * index, and their words no longer count for the document frequencies. The shards are
+	 * evicted one after the other, and requests are served from the previous snapshots
+	 * meanwhile. The users idle for longer than the maximal article age are evicted next,
+	 * and the ids of the words that are gone are recycled afterwards.
+	 * @return the number of evicted articles
+	 */
+	public int evictExpiredArticles() {
+		long minTimestamp = Long.MIN_VALUE;
+		if (maxArticleAge > 0) {
+			long newestTimestamp = Long.MIN_VALUE;
+			for (ContentShard shard : shardByPublisher.values()) {
+				newestTimestamp = Math.max(newestTimestamp, shard.getNewestTimestamp());
+			}
+			minTimestamp = newestTimestamp - maxArticleAge;
 		}
 		
-		// put it in the publisherId -> Set<Article> map for easy lookup later
-		if (newsArticlesByPublisher.containsKey(publisherId)) {
-			newsArticlesByPublisher.get(publisherId).add(newsArticle);
-		} else {
-			newsArticlesByPublisher.put(publisherId,
-					new HashSet<NewsArticle>(Arrays.asList(newsArticle)));
+		int evicted = 0;
+		for (ContentShard shard : shardByPublisher.values()) {
+			List<NewsArticle> expired = shard.evict(minTimestamp, maxArticlesPerPublisher);
+			CoClickModel model = coClicks;
+			ContentNeighbourModel neighbours = contentNeighbours;
+			// under the recommender's monitor, so a click registered meanwhile does not pair
+			// an article that has just left the co-click model
+			synchronized (this) {
+				for (NewsArticle article : expired) {
+					newsArticleById.remove(article.getId(), article);
+					if (model != null) {
+						model.remove(article.getId());
+					}
+					if (neighbours != null) {
+						neighbours.remove(article.getId());
+					}
+					invalidateResults(article.getPublisherId());
+				}
+			}
+			evicted += expired.size();
 		}
+		if (evicted > 0) {
+			logger.info("Evicted {} articles, {} articles left", evicted, newsArticleById.size());
+		}
+		if (maxArticleAge > 0) {
+			evictIdleUsers(minTimestamp);
+		}
+		recycleTermIds();
+		return evicted;
+	}
+	
+	/**
+	 * Forgets the users who have neither read nor been shown an article since a given
+	 * time. The articles they knew have expired, so their histories, seen filters and
+	 * profiles would only take memory. A profile is only removed under the recommender's
+	 * monitor, like in userReadArticle, so a user who reads meanwhile keeps it.
+	 * @param minTimestamp - the time of the oldest event that keeps a user
+	 */
+	private void evictIdleUsers(long minTimestamp) {
+		int evicted = readByUser.evictIdleUsers(minTimestamp);
+		SeenFilter filter = seenFilter;
+		if (filter != null) {
+			evicted = Math.max(evicted, filter.evictIdleUsers(minTimestamp));
+		}
+		for (Long userId : profileByUser.keySet()) {
+			if (!readByUser.contains(userId)) {
+				synchronized (this) {
+					if (!readByUser.contains(userId)) {
+						profileByUser.remove(userId);
+					}
+				}
+			}
+		}
+		if (evicted > 0) {
+			logger.info("Evicted {} idle users", evicted);
+		}
+	}
+	
+	/**
+	 * Recycles the dropped term ids once there are many of them. Updates and pruning drop
+	 * terms as well as evictions, so without this a recommender whose articles are never
+	 * evicted, as in a batch replay, would collect dropped ids forever. Since recycling
+	 * visits every profile, the ids are collected until there are enough to be worth it.
+	 */
+	private void recycleManyTermIds() {
+		if (words.getDroppedCount() >= MAX_DROPPED_TERM_IDS) {
+			recycleTermIds();
+		}
+	}
+	
+	/**
+	 * Recycles the ids of the words dropped from the dictionary since they were last taken,
+	 * after removing them from the profiles of the users, so that a profile never matches a
+	 * new word that takes the id of a word the user has read. A profile is only replaced
+	 * under the recommender's monitor, like in userReadArticle.
+	 */
+	private void recycleTermIds() {
+		int[] dropped = words.takeDroppedIds();
+		if (dropped.length == 0) {
+			return;
+		}
+		boolean[] removed = new boolean[words.size()];
+		for (int termId : dropped) {
+			removed[termId] = true;
+		}
+		for (Map.Entry<Long, UserProfile> entry : profileByUser.entrySet()) {
+			if (entry.getValue().without(removed) != entry.getValue()) {
+				synchronized (this) {
+					UserProfile profile = profileByUser.get(entry.getKey());
+					if (profile != null) {
+						profileByUser.put(entry.getKey(), profile.without(removed));
+					}
+				}
+			}
+		}
+		words.recycle(dropped);
 	}
 	
+	/**
+	 * Returns the shard of a publisher, creating it if the publisher is new.
+	 */
+	private ContentShard getShard(Long publisherId) {
+		ContentShard shard = shardByPublisher.get(publisherId);
+		if (shard == null) {
+			ContentShard created = new ContentShard(publisherId, words, popularityHalfLife);
+			shard = shardByPublisher.putIfAbsent(publisherId, created);
+			if (shard == null) {
+				shard = created;
+				if (projectionHash != null) {
+					shard.setProjectionHash(projectionHash);
+				}
+				if (termPruning != TermPruning.NONE) {
+					shard.setPruning(termPruning);
+				}
+			}
+		}
+		return shard;
+	}
+	
+	/**
+	 * Returns the shards a request is served from.
+	 * @param publisherId - the publisher of the request, null for all publishers
+	 */
+	private Collection<ContentShard> getShards(Long publisherId) {
+		if (publisherId == null) {
+			return shardByPublisher.values();
+		}
+		ContentShard shard = shardByPublisher.get(publisherId);
+		return shard == null ? Collections.<ContentShard>emptyList()
+				: Collections.singletonList(shard);
+	}
+
+	/**
+	 * Registers that an article was shown to an anonymous user.
+	 * @see #articleViewed(Long, Long, long)
+	 */
+	public void articleViewed(Long articleId, long timestamp) {
+		articleViewed(null, articleId, timestamp);
+	}
+	
+	/**
+	 * Registers that an article was shown to a user. The impression counts towards the
+	 * popularity of the article, and the article is not recommended to the user afterwards.
+	 * @param userId - id of the user, null or 0 if the user is unknown
+	 * @param articleId - id of the viewed article
+	 * @param timestamp - time of the impression in milliseconds
+	 */
+	public void articleViewed(Long userId, Long articleId, long timestamp) {
+		NewsArticle article = newsArticleById.get(articleId);
+		if (article != null) {
+			getShard(article.getPublisherId()).addToPopularity(articleId, 1, timestamp);
+			recordChange(article.getPublisherId());
+		}
+		markSeen(userId, articleId, timestamp);
+	}
+	
+	/**
+	 * Registers that articles were recommended to a user, so that they are not recommended
+	 * to the user again.
+	 * @param userId - id of the user, null or 0 if the user is unknown
+	 * @param articleIds - ids of the recommended articles
+	 */
+	public void articlesRecommended(Long userId, List<Long> articleIds) {
+		articlesRecommended(userId, articleIds, System.currentTimeMillis());
+	}
+	
+	/**
+	 * Registers that articles were recommended to a user at a given time.
+	 * @param userId - id of the user, null or 0 if the user is unknown
+	 * @param articleIds - ids of the recommended articles
+	 * @param timestamp - time of the recommendation in milliseconds
+	 * @see #articlesRecommended(Long, List)
+	 */
+	public void articlesRecommended(Long userId, List<Long> articleIds, long timestamp) {
+		for (Long articleId : articleIds) {
+			markSeen(userId, articleId, timestamp);
+		}
+	}
+	
+	/**
+	 * Records a minor change of the state of a publisher in the result cache.
+	 */
+	private void recordChange(Long publisherId) {
+		RecommendationCache cache = resultCache;
+		if (cache != null) {
+			cache.recordChange(publisherId);
+		}
+	}
+	
+	/**
+	 * Drops the cached results of a publisher, because they may contain an article that
+	 * was removed or changed.
+	 */
+	private void invalidateResults(Long publisherId) {
+		RecommendationCache cache = resultCache;
+		if (cache != null) {
+			cache.invalidate(publisherId);
+		}
+	}
+	
+	private void markSeen(Long userId, Long articleId, long timestamp) {
+		SeenFilter filter = seenFilter;
+		if (filter != null && userId != null && userId != 0) {
+			filter.add(userId, articleId, timestamp);
+		}
+	}
 
 	/**
 	 * Registers that a user has clicked on a recommendation, and read an article.
-	 * Maintains a UserId -> Set<Article> map that is used to build user profiles.
+	 * Adds the article to the history of the user, and to the profile of the user if the
+	 * article is known. The click also counts towards the popularity of the article. The
+	 * user state is updated under the recommender's monitor; the shard of the article is
+	 * only read.
 	 * @param userId - id of the user that read the article
 	 * @param articleId - id of the read article
-	 * @param publisherId - id of the publisher of the read article
 	 */
-	public void userReadArticle(Long userId, Long articleId) {		
-		// ignore the click if the user is unknown to the data provider
-		if (userId == 0) {
-			return;
-		}
-				
+	public void userReadArticle(Long userId, Long articleId) {
+		userReadArticle(userId, articleId, System.currentTimeMillis());
+	}
+
+	/**
+	 * Registers that a user has clicked on a recommendation at a given time. The time has
+	 * to be on the clock of the impressions, since the popularity rankings compare them.
+	 * @param userId - id of the user that read the article
+	 * @param articleId - id of the read article
+	 * @param timestamp - time of the click in milliseconds
+	 * @see #userReadArticle(Long, Long)
+	 */
+	public synchronized void userReadArticle(Long userId, Long articleId, long timestamp) {
 		// since the system only receives the id of the read article, try to gain
 		// more information by finding the actual article object. Note that this might not
 		// exist in the system.
+		NewsArticle article = newsArticleById.get(articleId);
+		if (article != null) {
+			getShard(article.getPublisherId()).addToPopularity(articleId, clickWeight,
+					timestamp);
+			recordChange(article.getPublisherId());
+		}
 		
-		// check if the system knows about the article
-		if (newsArticleById.containsKey(articleId)) {			
-			// look up the article from it's id
-			NewsArticle article = newsArticleById.get(articleId);
-			
-			// check if the system knows about the user
-			if (readByUser.containsKey(userId)) {
-				readByUser.get(userId).add(article); // add article to set of articles read by user
-			} else {
-				// the system does not know about the user yet
-				// register with new list
-				readByUser.put(userId, new HashSet<NewsArticle>(Arrays.asList(article)));
+		// the profile is not updated if the user is unknown to the data provider
+		if (userId == 0) {
+			return;
+		}
+		markSeen(userId, articleId, timestamp);
+		
+		// add article to the history of the user, pair it with the articles the user read
+		// before, and move the centroid of the user towards the article if it is known and
+		// read for the first time. Otherwise all the system has is the id of the article
+		// TODO: look at context keywords?
+		long[] history = readByUser.getHistory(userId);
+		if (!readByUser.add(userId, articleId, timestamp)) {
+			return;
+		}
+		// only articles in the system are paired, since the model forgets an article when it
+		// is evicted and would keep the lists of other articles forever
+		CoClickModel model = coClicks;
+		if (model != null && newsArticleById.containsKey(articleId)) {
+			model.addClick(getLiveArticles(history), articleId);
+		}
+		if (article != null) {
+			UserProfile profile = profileByUser.get(userId);
+			if (profile == null) {
+				profile = UserProfile.EMPTY;
 			}
-		} else {
-			// all the system has is the id of the article
-			// TODO: look at context keywords?
-			// TODO: use collaborative filtering?
-			
-			if (readByUserIdOnly.containsKey(userId)) {
-				readByUserIdOnly.get(userId).add(articleId);
-			} else {
-				readByUserIdOnly.put(userId, new HashSet<Long>(Arrays.asList(articleId)));
+			profileByUser.put(userId, getShard(article.getPublisherId()).addToProfile(profile,
+					articleId, timestamp, profileHalfLife));
+		}
+	}
+	
+	/**
+	 * @return the ids of a history that belong to articles in the system, in their order
+	 */
+	private long[] getLiveArticles(long[] history) {
+		long[] live = new long[history.length];
+		int count = 0;
+		for (long articleId : history) {
+			if (newsArticleById.containsKey(articleId)) {
+				live[count++] = articleId;
 			}
 		}
+		return count == history.length ? history : Arrays.copyOf(live, count);
+	}
+	
+	/**
+	 * Recommends articles of any publisher to a user.
+	 * @see #recommend(Long, Long, int)
+	 */
+	public List<Long> recommend(Long userId, int limit) {
+		return recommend(userId, null, limit);
+	}
+	
+	/**
+	 * Recommends articles of a publisher to a user.
+	 * @see #recommend(Long, Long, Long, int)
+	 */
+	public List<Long> recommend(Long userId, Long publisherId, int limit) {
+		return recommend(userId, publisherId, null, limit);
 	}
 	
 	/**
-	 * Recommends articles to a user. If the system has a profile of the user, use k-nearest
-	 * neighbors with cosine similarity.
-	 * @param userId - id of the user to recommend articles to
+	 * Recommends articles of a publisher to a user. If the system has a profile of the user,
+	 * use k-nearest neighbors with cosine similarity. Otherwise recommend the most popular
+	 * articles of the publisher. Articles the user has read or, according to the seen filter,
+	 * has been shown are not recommended. Only the shard of the publisher is read. The
+	 * method keeps no per-request state in the recommender and can be called from several
+	 * threads. The recommendations for anonymous users are cached if a result cache is set.
+	 * @param userId - id of the user to recommend articles to, null or 0 if the user is
+	 * unknown
+	 * @param publisherId - the publisher to recommend articles of, null to recommend
+	 * articles of all publishers
+	 * @param currentArticleId - id of the article the user is viewing, which is not
+	 * recommended; may be null
 	 * @param limit - number of articles to recommend
 	 * @return a List of the IDs of the recommended articles
 	 */
-	public List<Long> recommend(Long userId, int limit) {		
+	public List<Long> recommend(Long userId, Long publisherId, Long currentArticleId,
+			int limit) {
+		return recommend(userId, publisherId, currentArticleId, limit,
+				ScoringDeadline.inMillis(scoringBudget));
+	}
+	
+	/**
+	 * Recommends articles of a publisher to a user within a deadline. If the deadline passes
+	 * while the articles are scored, the best articles scored so far are recommended and the
+	 * deadline is marked as partial.
+	 * @param deadline - the deadline of the request
+	 * @see #recommend(Long, Long, Long, int)
+	 */
+	public List<Long> recommend(Long userId, Long publisherId, Long currentArticleId,
+			int limit, ScoringDeadline deadline) {
+		userId = getUserId(userId);
+		// anonymous users viewing the same article get the same recommendations
+		RecommendationCache cache = userId == 0 ? resultCache : null;
+		List<Long> cached = cache == null ? null
+				: cache.get(publisherId, currentArticleId, limit);
+		if (cached != null) {
+			return new ArrayList<Long>(cached);
+		}
+		long changes = cache == null ? 0 : cache.getChanges(publisherId);
+		List<Long> result = computeRecommendations(userId, publisherId, currentArticleId,
+				limit, deadline);
+		if (deadline.isPartial()) {
+			partialResults.incrementAndGet();
+		} else if (cache != null) {
+			cache.put(publisherId, currentArticleId, limit, changes, new ArrayList<Long>(result));
+		}
+		return result;
+	}
+	
+	private List<Long> computeRecommendations(Long userId, Long publisherId,
+			Long currentArticleId, int limit, ScoringDeadline deadline) {
 		List<NewsArticle> recommendations; // recommended articles goes here
 		// ids are extracted before returning them
+		Collection<ContentShard> shards = getShards(publisherId);
 				
-		// check if the system knows anything about the user's preferences
-		if (readByUser.containsKey(userId)) {
-			recommendations = recommendKArticles(userId, limit);
+		// check if the system knows anything about the user's preferences, i.e. whether the
+		// user has read a known article
+		UserProfile profile = profileByUser.get(userId);
+		ExcludedArticles excluded = ExcludedArticles.of(readByUser.getSortedHistory(userId),
+				currentArticleId, seenFilter, userId);
+		if (profile != null) {
+			recommendations = recommendKArticles(profile, excluded, shards, limit, deadline);
 		} else {
-			// the system knows nothing about the user, the best it can do is 
-			// to recommend random items
-			
-			// TODO: look at the most popular categories and/or publishers?
-			
-			recommendations = Util.getNRandomElements(newsArticles, limit);
+			// the system knows nothing about the user, the best it can do is to recommend
+			// what other users clicked together with the current article, what is similar to
+			// it, and what they view
+			recommendations = recommendCoClickedArticles(currentArticleId, publisherId,
+					excluded, limit);
+			addSimilarArticles(currentArticleId, publisherId, excluded, recommendations, limit);
+			recommendPopularArticles(recommendations, excluded, shards, limit);
 		}
 		return getArticleIds(recommendations);
 	}
 	
-	private List<NewsArticle> recommendKArticles(Long userId, int k) {
-		setActiveUser(userId);
-		List<NewsArticle> candidates = new ArrayList<NewsArticle>(newsArticles);
+	/**
+	 * Returns the articles that must not be recommended to a user: those the user has read
+	 * or, according to the seen filter, has been shown, and the current article. Used by
+	 * the strategies of the recommender and by the recency table it falls back on.
+	 * @param userId - the user, null or 0 if the user is unknown
+	 * @param currentArticleId - id of the article the user is viewing, may be null
+	 */
+	public ExcludedArticles getExcludedArticles(Long userId, Long currentArticleId) {
+		userId = getUserId(userId);
+		return ExcludedArticles.of(readByUser.getSortedHistory(userId), currentArticleId,
+				seenFilter, userId);
+	}
+	
+	/**
+	 * Recommends the most popular articles of a publisher to a user, whether or not the user
+	 * has a profile, filled up with the most recent articles. Articles the user has read or
+	 * seen are not recommended.
+	 * @see #recommend(Long, Long, Long, int)
+	 */
+	public List<Long> recommendPopular(Long userId, Long publisherId, Long currentArticleId,
+			int limit) {
+		ExcludedArticles excluded = getExcludedArticles(userId, currentArticleId);
+		List<NewsArticle> recommendations = new ArrayList<NewsArticle>(limit);
+		recommendPopularArticles(recommendations, excluded, getShards(publisherId), limit);
+		return getArticleIds(recommendations);
+	}
+	
+	/**
+	 * Recommends the articles most often clicked together with the article the user is
+	 * viewing, whether or not the user has a profile. Articles the user has read or seen are
+	 * not recommended.
+	 * @return the recommended articles, empty if the current article is null or unknown
+	 * @see #recommend(Long, Long, Long, int)
+	 */
+	public List<Long> recommendCoClicked(Long userId, Long publisherId, Long currentArticleId,
+			int limit) {
+		ExcludedArticles excluded = getExcludedArticles(userId, currentArticleId);
+		return getArticleIds(recommendCoClickedArticles(currentArticleId, publisherId, excluded,
+				limit));
+	}
+	
+	/**
+	 * Recommends the recommendable articles most often clicked together with an article, by
+	 * looking up its neighbours in the co-click model, followed by its neighbours in the item
+	 * model trained offline.
+	 * @param currentArticleId - the article, may be null
+	 * @param publisherId - the publisher to recommend articles of, null for all publishers
+	 */
+	private List<NewsArticle> recommendCoClickedArticles(Long currentArticleId,
+			Long publisherId, ExcludedArticles excluded, int k) {
+		List<NewsArticle> candidates = new ArrayList<NewsArticle>(k);
+		if (currentArticleId == null) {
+			return candidates;
+		}
+		CoClickModel model = coClicks;
+		if (model != null) {
+			addNeighbours(model.getNeighbours(currentArticleId), publisherId, excluded,
+					candidates, k);
+		}
+		ItemNeighbourModel trained = itemModel;
+		if (trained != null && candidates.size() < k) {
+			addNeighbours(trained.getNeighbours(currentArticleId), publisherId, excluded,
+					candidates, k);
+		}
+		return candidates;
+	}
+	
+	/**
+	 * Recommends the articles most similar to the article the user is viewing by their
+	 * content, as recorded in the content neighbour model, whether or not the user has a
+	 * profile. Articles the user has read or seen are not recommended.
+	 * @return the recommended articles, empty if the current article is null or has no list
+	 * @see #recommend(Long, Long, Long, int)
+	 */
+	public List<Long> recommendSimilar(Long userId, Long publisherId, Long currentArticleId,
+			int limit) {
+		ExcludedArticles excluded = getExcludedArticles(userId, currentArticleId);
+		List<NewsArticle> candidates = new ArrayList<NewsArticle>(limit);
+		addSimilarArticles(currentArticleId, publisherId, excluded, candidates, limit);
+		return getArticleIds(candidates);
+	}
+	
+	/**
+	 * Adds the recommendable articles most similar to an article to the candidates until
+	 * there are k, by looking up its list in the content neighbour model.
+	 * @param currentArticleId - the article, may be null
+	 */
+	private void addSimilarArticles(Long currentArticleId, Long publisherId,
+			ExcludedArticles excluded, List<NewsArticle> candidates, int k) {
+		ContentNeighbourModel model = contentNeighbours;
+		if (model != null && currentArticleId != null && candidates.size() < k) {
+			addNeighbours(model.getNeighbours(currentArticleId), publisherId, excluded,
+					candidates, k);
+		}
+	}
+	
+	/**
+	 * Adds the recommendable neighbours of an article to the candidates until there are k.
+	 */
+	private void addNeighbours(long[] neighbours, Long publisherId, ExcludedArticles excluded,
+			List<NewsArticle> candidates, int k) {
+		for (int i = 0; i < neighbours.length && candidates.size() < k; i++) {
+			NewsArticle article = newsArticleById.get(neighbours[i]);
+			if (article != null && article.isRecommendable()
+					&& (publisherId == null || publisherId.equals(article.getPublisherId()))
+					&& !excluded.contains(article) && !candidates.contains(article)) {
+				candidates.add(article);
+			}
+		}
+	}
+	
+	/**
+	 * Adds the most popular recommendable articles of the shards to the candidates until
+	 * there are k, taking turns between the shards since popularity is not comparable
+	 * across publishers. Fills up with the most recent recommendable articles while the
+	 * rankings are still empty.
+	 */
+	private void recommendPopularArticles(List<NewsArticle> candidates,
+			ExcludedArticles excluded, Collection<ContentShard> shards, int k) {
+		if (candidates.size() >= k) {
+			return;
+		}
+		if (shards.size() == 1) {
+			NewsArticle[] selected = new NewsArticle[k];
+			int count = shards.iterator().next().selectPopularArticles(excluded, selected);
+			for (int i = 0; i < count && candidates.size() < k; i++) {
+				if (!candidates.contains(selected[i])) {
+					candidates.add(selected[i]);
+				}
+			}
+		} else {
+			List<NewsArticle[]> rankings = new ArrayList<NewsArticle[]>();
+			List<Integer> counts = new ArrayList<Integer>();
+			for (ContentShard shard : shards) {
+				NewsArticle[] selected = new NewsArticle[k];
+				rankings.add(selected);
+				counts.add(shard.selectPopularArticles(excluded, selected));
+			}
+			for (int rank = 0; rank < k && candidates.size() < k; rank++) {
+				for (int i = 0; i < rankings.size() && candidates.size() < k; i++) {
+					if (rank < counts.get(i) && !candidates.contains(rankings.get(i)[rank])) {
+						candidates.add(rankings.get(i)[rank]);
+					}
+				}
+			}
+		}
 		
-		// do not recommend articles that the user has already read
-		for (NewsArticle article : readByActiveUser) {
-			candidates.remove(article);
+		if (candidates.size() < k) {
+			List<NewsArticle> recent = new ArrayList<NewsArticle>();
+			for (ContentShard shard : shards) {
+				recent.addAll(shard.getRecentArticles(k, excluded));
+			}
+			Collections.sort(recent, MOST_RECENT_FIRST);
+			for (int i = 0; i < recent.size() && candidates.size() < k; i++) {
+				NewsArticle article = recent.get(i);
+				if (!candidates.contains(article)) {
+					candidates.add(article);
+				}
+			}
 		}
-				
-		// sort the candidates in descending order according to average cosine similarity
-		// to articles read by user
-		Collections.sort(candidates, this);
+	}
+	
+	private List<NewsArticle> recommendKArticles(UserProfile profile, ExcludedArticles excluded,
+			Collection<ContentShard> shards, int k, ScoringDeadline deadline) {
+		// only articles sharing a term with the articles read by the user can get a rating
+		// above zero, so the candidates are taken from the inverted index of each shard.
+		// Articles that the user has already read or seen are not recommended. Every candidate
+		// is scored once by its cosine similarity to the centroid of the user, and the best k
+		// of all shards are kept.
+		List<NewsArticle> merged = new ArrayList<NewsArticle>();
+		TopKSelector selector = new TopKSelector(k);
+		NewsArticle[] selected = new NewsArticle[k];
+		float[] scores = new float[k];
+		for (ContentShard shard : shards) {
+			int count = shard.selectArticles(profile, excluded, parallelScoringThreshold,
+					deadline, selected, scores);
+			// offer the worst first, so that ties keep the order of the shard
+			for (int i = count - 1; i >= 0; i--) {
+				selector.offer(merged.size(), scores[i]);
+				merged.add(selected[i]);
+			}
+		}
+		int[] best = new int[selector.size()];
+		selector.drainTo(best, null);
 		
-		return candidates.subList(0, Math.min(candidates.size(), k));
+		List<NewsArticle> candidates = new ArrayList<NewsArticle>(k);
+		for (int index : best) {
+			candidates.add(merged.get(index));
+		}
+		addRecentArticles(candidates, excluded, shards, k);
+		return candidates;
 	}
 	
-	private double getIdf(String term) {
-		double result = 0;
-		if (words.containsKey(term)) {
-			result = Math.log((double) newsArticles.size() / words.get(term));
+	/**
+	 * Fills up the candidates with the most recent unrelated articles of the shards if too
+	 * few articles match, until there are k.
+	 */
+	private void addRecentArticles(List<NewsArticle> candidates, ExcludedArticles excluded,
+			Collection<ContentShard> shards, int k) {
+		if (candidates.size() < k) {
+			List<NewsArticle> recent = new ArrayList<NewsArticle>();
+			for (ContentShard shard : shards) {
+				recent.addAll(shard.getRecentArticles(k, excluded));
+			}
+			Collections.sort(recent, MOST_RECENT_FIRST);
+			for (int i = 0; i < recent.size() && candidates.size() < k; i++) {
+				if (!candidates.contains(recent.get(i))) {
+					candidates.add(recent.get(i));
+				}
+			}
 		}
-		return result;
 	}
 	
-	private void padFrequencyList(List<Double> frequencyList, int n) {
-		for (int i = 0; i < n; i++) {
-			frequencyList.add(0.0);
+	/**
+	 * Recommends articles for many requests at once, for replaying logs offline. The
+	 * requests of users with a profile are grouped by publisher, and the profiles of the
+	 * distinct users of a publisher are scored together in one pass over each shard, rather
+	 * than evaluating every request over the inverted index on its own. Every user gets the
+	 * best articles for the largest limit of their requests plus one, and each request
+	 * drops the article it was made on and keeps its limit, so the results are the same as
+	 * those of single requests. The other requests, and the publishers with too few users
+	 * to be worth a pass over the shard, are served one by one. The recommender is not
+	 * changed by the batch, so the requests do not see each other's recommendations.
+	 * @param requests - the requests, with user, publisher, current article and the number of
+	 * requested results
+	 * @return the IDs of the recommended articles per request, in the order of the requests
+	 */
+	public List<List<Long>> recommendAll(List<RecommenderItem> requests) {
+		List<List<Long>> results = new ArrayList<List<Long>>(requests.size());
+		// publisher -> user -> the indexes of the user's requests
+		Map<Long, Map<Long, List<Integer>>> batches =
+				new HashMap<Long, Map<Long, List<Integer>>>();
+		for (int index = 0; index < requests.size(); index++) {
+			RecommenderItem request = requests.get(index);
+			Long userId = request.getUserID();
+			results.add(null);
+			if (userId == null || userId == 0 || !profileByUser.containsKey(userId)) {
+				results.set(index, recommendOne(request));
+				continue;
+			}
+			Map<Long, List<Integer>> batch = batches.get(request.getDomainID());
+			if (batch == null) {
+				batch = new LinkedHashMap<Long, List<Integer>>();
+				batches.put(request.getDomainID(), batch);
+			}
+			List<Integer> indexes = batch.get(userId);
+			if (indexes == null) {
+				indexes = new ArrayList<Integer>();
+				batch.put(userId, indexes);
+			}
+			indexes.add(index);
 		}
+		for (Map.Entry<Long, Map<Long, List<Integer>>> batch : batches.entrySet()) {
+			if (batch.getValue().size() < MIN_BATCH_USERS) {
+				for (List<Integer> indexes : batch.getValue().values()) {
+					for (int index : indexes) {
+						results.set(index, recommendOne(requests.get(index)));
+					}
+				}
+			} else {
+				recommendAll(batch.getKey(), batch.getValue(), requests, results);
+			}
+		}
+		return results;
 	}
-
-	private List<Double> computeTermFrequencyList(NewsArticle newsArticle) {
-		List<Double> frequencies = new ArrayList<Double>();
-		for (String word : words.keySet()) {
-			double normalized = 0;
-			if (newsArticle.getKeywords().containsKey(word)) {
-				normalized = dampen(newsArticle.getKeywords().get(word)) * getIdf(word);
+	
+	/**
+	 * Serves the requests of the users of one publisher in one pass over each shard.
+	 * @param publisherId - the publisher, null for all publishers
+	 * @param batch - user -> the indexes of the user's requests
+	 */
+	private void recommendAll(Long publisherId, Map<Long, List<Integer>> batch,
+			List<RecommenderItem> requests, List<List<Long>> results) {
+		Collection<ContentShard> shards = getShards(publisherId);
+		int userCount = batch.size();
+		Long[] userIds = batch.keySet().toArray(new Long[userCount]);
+		UserProfile[] profiles = new UserProfile[userCount];
+		ExcludedArticles[] excluded = new ExcludedArticles[userCount];
+		int[] limits = new int[userCount];
+		for (int u = 0; u < userCount; u++) {
+			Long userId = userIds[u];
+			profiles[u] = profileByUser.get(userId);
+			if (profiles[u] == null) {
+				profiles[u] = UserProfile.EMPTY;
+			}
+			excluded[u] = ExcludedArticles.of(readByUser.getSortedHistory(userId), null,
+					seenFilter, userId);
+			for (int index : batch.get(userId)) {
+				limits[u] = Math.max(limits[u], getLimit(requests.get(index)) + 1);
+			}
+		}
+		
+		// the best articles per user of all shards, merged as for a single request
+		List<List<NewsArticle>> merged = new ArrayList<List<NewsArticle>>(userCount);
+		TopKSelector[] selectors = new TopKSelector[userCount];
+		NewsArticle[][] selected = new NewsArticle[userCount][];
+		float[][] scores = new float[userCount][];
+		for (int u = 0; u < userCount; u++) {
+			merged.add(new ArrayList<NewsArticle>());
+			selectors[u] = new TopKSelector(limits[u]);
+			selected[u] = new NewsArticle[limits[u]];
+			scores[u] = new float[limits[u]];
+		}
+		for (ContentShard shard : shards) {
+			int[] counts = shard.selectArticles(profiles, excluded, selected, scores);
+			for (int u = 0; u < userCount; u++) {
+				// offer the worst first, so that ties keep the order of the shard
+				for (int i = counts[u] - 1; i >= 0; i--) {
+					selectors[u].offer(merged.get(u).size(), scores[u][i]);
+					merged.get(u).add(selected[u][i]);
+				}
+			}
+		}
+		
+		for (int u = 0; u < userCount; u++) {
+			int[] best = new int[selectors[u].size()];
+			selectors[u].drainTo(best, null);
+			for (int index : batch.get(userIds[u])) {
+				RecommenderItem request = requests.get(index);
+				Long currentArticleId = request.getItemID();
+				int limit = getLimit(request);
+				List<NewsArticle> candidates = new ArrayList<NewsArticle>(limit);
+				for (int i = 0; i < best.length && candidates.size() < limit; i++) {
+					NewsArticle article = merged.get(u).get(best[i]);
+					if (!article.getId().equals(currentArticleId)) {
+						candidates.add(article);
+					}
+				}
+				addRecentArticles(candidates, ExcludedArticles.of(
+						readByUser.getSortedHistory(userIds[u]), currentArticleId, seenFilter,
+						userIds[u]), shards, limit);
+				results.set(index, getArticleIds(candidates));
 			}
-			frequencies.add(normalized);
 		}
-		return frequencies;
 	}
-
-	private double dampen(int integer) {
-		return (double) integer;
+	
+	private List<Long> recommendOne(RecommenderItem request) {
+		return recommend(request.getUserID(), request.getDomainID(), request.getItemID(),
+				getLimit(request));
 	}
-
+	
 	/**
-	 * Calculates the average similarity of an article compared to the articles read by the
-	 * current active user. This assumes that the articles read by the active user has already
-	 * been set.
-	 * @param article - article to predict a rating for
-	 * @return the predicted rating for the article
+	 * Returns the id of a user, or 0 if the user is unknown. Requests without a user id are
+	 * served like those of anonymous users.
 	 */
-	private double predictRating(NewsArticle article) {
-		double sum = 0;
-		for (NewsArticle readArticle : readByActiveUser) {
-			sum += Util.cosineSimilarity(articleTermFrequencies.get(article),
-					articleTermFrequencies.get(readArticle));
-		}
-		return sum / readByActiveUser.size();
+	private static Long getUserId(Long userId) {
+		return userId == null ? Long.valueOf(0) : userId;
 	}
 	
 	/**
-	 * Sets the articles to use for predicting ratings.
-	 * @param userId - id of the user to predict ratings for
+	 * @return the number of results a request asks for, 0 if it does not say
 	 */
-	private void setActiveUser(Long userId) {
-		readByActiveUser = readByUser.get(userId);
+	static int getLimit(RecommenderItem request) {
+		Integer limit = request.getNumberOfRequestedResults();
+		return limit == null ? 0 : limit;
 	}
 	
 	/**
@@ -306,32 +1388,196 @@ public class Recommender implements Comparator<NewsArticle> {
 		return result;
 	}
 
-	@Override
-	public int compare(NewsArticle article, NewsArticle otherArticle) {
-		double artclPredRating = predictRating(article);
-		double othArtclPredRating = predictRating(otherArticle);
-		int diff;
-		if (artclPredRating > othArtclPredRating) {
-			diff = -1; // want descending order
-		} else if (artclPredRating < othArtclPredRating) {
-			diff = 1;
-		} else {
-			diff = 0;
-		}
-		return diff;
-	}
-
 	public boolean hasArticleId(Long itemID) {
 		return newsArticleById.containsKey(itemID);
 	}
 
+	/**
+	 * Updates an article. An article that changes its publisher moves to the shard of the
+	 * new publisher. Articles are never modified, since the snapshots of the shards share
+	 * them; a changed article is replaced by a new one.
+	 */
 	public void updateExistingArticle(Long id, Long publisherId, Long categoryId, String text,
 			Boolean recommendable) {
 		NewsArticle articleToUpdate = newsArticleById.get(id);
-		articleToUpdate.setPublisherId(publisherId);
-		articleToUpdate.setCategoryId(categoryId);
-		articleToUpdate.setText(text);
-		articleToUpdate.setRecommendable(recommendable);
+		if (articleToUpdate == null) {
+			// evicted in the meantime
+			return;
+		}
+		invalidateResults(articleToUpdate.getPublisherId());
+		if (articleToUpdate.getPublisherId().equals(publisherId)) {
+			boolean changed = isChanged(articleToUpdate, categoryId, text);
+			NewsArticle updated = getShard(publisherId).update(articleToUpdate, categoryId,
+					text, recommendable);
+			newsArticleById.replace(id, articleToUpdate, updated);
+			if (changed) {
+				updateContentNeighbours(updated);
+			}
+		} else {
+			getShard(articleToUpdate.getPublisherId()).remove(articleToUpdate);
+			NewsArticle moved = new NewsArticle(id, publisherId, categoryId, text,
+					recommendable, articleToUpdate.getTimestamp());
+			getShard(publisherId).add(moved);
+			newsArticleById.replace(id, articleToUpdate, moved);
+			invalidateResults(publisherId);
+			updateContentNeighbours(moved);
+		}
+		recycleManyTermIds();
+	}
+	
+	/**
+	 * @return true if the content of an article differs from an update
+	 */
+	private static boolean isChanged(NewsArticle article, Long categoryId, String text) {
+		return !text.equals(article.getText()) || !categoryId.equals(article.getCategoryId());
+	}
+	
+	/**
+	 * Adds a new article, or updates a known one. If item updates are batched, the update is
+	 * only buffered.
+	 */
+	@Override
+	public boolean handleItemUpdate(RecommenderItem item) {
+		if (item.getItemID() == null) {
+			return false;
+		}
+		ScheduledExecutorService executor = itemUpdateExecutor;
+		if (executor == null) {
+			handleItemUpdates(Collections.singletonList(item));
+			return true;
+		}
+		synchronized (pendingItemUpdates) {
+			pendingItemUpdates.add(item);
+			if (pendingItemUpdates.size() == 1) {
+				executor.schedule(itemUpdateFlush, itemUpdateDelay, TimeUnit.MILLISECONDS);
+			} else if (pendingItemUpdates.size() == itemUpdateBatchSize) {
+				executor.execute(itemUpdateFlush);
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * Adds new articles and updates known ones. Only the last update of an item counts. The
+	 * new articles of a publisher are added to its shard at once, and so are the updates of
+	 * the articles that stay with their publisher.
+	 * @param items - the item updates, in the order they were received
+	 */
+	public void handleItemUpdates(Collection<RecommenderItem> items) {
+		Map<Long, RecommenderItem> latest = new LinkedHashMap<Long, RecommenderItem>();
+		for (RecommenderItem item : items) {
+			if (item.getItemID() != null) {
+				// the last update of an item takes the place of the earlier ones
+				latest.remove(item.getItemID());
+				latest.put(item.getItemID(), item);
+			}
+		}
+		Map<Long, List<NewsArticle>> addedByPublisher =
+				new LinkedHashMap<Long, List<NewsArticle>>();
+		Map<Long, List<NewsArticle>> updatedByPublisher =
+				new LinkedHashMap<Long, List<NewsArticle>>();
+		for (RecommenderItem item : latest.values()) {
+			Long publisherId = item.getDomainID();
+			NewsArticle article = newsArticleById.get(item.getItemID());
+			if (article == null) {
+				Long timeStamp = item.getTimeStamp();
+				getList(addedByPublisher, publisherId).add(new NewsArticle(item.getItemID(),
+						publisherId, item.getCategoryId(), getText(item), item.getRecommendable(),
+						timeStamp == null ? System.currentTimeMillis() : timeStamp));
+			} else if (article.getPublisherId().equals(publisherId)) {
+				getList(updatedByPublisher, publisherId).add(article);
+			} else {
+				updateExistingArticle(item.getItemID(), publisherId, item.getCategoryId(),
+						getText(item), item.getRecommendable());
+			}
+		}
+		
+		for (Map.Entry<Long, List<NewsArticle>> entry : addedByPublisher.entrySet()) {
+			getShard(entry.getKey()).addAll(entry.getValue());
+			for (NewsArticle article : entry.getValue()) {
+				newsArticleById.put(article.getId(), article);
+				recordChange(entry.getKey());
+			}
+			// the new articles are scored once all of them are in the shard, so they find
+			// each other
+			for (NewsArticle article : entry.getValue()) {
+				updateContentNeighbours(article);
+			}
+		}
+		for (Map.Entry<Long, List<NewsArticle>> entry : updatedByPublisher.entrySet()) {
+			NewsArticle[] articles = entry.getValue().toArray(new NewsArticle[0]);
+			Long[] categoryIds = new Long[articles.length];
+			String[] texts = new String[articles.length];
+			Boolean[] recommendable = new Boolean[articles.length];
+			boolean[] changed = new boolean[articles.length];
+			for (int i = 0; i < articles.length; i++) {
+				RecommenderItem item = latest.get(articles[i].getId());
+				categoryIds[i] = item.getCategoryId();
+				texts[i] = getText(item);
+				recommendable[i] = item.getRecommendable();
+				changed[i] = isChanged(articles[i], categoryIds[i], texts[i]);
+			}
+			invalidateResults(entry.getKey());
+			NewsArticle[] updated = getShard(entry.getKey()).updateAll(articles, categoryIds,
+					texts, recommendable);
+			for (int i = 0; i < articles.length; i++) {
+				newsArticleById.replace(articles[i].getId(), articles[i], updated[i]);
+			}
+			for (int i = 0; i < articles.length; i++) {
+				if (changed[i]) {
+					updateContentNeighbours(updated[i]);
+				}
+			}
+		}
+		recycleManyTermIds();
+	}
+	
+	private static String getText(RecommenderItem item) {
+		return item.getTitle() + " " + item.getText() + " " + item.getKicker();
+	}
+	
+	private static <T> List<T> getList(Map<Long, List<T>> listByKey, Long key) {
+		List<T> list = listByKey.get(key);
+		if (list == null) {
+			list = new ArrayList<T>();
+			listByKey.put(key, list);
+		}
+		return list;
+	}
+	
+	@Override
+	public List<Long> recommend(RecommenderItem request) {
+		return recommend(request.getUserID(), request.getDomainID(), request.getItemID(),
+				getLimit(request));
+	}
+	
+	@Override
+	public void handleRecommended(RecommenderItem request, List<Long> itemIds) {
+		Long timeStamp = request.getTimeStamp();
+		articlesRecommended(request.getUserID(), itemIds,
+				timeStamp == null ? System.currentTimeMillis() : timeStamp);
+	}
+	
+	@Override
+	public void handleImpression(RecommenderItem item) {
+		if (item.getItemID() != null) {
+			Long timeStamp = item.getTimeStamp();
+			articleViewed(item.getUserID(), item.getItemID(),
+					timeStamp == null ? System.currentTimeMillis() : timeStamp);
+		}
+	}
+	
+	/**
+	 * Registers that the user read the clicked recommendation.
+	 */
+	@Override
+	public void handleClick(RecommenderItem item) {
+		List<Long> clicked = item.getListOfDisplayedRecs();
+		if (item.getUserID() != null && clicked != null && !clicked.isEmpty()) {
+			Long timeStamp = item.getTimeStamp();
+			userReadArticle(item.getUserID(), clicked.get(0),
+					timeStamp == null ? System.currentTimeMillis() : timeStamp);
+		}
 	}
 
 }
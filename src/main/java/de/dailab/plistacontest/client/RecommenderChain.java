@@ -0,0 +1,200 @@
+package de.dailab.plistacontest.client;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Serves every request within a deadline by asking a chain of recommenders in turn. All
+ * stages but the last run on a worker thread and get the time left until the deadline;
+ * a stage that does not answer in time, fails or returns nothing is skipped. The last
+ * stage is the fallback: it runs on the calling thread without deadline, so it has to be
+ * fast, like the recency table. The contest server times out slow responses, so a
+ * fallback answer is better than a good late one.
+ *
+ * Every message is forwarded to all stages, so the fallback stays up to date. The chain
+ * counts the requests, timeouts and failures of each stage.
+ */
+public class RecommenderChain implements ContestRecommender {
+
+	private static final Logger logger = LoggerFactory.getLogger(RecommenderChain.class);
+
+	/**
+	 * The number of requests between two logs of the statistics.
+	 */
+	private static final int LOG_INTERVAL = 10000;
+
+	private final ContestRecommender[] stages;
+
+	/**
+	 * The time budget of a request in nanoseconds.
+	 */
+	private final long deadline;
+
+	private final ExecutorService workers;
+
+	private final AtomicLongArray requests;
+	private final AtomicLongArray timeouts;
+	private final AtomicLongArray failures;
+
+	/**
+	 * @param deadline - the time budget of a request in milliseconds
+	 * @param workerCount - the number of threads running the stages before the last
+	 * @param stages - the recommenders, the last one is the fallback
+	 */
+	public RecommenderChain(long deadline, int workerCount, ContestRecommender... stages) {
+		if (deadline < 1 || workerCount < 1 || stages.length == 0) {
+			throw new IllegalArgumentException("Invalid chain configuration: deadline "
+					+ deadline + ", " + workerCount + " workers, " + stages.length + " stages");
+		}
+		this.deadline = TimeUnit.MILLISECONDS.toNanos(deadline);
+		this.stages = stages.clone();
+		requests = new AtomicLongArray(stages.length);
+		timeouts = new AtomicLongArray(stages.length);
+		failures = new AtomicLongArray(stages.length);
+		workers = Executors.newFixedThreadPool(workerCount, new ThreadFactory() {
+			private final AtomicInteger count = new AtomicInteger();
+
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "recommender-" + count.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	@Override
+	public List<Long> recommend(final RecommenderItem request) {
+		long end = System.nanoTime() + deadline;
+		int last = stages.length - 1;
+		for (int i = 0; i < last; i++) {
+			long count = requests.incrementAndGet(i);
+			if (i == 0 && count % LOG_INTERVAL == 0) {
+				logger.info("Recommender chain: {}", this);
+			}
+			final ContestRecommender stage = stages[i];
+			Future<List<Long>> future;
+			try {
+				future = workers.submit(new Callable<List<Long>>() {
+					@Override
+					public List<Long> call() {
+						return stage.recommend(request);
+					}
+				});
+			} catch (RejectedExecutionException e) {
+				// shut down
+				break;
+			}
+			try {
+				List<Long> result = future.get(end - System.nanoTime(), TimeUnit.NANOSECONDS);
+				if (result != null && !result.isEmpty()) {
+					return result;
+				}
+			} catch (TimeoutException e) {
+				// a queued request is dropped, a running one is left to finish
+				future.cancel(false);
+				timeouts.incrementAndGet(i);
+				logger.debug("Stage {} timed out", i);
+			} catch (ExecutionException e) {
+				failures.incrementAndGet(i);
+				logger.error("Stage " + i + " failed", e.getCause());
+			} catch (InterruptedException e) {
+				future.cancel(false);
+				Thread.currentThread().interrupt();
+				break;
+			}
+		}
+		requests.incrementAndGet(last);
+		try {
+			return stages[last].recommend(request);
+		} catch (RuntimeException e) {
+			failures.incrementAndGet(last);
+			throw e;
+		}
+	}
+
+	@Override
+	public boolean handleItemUpdate(RecommenderItem item) {
+		boolean handled = false;
+		for (ContestRecommender stage : stages) {
+			handled |= stage.handleItemUpdate(item);
+		}
+		return handled;
+	}
+
+	@Override
+	public void handleRecommended(RecommenderItem request, List<Long> itemIds) {
+		for (ContestRecommender stage : stages) {
+			stage.handleRecommended(request, itemIds);
+		}
+	}
+
+	@Override
+	public void handleImpression(RecommenderItem item) {
+		for (ContestRecommender stage : stages) {
+			stage.handleImpression(item);
+		}
+	}
+
+	@Override
+	public void handleClick(RecommenderItem item) {
+		for (ContestRecommender stage : stages) {
+			stage.handleClick(item);
+		}
+	}
+
+	/**
+	 * @return the number of requests that reached a stage
+	 */
+	public long getRequestCount(int stage) {
+		return requests.get(stage);
+	}
+
+	/**
+	 * @return the number of requests a stage did not answer in time
+	 */
+	public long getTimeoutCount(int stage) {
+		return timeouts.get(stage);
+	}
+
+	/**
+	 * @return the number of requests a stage failed on
+	 */
+	public long getFailureCount(int stage) {
+		return failures.get(stage);
+	}
+
+	/**
+	 * Stops the worker threads. Requests are served by the fallback afterwards.
+	 */
+	public void shutdown() {
+		workers.shutdownNow();
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder builder = new StringBuilder("[RecommenderChain deadline=");
+		builder.append(TimeUnit.NANOSECONDS.toMillis(deadline)).append("ms");
+		for (int i = 0; i < stages.length; i++) {
+			builder.append(", ").append(stages[i].getClass().getSimpleName());
+			builder.append(" requests=").append(requests.get(i));
+			builder.append(" timeouts=").append(timeouts.get(i));
+			builder.append(" failures=").append(failures.get(i));
+		}
+		return builder.append("]").toString();
+	}
+
+}
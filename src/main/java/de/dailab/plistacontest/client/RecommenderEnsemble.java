@@ -0,0 +1,305 @@
+package de.dailab.plistacontest.client;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs several recommenders side by side and merges their results. A request is handed to
+ * all members at once on worker threads, and the results that arrive within the deadline
+ * are merged, so the latency of a request is that of the slowest member at most, not the
+ * sum of all. A slow or failing member is left out of the merge and the others are served.
+ *
+ * The results are ranked lists without comparable scores, so they are merged by rank:
+ * either weighted, scoring an item by the sum of the weight of each member divided by the
+ * rank of the item in its list, or interleaved, letting the members take turns in
+ * proportion to their weights. Messages are forwarded to every member.
+ */
+public class RecommenderEnsemble implements ContestRecommender {
+
+	public enum Merge {
+		WEIGHTED, INTERLEAVED
+	}
+
+	private static final Logger logger = LoggerFactory.getLogger(RecommenderEnsemble.class);
+
+	/**
+	 * The number of requests between two logs of the statistics.
+	 */
+	private static final int LOG_INTERVAL = 10000;
+
+	private final ContestRecommender[] members;
+	private final double[] weights;
+	private final Merge merge;
+
+	/**
+	 * The time budget of a request in nanoseconds.
+	 */
+	private final long deadline;
+
+	private final ExecutorService workers;
+
+	private final AtomicLong requests = new AtomicLong();
+	private final AtomicLong partialResults = new AtomicLong();
+	private final AtomicLongArray timeouts;
+	private final AtomicLongArray failures;
+
+	/**
+	 * @param deadline - the time budget of a request in milliseconds
+	 * @param workerCount - the number of threads running the members
+	 * @param merge - how the results are merged
+	 * @param members - the recommenders
+	 * @param weights - the weights of the recommenders, positive
+	 */
+	public RecommenderEnsemble(long deadline, int workerCount, Merge merge,
+			ContestRecommender[] members, double[] weights) {
+		if (deadline < 1 || workerCount < 1 || members.length == 0
+				|| members.length != weights.length) {
+			throw new IllegalArgumentException("Invalid ensemble configuration: deadline "
+					+ deadline + ", " + workerCount + " workers, " + members.length + " members, "
+					+ weights.length + " weights");
+		}
+		for (double weight : weights) {
+			if (!(weight > 0)) {
+				throw new IllegalArgumentException("Invalid ensemble weight " + weight);
+			}
+		}
+		this.deadline = TimeUnit.MILLISECONDS.toNanos(deadline);
+		this.merge = merge;
+		this.members = members.clone();
+		this.weights = weights.clone();
+		timeouts = new AtomicLongArray(members.length);
+		failures = new AtomicLongArray(members.length);
+		workers = Executors.newFixedThreadPool(workerCount, new ThreadFactory() {
+			private final AtomicInteger count = new AtomicInteger();
+
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "ensemble-" + count.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	@Override
+	public List<Long> recommend(final RecommenderItem request) {
+		long end = System.nanoTime() + deadline;
+		if (requests.incrementAndGet() % LOG_INTERVAL == 0) {
+			logger.info("Recommender ensemble: {}", this);
+		}
+		List<Future<List<Long>>> futures = new ArrayList<Future<List<Long>>>(members.length);
+		for (final ContestRecommender member : members) {
+			try {
+				futures.add(workers.submit(new Callable<List<Long>>() {
+					@Override
+					public List<Long> call() {
+						return member.recommend(request);
+					}
+				}));
+			} catch (RejectedExecutionException e) {
+				// shut down
+				futures.add(null);
+			}
+		}
+
+		// wait for the members until the deadline, whichever finishes first
+		List<List<Long>> results = new ArrayList<List<Long>>(members.length);
+		boolean partial = false;
+		for (int i = 0; i < members.length; i++) {
+			Future<List<Long>> future = futures.get(i);
+			List<Long> result = null;
+			if (future != null) {
+				try {
+					result = future.get(Math.max(0, end - System.nanoTime()),
+							TimeUnit.NANOSECONDS);
+				} catch (TimeoutException e) {
+					future.cancel(false);
+					timeouts.incrementAndGet(i);
+				} catch (ExecutionException e) {
+					failures.incrementAndGet(i);
+					logger.error("Member " + i + " failed", e.getCause());
+				} catch (InterruptedException e) {
+					future.cancel(false);
+					Thread.currentThread().interrupt();
+				}
+			}
+			partial |= result == null;
+			results.add(result);
+		}
+		if (partial) {
+			partialResults.incrementAndGet();
+		}
+		Integer limit = request.getNumberOfRequestedResults();
+		int k = limit == null ? 0 : limit;
+		return merge == Merge.WEIGHTED ? mergeWeighted(results, k) : interleave(results, k);
+	}
+
+	/**
+	 * Scores every item by the sum of weight / rank over the results it is part of, and
+	 * returns the k best. Ties are broken in favour of the item seen first.
+	 */
+	private List<Long> mergeWeighted(List<List<Long>> results, int k) {
+		Map<Long, Double> scores = new LinkedHashMap<Long, Double>();
+		for (int i = 0; i < results.size(); i++) {
+			List<Long> result = results.get(i);
+			for (int rank = 0; result != null && rank < result.size(); rank++) {
+				Long id = result.get(rank);
+				Double score = scores.get(id);
+				double added = weights[i] / (rank + 1);
+				scores.put(id, score == null ? added : score + added);
+			}
+		}
+		List<Long> merged = new ArrayList<Long>(k);
+		while (merged.size() < k && !scores.isEmpty()) {
+			// k is small, so the best is selected k times rather than sorting all items
+			Long best = null;
+			double bestScore = Double.NEGATIVE_INFINITY;
+			for (Map.Entry<Long, Double> entry : scores.entrySet()) {
+				if (entry.getValue() > bestScore) {
+					best = entry.getKey();
+					bestScore = entry.getValue();
+				}
+			}
+			scores.remove(best);
+			merged.add(best);
+		}
+		return merged;
+	}
+
+	/**
+	 * Lets the members take turns by smooth weighted round robin: before every turn each
+	 * member earns its weight, the member with the most credit takes its next item not
+	 * taken yet and pays the sum of the weights.
+	 */
+	private List<Long> interleave(List<List<Long>> results, int k) {
+		List<Long> merged = new ArrayList<Long>(k);
+		int[] positions = new int[results.size()];
+		double[] credits = new double[results.size()];
+		double total = 0;
+		for (int i = 0; i < results.size(); i++) {
+			if (results.get(i) != null) {
+				total += weights[i];
+			}
+		}
+		while (merged.size() < k) {
+			int next = -1;
+			for (int i = 0; i < results.size(); i++) {
+				List<Long> result = results.get(i);
+				if (result == null) {
+					continue;
+				}
+				while (positions[i] < result.size() && merged.contains(result.get(positions[i]))) {
+					positions[i]++;
+				}
+				if (positions[i] < result.size()) {
+					credits[i] += weights[i];
+					if (next < 0 || credits[i] > credits[next]) {
+						next = i;
+					}
+				}
+			}
+			if (next < 0) {
+				break;
+			}
+			merged.add(results.get(next).get(positions[next]++));
+			credits[next] -= total;
+		}
+		return merged;
+	}
+
+	@Override
+	public boolean handleItemUpdate(RecommenderItem item) {
+		boolean handled = false;
+		for (ContestRecommender member : members) {
+			handled |= member.handleItemUpdate(item);
+		}
+		return handled;
+	}
+
+	@Override
+	public void handleRecommended(RecommenderItem request, List<Long> itemIds) {
+		for (ContestRecommender member : members) {
+			member.handleRecommended(request, itemIds);
+		}
+	}
+
+	@Override
+	public void handleImpression(RecommenderItem item) {
+		for (ContestRecommender member : members) {
+			member.handleImpression(item);
+		}
+	}
+
+	@Override
+	public void handleClick(RecommenderItem item) {
+		for (ContestRecommender member : members) {
+			member.handleClick(item);
+		}
+	}
+
+	public long getRequestCount() {
+		return requests.get();
+	}
+
+	/**
+	 * @return the number of requests served without the result of at least one member
+	 */
+	public long getPartialResultCount() {
+		return partialResults.get();
+	}
+
+	/**
+	 * @return the number of requests a member did not answer in time
+	 */
+	public long getTimeoutCount(int member) {
+		return timeouts.get(member);
+	}
+
+	/**
+	 * @return the number of requests a member failed on
+	 */
+	public long getFailureCount(int member) {
+		return failures.get(member);
+	}
+
+	/**
+	 * Stops the worker threads. Requests are answered with empty results afterwards.
+	 */
+	public void shutdown() {
+		workers.shutdownNow();
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder builder = new StringBuilder("[RecommenderEnsemble merge=");
+		builder.append(merge).append(", deadline=");
+		builder.append(TimeUnit.NANOSECONDS.toMillis(deadline)).append("ms");
+		builder.append(", requests=").append(requests.get());
+		builder.append(", partial=").append(partialResults.get());
+		for (int i = 0; i < members.length; i++) {
+			builder.append(", ").append(members[i].getClass().getSimpleName());
+			builder.append(" weight=").append(weights[i]);
+			builder.append(" timeouts=").append(timeouts.get(i));
+			builder.append(" failures=").append(failures.get(i));
+		}
+		return builder.append("]").toString();
+	}
+
+}
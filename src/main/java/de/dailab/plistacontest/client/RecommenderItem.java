@@ -115,6 +115,16 @@ public class RecommenderItem {
 		return (Long) valuesByID.get(USER_ID);
 	}
 
+	/**
+	 * Setter for userID. (convenience)
+	 * 
+	 * @param _userID
+	 *            the userID
+	 */
+	public void setUserID(final Long _userID) {
+		valuesByID.put(USER_ID, _userID);
+	}
+
 	/**
 	 * Getter for itemID. (convenience)
 	 * 
@@ -26,7 +26,7 @@ import java.util.Set;
 /**
 * This class stores a list of items that can be recommended.
  */
-public class RecommenderItemTable {
+public class RecommenderItemTable implements ContestRecommender {
 
 	/**
 	 * We create a data structure providing a fixed size array/ring buffer for all relevant domains (news portals)
@@ -34,33 +34,72 @@ public class RecommenderItemTable {
 	 */
 	private DirtyRingBuffer<String, Long> table = new DirtyRingBuffer<String, Long>(100);
 
+	/**
+	 * Recent results of getLastItems, null if results are not cached.
+	 */
+	private volatile RecommendationCache cache;
+
+	/**
+	 * The recommender knowing what the users have read and have been shown, null if the table is used on its own.
+	 */
+	private volatile Recommender recommender;
+
+	/**
+	 * Set the cache of the results of getLastItems; every item update counts as a change of its domain.
+	 * @param _cache the cache, null to not cache results
+	 */
+	public void setCache(final RecommendationCache _cache) {
+		this.cache = _cache;
+	}
+
+	/**
+	 * Set the recommender whose user histories and seen filter exclude items, like in the recommender itself,
+	 * so that a user does not get items again when the table serves as its fallback.
+	 * @param _recommender the recommender, null to only exclude the item of the request
+	 */
+	public void setRecommender(final Recommender _recommender) {
+		this.recommender = _recommender;
+	}
+
 	/**
 	 * Handle the item update; put the itemID in the buffer for the correct domain.
 	 * @param _item
 	 * @return
 	 */
+	@Override
 	public boolean handleItemUpdate(final RecommenderItem _item) {
 		
-		// check the item
-		if (_item == null || _item.getItemID() == null || _item.getItemID() == 0L || _item.getDomainID() == null) {
+		// check the item; items that must not be recommended are ignored
+		if (_item == null || _item.getItemID() == null || _item.getItemID() == 0L || _item.getDomainID() == null
+				|| Boolean.FALSE.equals(_item.getRecommendable())) {
 			return false;
 		}
 		
 		// add the item to the table
 		table.addValueByKey(_item.getDomainID() + "", _item.getItemID());
+		RecommendationCache currentCache = cache;
+		if (currentCache != null) {
+			currentCache.recordChange(_item.getDomainID());
+		}
 		return true;
 	}
 
 	/**
 	 * Return something from the buffer (the most recently inserted items have a higher priority to be chosen).
 	 * @param _currentRequest, the itemID, the domainID, an the numberOfRequestedResults are extracted and analyzed  
-	 * @return a list of items. The itemID present in the request and itemID=0 will not be contained in the result. 
+	 * @return a list of items. The itemID present in the request and itemID=0 will not be contained in the result,
+	 * nor the items the user has read or has been shown if a recommender is set. 
 	 */
 	public List<Long> getLastItems(final RecommenderItem _currentRequest) {
 
 		Integer numberOfRequestedResults = _currentRequest.getNumberOfRequestedResults();
 		Long itemID = _currentRequest.getItemID();
 		Long domainID = _currentRequest.getDomainID();
+		Long userID = _currentRequest.getUserID();
+		
+		// known users get their own results, anonymous users share them
+		Recommender currentRecommender = recommender;
+		boolean personal = currentRecommender != null && userID != null && userID != 0L;
 
 		
 		// handle invalid values
@@ -68,17 +107,76 @@ public class RecommenderItemTable {
 			return new ArrayList<Long>(0);
 		}
 		
+		// serve a recent result for the same item, if there is one
+		RecommendationCache currentCache = personal ? null : cache;
+		long changes = 0;
+		if (currentCache != null) {
+			List<Long> cached = currentCache.get(domainID, itemID, numberOfRequestedResults.intValue());
+			if (cached != null) {
+				return new ArrayList<Long>(cached);
+			}
+			changes = currentCache.getChanges(domainID);
+		}
+		
 		// create a set of blacklisted items
-		Set<Long> blackListedIDs = new HashSet<Long>();
+		final Set<Long> blackListedIDs = new HashSet<Long>();
 		blackListedIDs.add(0L);
 		blackListedIDs.add(itemID);
 		
 		// get the suggestions, considering the domainID and the blacklist
-		Set<Long> result = table.getValuesByKey(domainID+"", numberOfRequestedResults.intValue(), blackListedIDs);
+		Set<Long> result;
+		if (personal) {
+			// the items a known user has seen are only known to the recommender
+			final ExcludedArticles excluded = currentRecommender.getExcludedArticles(userID, itemID);
+			result = table.getValuesByKey(domainID + "", numberOfRequestedResults.intValue(),
+					new DirtyRingBuffer.Exclusion<Long>() {
+						@Override
+						public boolean isExcluded(final Long _id) {
+							return blackListedIDs.contains(_id) || excluded.contains(_id);
+						}
+					});
+		} else {
+			result = table.getValuesByKey(domainID+"", numberOfRequestedResults.intValue(), blackListedIDs);
+		}
 		
 		// copy the results to a new list and return
 		List<Long> returnResult = new ArrayList<Long>();
 		returnResult.addAll(result);
+		if (currentCache != null) {
+			currentCache.put(domainID, itemID, numberOfRequestedResults.intValue(), changes,
+					new ArrayList<Long>(returnResult));
+		}
 		return returnResult;
 	}
+
+	/**
+	 * Recommend the most recently inserted items.
+	 * @see #getLastItems(RecommenderItem)
+	 */
+	@Override
+	public List<Long> recommend(final RecommenderItem _request) {
+		return getLastItems(_request);
+	}
+
+	/**
+	 * The table does not track what was recommended.
+	 */
+	@Override
+	public void handleRecommended(final RecommenderItem _request, final List<Long> _itemIDs) {
+	}
+
+	/**
+	 * An impression puts the viewed item in the table.
+	 */
+	@Override
+	public void handleImpression(final RecommenderItem _item) {
+		handleItemUpdate(_item);
+	}
+
+	/**
+	 * The table does not track clicks.
+	 */
+	@Override
+	public void handleClick(final RecommenderItem _item) {
+	}
 }
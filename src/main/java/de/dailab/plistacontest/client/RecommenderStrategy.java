@@ -0,0 +1,110 @@
+package de.dailab.plistacontest.client;
+
+import java.util.List;
+
+/**
+ * One of the strategies of a Recommender on its own, for running it side by side with
+ * other strategies in a RecommenderEnsemble. Several strategies share one recommender, which
+ * has to see every message of the contest server exactly once: either the recommender
+ * itself is another member of the ensemble, or exactly one of the strategies feeds it.
+ */
+public class RecommenderStrategy implements ContestRecommender {
+
+	public enum Kind {
+		/**
+		 * The most popular articles of the publisher.
+		 */
+		POPULARITY,
+		/**
+		 * The articles clicked together with the viewed article.
+		 */
+		CO_CLICKS,
+		/**
+		 * The articles most similar to the viewed article by their content.
+		 */
+		SIMILAR
+	}
+
+	private final Recommender recommender;
+	private final Kind kind;
+
+	/**
+	 * Whether the messages are passed on to the recommender.
+	 */
+	private final boolean feeding;
+
+	/**
+	 * Creates a strategy that only recommends.
+	 */
+	public RecommenderStrategy(Recommender recommender, Kind kind) {
+		this(recommender, kind, false);
+	}
+
+	/**
+	 * @param recommender - the recommender providing the strategy
+	 * @param kind - the strategy
+	 * @param feeding - whether to pass the messages on to the recommender
+	 */
+	public RecommenderStrategy(Recommender recommender, Kind kind, boolean feeding) {
+		this.recommender = recommender;
+		this.kind = kind;
+		this.feeding = feeding;
+	}
+
+	public Kind getKind() {
+		return kind;
+	}
+
+	@Override
+	public List<Long> recommend(RecommenderItem request) {
+		switch (kind) {
+		case POPULARITY:
+			return recommender.recommendPopular(request.getUserID(), request.getDomainID(),
+					request.getItemID(), Recommender.getLimit(request));
+		case CO_CLICKS:
+			return recommender.recommendCoClicked(request.getUserID(), request.getDomainID(),
+					request.getItemID(), Recommender.getLimit(request));
+		case SIMILAR:
+			return recommender.recommendSimilar(request.getUserID(), request.getDomainID(),
+					request.getItemID(), Recommender.getLimit(request));
+		default:
+			throw new IllegalStateException("Unknown strategy " + kind);
+		}
+	}
+
+	public boolean isFeeding() {
+		return feeding;
+	}
+
+	@Override
+	public boolean handleItemUpdate(RecommenderItem item) {
+		return feeding && recommender.handleItemUpdate(item);
+	}
+
+	@Override
+	public void handleRecommended(RecommenderItem request, List<Long> itemIds) {
+		if (feeding) {
+			recommender.handleRecommended(request, itemIds);
+		}
+	}
+
+	@Override
+	public void handleImpression(RecommenderItem item) {
+		if (feeding) {
+			recommender.handleImpression(item);
+		}
+	}
+
+	@Override
+	public void handleClick(RecommenderItem item) {
+		if (feeding) {
+			recommender.handleClick(item);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "[RecommenderStrategy " + kind + (feeding ? ", feeding" : "") + "]";
+	}
+
+}
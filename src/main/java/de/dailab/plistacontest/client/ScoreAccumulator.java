@@ -0,0 +1,192 @@
+package de.dailab.plistacontest.client;
+
+import java.util.Arrays;
+
+/**
+ * Score accumulators for term-at-a-time evaluation of a query over the inverted index.
+ * The accumulators are dense arrays indexed by article ordinal that are reused between
+ * queries. An entry is only valid if it was touched by the current query, so starting a new
+ * query does not clear the arrays and a query costs O(matching postings) rather than
+ * O(articles). Instances are not thread safe; use one per thread.
+ *
+ * A query may track its k best scores in a heap as the scores grow, so the k-th best score
+ * is known after every posting without scanning the accumulators. An article stays in the
+ * heap with the score it had when it entered; since scores only grow, the heap scores are
+ * lower bounds, and the worst one is brought up to date before it is compared.
+ */
+public class ScoreAccumulator {
+
+	private float[] scores = new float[1024];
+
+	/**
+	 * Per-article factor applied to every contribution, typically the inverse norm of the
+	 * article's TF-IDF vector.
+	 */
+	private float[] factors = new float[1024];
+
+	/**
+	 * Article ordinal -> the query that last touched the entry.
+	 */
+	private int[] stamps = new int[1024];
+
+	/**
+	 * Ordinals of the entries touched by the current query, in the order they were created.
+	 */
+	private int[] touched = new int[256];
+	private int size;
+
+	/**
+	 * Article ordinal -> the query whose top k heap holds the article.
+	 */
+	private int[] topStamps = new int[1024];
+
+	private int stamp;
+
+	/**
+	 * The best scores of the current query, with a capacity of 0 if they are not tracked.
+	 */
+	private TopKSelector top = new TopKSelector(0);
+
+	/**
+	 * Starts a new query that does not track its best scores.
+	 * @param capacity - the number of article ordinals in use
+	 */
+	public void reset(int capacity) {
+		reset(capacity, 0);
+	}
+
+	/**
+	 * Starts a new query.
+	 * @param capacity - the number of article ordinals in use
+	 * @param k - the number of best scores to track, 0 for none
+	 */
+	public void reset(int capacity, int k) {
+		if (capacity > scores.length) {
+			int newCapacity = Math.max(capacity, 2 * scores.length);
+			scores = Arrays.copyOf(scores, newCapacity);
+			factors = Arrays.copyOf(factors, newCapacity);
+			stamps = Arrays.copyOf(stamps, newCapacity);
+			topStamps = Arrays.copyOf(topStamps, newCapacity);
+		}
+		size = 0;
+		if (top.getCapacity() == k) {
+			top.clear();
+		} else {
+			top = new TopKSelector(k);
+		}
+		if (++stamp == Integer.MAX_VALUE) {
+			Arrays.fill(stamps, 0);
+			Arrays.fill(topStamps, 0);
+			stamp = 1;
+		}
+	}
+
+	public boolean contains(int article) {
+		return stamps[article] == stamp;
+	}
+
+	/**
+	 * Creates the accumulator of an article.
+	 * @param article - ordinal of the article
+	 * @param factor - factor applied to the contributions added for the article
+	 */
+	public void create(int article, float factor) {
+		create(article, factor, 0f);
+	}
+
+	/**
+	 * Creates an accumulator for an article that must not be recommended, so that the
+	 * article is recognized and skipped for the rest of the query. Its score stays at
+	 * Float.NEGATIVE_INFINITY.
+	 * @param article - ordinal of the article
+	 */
+	public void exclude(int article) {
+		create(article, 0f, Float.NEGATIVE_INFINITY);
+	}
+
+	private void create(int article, float factor, float score) {
+		stamps[article] = stamp;
+		factors[article] = factor;
+		scores[article] = score;
+		if (size == touched.length) {
+			touched = Arrays.copyOf(touched, 2 * size);
+		}
+		touched[size++] = article;
+	}
+
+	/**
+	 * Adds a contribution, scaled by the article's factor, to an existing accumulator.
+	 */
+	public void add(int article, float contribution) {
+		float score = scores[article] + contribution * factors[article];
+		scores[article] = score;
+		if (top.getCapacity() > 0 && topStamps[article] != stamp
+				&& score != Float.NEGATIVE_INFINITY) {
+			offerTop(article, score);
+		}
+	}
+
+	/**
+	 * Offers an article that is not in the heap of the best scores.
+	 */
+	private void offerTop(int article, float score) {
+		if (top.isFull()) {
+			if (score < top.getThreshold()) {
+				return;
+			}
+			refreshWorst();
+			int worst = top.getWorstItem();
+			if (top.offer(article, score)) {
+				topStamps[worst] = 0;
+				topStamps[article] = stamp;
+			}
+		} else {
+			top.offer(article, score);
+			topStamps[article] = stamp;
+		}
+	}
+
+	/**
+	 * Brings the worst score in the heap up to date, until the worst article in the heap
+	 * has the score it has now.
+	 */
+	private void refreshWorst() {
+		while (scores[top.getWorstItem()] > top.getThreshold()) {
+			top.raiseWorstScore(scores[top.getWorstItem()]);
+		}
+	}
+
+	public float getScore(int article) {
+		return scores[article];
+	}
+
+	/**
+	 * @return the number of accumulators created by the current query
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return the ordinal of the i-th accumulator created by the current query
+	 */
+	public int getArticle(int index) {
+		return touched[index];
+	}
+
+	/**
+	 * Returns the k-th largest score of the current query, for the k given to reset. Since
+	 * scores only grow while a query is evaluated, this is a lower bound for the final k-th
+	 * best score.
+	 * @return the k-th largest score, or Float.NEGATIVE_INFINITY if fewer than k eligible
+	 * accumulators have a score
+	 */
+	public float getThreshold() {
+		if (!top.isFull() || top.size() == 0) {
+			return Float.NEGATIVE_INFINITY;
+		}
+		refreshWorst();
+		return top.getThreshold();
+	}
+
+}
@@ -0,0 +1,75 @@
+package de.dailab.plistacontest.client;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The time by which the scoring of a request has to finish. The scoring loops check it
+ * cooperatively between terms, buckets and every few thousand postings, and when it has
+ * passed they stop and return the best articles found so far. The deadline then records
+ * that the result of the request is partial. One instance serves one request, and may be
+ * checked by the threads scoring it in parallel.
+ */
+public class ScoringDeadline {
+
+	/**
+	 * A deadline that never passes, for scoring without time limit.
+	 */
+	public static final ScoringDeadline NONE = new ScoringDeadline(Long.MAX_VALUE);
+
+	/**
+	 * The number of postings between two checks within a posting list.
+	 */
+	static final int CHECK_INTERVAL = 4096;
+
+	private final boolean unlimited;
+
+	/**
+	 * The end of the budget in System.nanoTime.
+	 */
+	private final long end;
+
+	private volatile boolean passed;
+
+	/**
+	 * @param budget - the time the scoring may take from now on, in nanoseconds;
+	 * Long.MAX_VALUE for no limit
+	 */
+	public ScoringDeadline(long budget) {
+		this.unlimited = budget == Long.MAX_VALUE;
+		this.end = unlimited ? 0 : System.nanoTime() + budget;
+	}
+
+	/**
+	 * Creates a deadline a number of milliseconds from now.
+	 * @param budget - the time budget in milliseconds, 0 for no limit
+	 */
+	public static ScoringDeadline inMillis(long budget) {
+		return budget <= 0 ? NONE : new ScoringDeadline(TimeUnit.MILLISECONDS.toNanos(budget));
+	}
+
+	/**
+	 * Checks whether the deadline has passed, and if so marks the result as partial.
+	 * @return true if the scoring has to stop
+	 */
+	public boolean hasPassed() {
+		if (unlimited) {
+			return false;
+		}
+		if (passed) {
+			return true;
+		}
+		if (System.nanoTime() - end >= 0) {
+			passed = true;
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * @return true if the scoring stopped early, so the result may miss better articles
+	 */
+	public boolean isPartial() {
+		return passed;
+	}
+
+}
@@ -0,0 +1,194 @@
+package de.dailab.plistacontest.client;
+
+/**
+ * The articles each user has been shown or has read, kept approximately in a rotating Bloom
+ * filter of fixed size per user. The filter of a user has two generations of bits: articles
+ * are added to the current generation, and once it holds the configured number of articles
+ * it becomes the previous generation and the oldest one is dropped. So a user costs the
+ * same number of bytes however many articles they see, and only about the most recent one
+ * to two generations of articles are remembered.
+ *
+ * A lookup can report an article the user has not seen (a false positive), with a
+ * probability that depends on the bits and articles per generation, but never misses an
+ * article of the remembered generations.
+ *
+ * The filter of a user is stored as one long array: the number of articles in the current
+ * generation, followed by the words of the current and of the previous generation. Users
+ * are spread over stripes by their id, each stripe guarded by its own monitor. The filters
+ * of the users who have not seen anything for a while can be evicted.
+ */
+public class SeenFilter {
+
+	private static final int STRIPES = 16;
+
+	private static final int REFERENCE_SIZE = 4;
+	private static final int ARRAY_HEADER_SIZE = 16;
+
+	private final LongArrayMap[] stripes;
+
+	/**
+	 * The number of 64 bit words of a generation.
+	 */
+	private final int words;
+
+	/**
+	 * The number of articles after which a generation is rotated out.
+	 */
+	private final int articlesPerGeneration;
+
+	/**
+	 * The number of bits set per article.
+	 */
+	private final int hashes;
+
+	/**
+	 * @param bitsPerGeneration - the size of a generation, rounded up to a multiple of 64
+	 * @param articlesPerGeneration - the number of articles a generation holds
+	 */
+	public SeenFilter(int bitsPerGeneration, int articlesPerGeneration) {
+		if (bitsPerGeneration < 1 || articlesPerGeneration < 1) {
+			throw new IllegalArgumentException("Invalid seen filter configuration: "
+					+ bitsPerGeneration + " bits, " + articlesPerGeneration + " articles");
+		}
+		this.words = (bitsPerGeneration + 63) / 64;
+		this.articlesPerGeneration = articlesPerGeneration;
+		// the number of hashes that minimizes false positives for a full generation
+		this.hashes = Math.max(1, (int) Math.round(64.0 * words / articlesPerGeneration
+				* Math.log(2)));
+		stripes = new LongArrayMap[STRIPES];
+		for (int i = 0; i < STRIPES; i++) {
+			stripes[i] = new LongArrayMap();
+		}
+	}
+
+	/**
+	 * Records that a user has been shown or has read an article.
+	 * @param timestamp - time of the impression or read in milliseconds, which keeps the
+	 * user from being evicted as idle
+	 */
+	public void add(long userId, long articleId, long timestamp) {
+		LongArrayMap stripe = getStripe(userId);
+		synchronized (stripe) {
+			long[] filter = stripe.get(userId);
+			if (filter == null) {
+				filter = new long[1 + 2 * words];
+			}
+			stripe.put(userId, filter, timestamp);
+			if (filter[0] >= articlesPerGeneration) {
+				System.arraycopy(filter, 1, filter, 1 + words, words);
+				for (int i = 1; i <= words; i++) {
+					filter[i] = 0;
+				}
+				filter[0] = 0;
+			}
+			long hash = LongArrayMap.mix(articleId);
+			int bits = 64 * words;
+			for (int i = 0; i < hashes; i++) {
+				int bit = index(hash, i, bits);
+				filter[1 + (bit >>> 6)] |= 1L << bit;
+			}
+			filter[0]++;
+		}
+	}
+
+	/**
+	 * Returns a copy of the filter of a user, to look up many articles without locking.
+	 * @return the filter, or null if the user has not seen any article
+	 * @see #mightContain(long[], long)
+	 */
+	public long[] get(long userId) {
+		LongArrayMap stripe = getStripe(userId);
+		synchronized (stripe) {
+			long[] filter = stripe.get(userId);
+			return filter == null ? null : filter.clone();
+		}
+	}
+
+	/**
+	 * Looks up an article in a filter returned by get.
+	 * @param filter - the filter of a user, may be null
+	 * @param articleId - the article to look up
+	 * @return false if the user has certainly not seen the article in the remembered
+	 * generations, true if they probably have
+	 */
+	public boolean mightContain(long[] filter, long articleId) {
+		if (filter == null) {
+			return false;
+		}
+		long hash = LongArrayMap.mix(articleId);
+		int bits = 64 * words;
+		boolean current = true;
+		boolean previous = true;
+		for (int i = 0; i < hashes && (current || previous); i++) {
+			int bit = index(hash, i, bits);
+			current &= (filter[1 + (bit >>> 6)] & (1L << bit)) != 0;
+			previous &= (filter[1 + words + (bit >>> 6)] & (1L << bit)) != 0;
+		}
+		return current || previous;
+	}
+
+	/**
+	 * Removes the filters of the users who have not been shown an article since a given
+	 * time.
+	 * @param minTimestamp - the time of the oldest article that keeps a user
+	 * @return the number of removed users
+	 */
+	public int evictIdleUsers(long minTimestamp) {
+		int evicted = 0;
+		for (LongArrayMap stripe : stripes) {
+			synchronized (stripe) {
+				evicted += stripe.removeOlderThan(minTimestamp);
+			}
+		}
+		return evicted;
+	}
+
+	/**
+	 * @return the number of users with a filter
+	 */
+	public int size() {
+		int size = 0;
+		for (LongArrayMap stripe : stripes) {
+			synchronized (stripe) {
+				size += stripe.size();
+			}
+		}
+		return size;
+	}
+
+	/**
+	 * Estimates the heap used by the filters and the tables holding them with the times of
+	 * the users.
+	 * @return the estimate in bytes
+	 */
+	public long getMemoryUsage() {
+		long bytes = 0;
+		for (LongArrayMap stripe : stripes) {
+			synchronized (stripe) {
+				bytes += 3 * ARRAY_HEADER_SIZE + stripe.capacity() * (16L + REFERENCE_SIZE)
+						+ stripe.size() * (ARRAY_HEADER_SIZE + 8L * (1 + 2 * words));
+			}
+		}
+		return bytes;
+	}
+
+	/**
+	 * Derives the i-th bit of an article from its hash by double hashing.
+	 */
+	private static int index(long hash, int i, int bits) {
+		int combined = (int) hash + i * ((int) (hash >>> 32) | 1);
+		return (combined & Integer.MAX_VALUE) % bits;
+	}
+
+	private LongArrayMap getStripe(long userId) {
+		return stripes[(int) (LongArrayMap.mix(userId) >>> 60) & (STRIPES - 1)];
+	}
+
+	@Override
+	public String toString() {
+		return "[SeenFilter users=" + size() + ", bits=" + 64 * words + ", articles="
+				+ articlesPerGeneration + ", hashes=" + hashes + ", bytes=" + getMemoryUsage()
+				+ "]";
+	}
+
+}
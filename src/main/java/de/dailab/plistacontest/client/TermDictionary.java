@@ -0,0 +1,180 @@
+package de.dailab.plistacontest.client;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Assigns dense integer ids to the stemmed keywords known to the recommender. The ids are
+ * used as indices into the document frequency table and as the dimensions of the sparse
+ * term vectors, so a word is hashed once when an article arrives instead of on every
+ * similarity computation.
+ *
+ * The dictionary is shared by the content shards of all publishers and is thread safe.
+ * Looking up a known term does not lock.
+ *
+ * The shards count the term vectors they keep per term. Once no vector contains a term
+ * anymore, the term is dropped, so the dictionary only holds the words of the articles in
+ * the system. The ids of dropped terms are recycled, so that the ids, and with them the
+ * arrays of the inverted indexes, stay bounded by the vocabulary rather than by every word
+ * ever seen. Since the profiles of the users may still refer to a dropped id, the id is not
+ * handed out again right away: the owner of the profiles takes the dropped ids, removes them
+ * from the profiles and only then recycles them, after evictions and whenever many ids have
+ * been dropped. A dropped term no longer has postings, the index lets go of a posting list
+ * with its last posting.
+ */
+public class TermDictionary {
+
+	/**
+	 * Term -> id map used when an article is vectorized.
+	 */
+	private final Map<String, Integer> idByTerm;
+
+	/**
+	 * Id -> term, the inverse of idByTerm; null for dropped terms.
+	 */
+	private final List<String> terms;
+
+	/**
+	 * Id -> number of term vectors containing the term.
+	 */
+	private int[] counts;
+
+	/**
+	 * The ids of the terms dropped since the last call of takeDroppedIds.
+	 */
+	private int[] droppedIds;
+	private int droppedCount;
+
+	/**
+	 * Stack of the ids that can be assigned to new terms.
+	 */
+	private int[] freeIds;
+	private int freeCount;
+
+	public TermDictionary() {
+		idByTerm = new ConcurrentHashMap<String, Integer>();
+		terms = new ArrayList<String>();
+		counts = new int[1024];
+		droppedIds = new int[16];
+		freeIds = new int[16];
+	}
+
+	/**
+	 * Returns the ids of the terms of a new term vector, assigning recycled or the next
+	 * unused ids to new terms, and counts the vector for each of them.
+	 * @param vectorTerms - the distinct terms of the vector
+	 * @return the ids of the terms, in the same order
+	 */
+	public synchronized int[] acquire(List<String> vectorTerms) {
+		int[] ids = new int[vectorTerms.size()];
+		for (int i = 0; i < ids.length; i++) {
+			String term = vectorTerms.get(i);
+			Integer id = idByTerm.get(term);
+			if (id == null) {
+				if (freeCount > 0) {
+					id = freeIds[--freeCount];
+					terms.set(id, term);
+				} else {
+					id = terms.size();
+					terms.add(term);
+					if (id == counts.length) {
+						counts = Arrays.copyOf(counts, 2 * id);
+					}
+				}
+				idByTerm.put(term, id);
+			}
+			counts[id]++;
+			ids[i] = id;
+		}
+		return ids;
+	}
+
+	/**
+	 * Uncounts a term vector that is no longer kept, dropping the terms no other vector
+	 * contains.
+	 */
+	public synchronized void release(TermVector vector) {
+		for (int i = 0; i < vector.size(); i++) {
+			release(vector.getTerm(i));
+		}
+	}
+
+	/**
+	 * Uncounts one term of a vector that is no longer kept, dropping the term if no other
+	 * vector contains it.
+	 */
+	public synchronized void release(int id) {
+		if (--counts[id] == 0) {
+			idByTerm.remove(terms.get(id));
+			terms.set(id, null);
+			if (droppedCount == droppedIds.length) {
+				droppedIds = Arrays.copyOf(droppedIds, 2 * droppedCount);
+			}
+			droppedIds[droppedCount++] = id;
+		}
+	}
+
+	/**
+	 * Returns the ids of the terms dropped since the last call. The ids are not assigned
+	 * again until they are recycled.
+	 */
+	public synchronized int[] takeDroppedIds() {
+		int[] result = Arrays.copyOf(droppedIds, droppedCount);
+		droppedCount = 0;
+		return result;
+	}
+
+	/**
+	 * @return the number of terms dropped since the last call of takeDroppedIds
+	 */
+	public synchronized int getDroppedCount() {
+		return droppedCount;
+	}
+
+	/**
+	 * Makes dropped ids available to new terms, once nothing refers to them anymore.
+	 * @param ids - ids returned by takeDroppedIds
+	 */
+	public synchronized void recycle(int[] ids) {
+		if (freeCount + ids.length > freeIds.length) {
+			freeIds = Arrays.copyOf(freeIds, Math.max(freeCount + ids.length, 2 * freeCount));
+		}
+		System.arraycopy(ids, 0, freeIds, freeCount, ids.length);
+		freeCount += ids.length;
+	}
+
+	/**
+	 * Returns the id of a term.
+	 * @param term - the term to look up
+	 * @return the id of the term, or -1 if the term is unknown
+	 */
+	public int getId(String term) {
+		Integer id = idByTerm.get(term);
+		return id == null ? -1 : id;
+	}
+
+	/**
+	 * @return the term with an id, or null if the term has been dropped
+	 */
+	public synchronized String getTerm(int id) {
+		return terms.get(id);
+	}
+
+	/**
+	 * @return the number of ids handed out, including dropped ones, which bounds the ids
+	 */
+	public synchronized int size() {
+		return terms.size();
+	}
+
+	/**
+	 * @return the number of terms kept
+	 */
+	public int getTermCount() {
+		return idByTerm.size();
+	}
+
+}
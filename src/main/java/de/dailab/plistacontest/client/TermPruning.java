@@ -0,0 +1,83 @@
+package de.dailab.plistacontest.client;
+
+/**
+ * Limits on the terms a content shard keeps and scores, so that the size of the model and
+ * the cost of scoring level off instead of growing with every typo, name and one-off token
+ * of the stream. The limits are applied incrementally as articles come and go. Only the top
+ * terms of an article by TF-IDF are kept when the article is vectorized. Terms in fewer
+ * articles of the shard than the minimal document frequency, or in a larger share of them
+ * than the maximal document frequency, get an IDF of zero, so they are left out of the norms
+ * and the scoring; they stay in the index, so their document frequencies are still counted
+ * and they come back once they qualify. Once the shard has more distinct terms than the
+ * vocabulary size, the terms in the fewest articles are removed from the index and from the
+ * articles.
+ */
+public class TermPruning {
+
+	/**
+	 * Keeps all terms.
+	 */
+	public static final TermPruning NONE = new TermPruning(1, 1, 0, 0);
+
+	private final int minDocumentFrequency;
+	private final double maxDocumentFrequency;
+	private final int maxTermsPerArticle;
+	private final int maxVocabularySize;
+
+	/**
+	 * @param minDocumentFrequency - the number of articles of the shard a term has to occur
+	 * in to be scored, at least 1
+	 * @param maxDocumentFrequency - the share of the articles of the shard a term may occur
+	 * in to be scored, above 0 and at most 1; a term in one article always qualifies
+	 * @param maxTermsPerArticle - the number of terms kept per article, 0 for no limit
+	 * @param maxVocabularySize - the number of distinct terms kept per shard, 0 for no limit
+	 */
+	public TermPruning(int minDocumentFrequency, double maxDocumentFrequency,
+			int maxTermsPerArticle, int maxVocabularySize) {
+		if (minDocumentFrequency < 1 || !(maxDocumentFrequency > 0)
+				|| maxDocumentFrequency > 1 || maxTermsPerArticle < 0 || maxVocabularySize < 0) {
+			throw new IllegalArgumentException("Invalid term pruning: document frequency "
+					+ minDocumentFrequency + " to " + maxDocumentFrequency + ", "
+					+ maxTermsPerArticle + " terms per article, vocabulary of "
+					+ maxVocabularySize);
+		}
+		this.minDocumentFrequency = minDocumentFrequency;
+		this.maxDocumentFrequency = maxDocumentFrequency;
+		this.maxTermsPerArticle = maxTermsPerArticle;
+		this.maxVocabularySize = maxVocabularySize;
+	}
+
+	/**
+	 * @param documentFrequency - the number of articles of the shard containing the term
+	 * @param articleCount - the number of articles of the shard
+	 * @return true if the term is scored
+	 */
+	public boolean isScored(int documentFrequency, int articleCount) {
+		return documentFrequency >= minDocumentFrequency
+				&& documentFrequency <= Math.max(1, maxDocumentFrequency * articleCount);
+	}
+
+	public int getMinDocumentFrequency() {
+		return minDocumentFrequency;
+	}
+
+	public double getMaxDocumentFrequency() {
+		return maxDocumentFrequency;
+	}
+
+	public int getMaxTermsPerArticle() {
+		return maxTermsPerArticle;
+	}
+
+	public int getMaxVocabularySize() {
+		return maxVocabularySize;
+	}
+
+	@Override
+	public String toString() {
+		return "[TermPruning df=" + minDocumentFrequency + ".." + maxDocumentFrequency
+				+ ", perArticle=" + maxTermsPerArticle + ", vocabulary=" + maxVocabularySize
+				+ "]";
+	}
+
+}
@@ -0,0 +1,156 @@
+package de.dailab.plistacontest.client;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Sparse term frequency vector of a news article. The term ids are kept sorted so two
+ * vectors can be multiplied with a single merge pass. Only raw (dampened) term frequencies
+ * are stored; the IDF weights change with every article added to the system and are applied
+ * by the recommender at scoring time.
+ */
+public class TermVector {
+
+	public static final TermVector EMPTY = new TermVector(new int[0], new float[0]);
+
+	private final int[] terms;
+
+	private final float[] weights;
+
+	/**
+	 * Cached TF-IDF norm of the vector (low 32 bits) packed with the corpus generation it was
+	 * computed for (high 32 bits), so that both are always read and written together. A lost
+	 * update only means that the norm is computed once more.
+	 */
+	private volatile long cachedNorm = -1L << 32;
+
+	public TermVector(int[] terms, float[] weights) {
+		this.terms = terms;
+		this.weights = weights;
+	}
+
+	/**
+	 * Creates the term vector of a keyword map, registering any new words in the dictionary.
+	 * The dictionary counts the vector for its terms, so it has to be released once it is
+	 * no longer kept.
+	 * @param keywords - keyword -> count map of an article
+	 * @param dictionary - dictionary used to map the keywords to term ids
+	 * @return a vector with the keyword counts as weights
+	 */
+	public static TermVector fromKeywords(Map<String, Integer> keywords,
+			TermDictionary dictionary) {
+		List<String> words = new ArrayList<String>(keywords.keySet());
+		int[] ids = dictionary.acquire(words);
+		// pack (term id, count) pairs into longs so they can be sorted by term id in one go
+		long[] packed = new long[ids.length];
+		for (int i = 0; i < ids.length; i++) {
+			packed[i] = ((long) ids[i] << 32) | keywords.get(words.get(i));
+		}
+		Arrays.sort(packed);
+
+		int[] terms = new int[packed.length];
+		float[] weights = new float[packed.length];
+		for (int i = 0; i < packed.length; i++) {
+			terms[i] = (int) (packed[i] >>> 32);
+			weights[i] = (int) packed[i];
+		}
+		return new TermVector(terms, weights);
+	}
+
+	/**
+	 * Creates a vector from a term id -> weight map.
+	 * @param weights - the weights of the vector
+	 * @return a vector with the given weights
+	 */
+	public static TermVector fromWeights(Map<Integer, Float> weights) {
+		int[] terms = new int[weights.size()];
+		int i = 0;
+		for (Integer term : weights.keySet()) {
+			terms[i++] = term;
+		}
+		Arrays.sort(terms);
+		float[] sortedWeights = new float[terms.length];
+		for (i = 0; i < terms.length; i++) {
+			sortedWeights[i] = weights.get(terms[i]);
+		}
+		return new TermVector(terms, sortedWeights);
+	}
+
+	/**
+	 * Computes scale * this + otherScale * other by merging the sorted term ids of the two
+	 * vectors.
+	 * @return a new vector holding the weighted sum
+	 */
+	public TermVector scaleAndAdd(float scale, TermVector other, float otherScale) {
+		int[] sumTerms = new int[terms.length + other.terms.length];
+		float[] sumWeights = new float[sumTerms.length];
+		int i = 0, j = 0, n = 0;
+		while (i < terms.length || j < other.terms.length) {
+			if (j == other.terms.length || (i < terms.length && terms[i] < other.terms[j])) {
+				sumTerms[n] = terms[i];
+				sumWeights[n++] = scale * weights[i++];
+			} else if (i == terms.length || terms[i] > other.terms[j]) {
+				sumTerms[n] = other.terms[j];
+				sumWeights[n++] = otherScale * other.weights[j++];
+			} else {
+				sumTerms[n] = terms[i];
+				sumWeights[n++] = scale * weights[i++] + otherScale * other.weights[j++];
+			}
+		}
+		return new TermVector(Arrays.copyOf(sumTerms, n), Arrays.copyOf(sumWeights, n));
+	}
+
+	/**
+	 * @param removed - term id -> whether the term is removed; terms beyond its length are
+	 * kept
+	 * @return a vector with the terms of this vector that are not removed
+	 */
+	public TermVector without(boolean[] removed) {
+		int[] keptTerms = new int[terms.length];
+		float[] keptWeights = new float[terms.length];
+		int n = 0;
+		for (int i = 0; i < terms.length; i++) {
+			if (terms[i] >= removed.length || !removed[terms[i]]) {
+				keptTerms[n] = terms[i];
+				keptWeights[n++] = weights[i];
+			}
+		}
+		return new TermVector(Arrays.copyOf(keptTerms, n), Arrays.copyOf(keptWeights, n));
+	}
+
+	/**
+	 * @return true if the other vector has the same terms with the same weights
+	 */
+	public boolean hasSameWeights(TermVector other) {
+		return Arrays.equals(terms, other.terms) && Arrays.equals(weights, other.weights);
+	}
+
+	public int size() {
+		return terms.length;
+	}
+
+	public int getTerm(int index) {
+		return terms[index];
+	}
+
+	public float getWeight(int index) {
+		return weights[index];
+	}
+
+	/**
+	 * Returns the cached norm if it was computed for the given corpus generation.
+	 * @param generation - the current corpus generation
+	 * @return the cached norm, or a negative value if it has to be recomputed
+	 */
+	public float getCachedNorm(int generation) {
+		long cached = cachedNorm;
+		return (int) (cached >>> 32) == generation ? Float.intBitsToFloat((int) cached) : -1f;
+	}
+
+	public void setCachedNorm(float norm, int generation) {
+		cachedNorm = ((long) generation << 32) | (Float.floatToIntBits(norm) & 0xFFFFFFFFL);
+	}
+
+}
@@ -0,0 +1,154 @@
+package de.dailab.plistacontest.client;
+
+/**
+ * Keeps the k best scored items seen so far in a bounded min-heap of primitives, so that the
+ * best k of n scored candidates are selected in O(n log k) without boxing and without
+ * sorting all candidates. Items are int ordinals. Ties are broken in favour of the larger
+ * ordinal, i.e. the more recently added article. Instances are not thread safe.
+ */
+public class TopKSelector {
+
+	private final int[] items;
+	private final float[] scores;
+	private int size;
+
+	/**
+	 * @param k - the number of items to keep
+	 */
+	public TopKSelector(int k) {
+		items = new int[Math.max(k, 0)];
+		scores = new float[items.length];
+	}
+
+	/**
+	 * Offers a scored item.
+	 * @param item - the item
+	 * @param score - the score of the item
+	 * @return true if the item is among the best k items seen so far
+	 */
+	public boolean offer(int item, float score) {
+		if (size < items.length) {
+			siftUp(size++, item, score);
+			return true;
+		}
+		if (size == 0 || !isBetter(item, score, items[0], scores[0])) {
+			return false;
+		}
+		siftDown(0, item, score);
+		return true;
+	}
+
+	/**
+	 * Offers all items of another selection, e.g. to merge the results of partial
+	 * selections. The other selection is left unchanged.
+	 * @param other - the selection to merge into this one
+	 */
+	public void offerAll(TopKSelector other) {
+		for (int i = 0; i < other.size; i++) {
+			offer(other.items[i], other.scores[i]);
+		}
+	}
+
+	/**
+	 * @return the score an item has to beat to get into a full selection, or
+	 * Float.NEGATIVE_INFINITY while the selection is not full
+	 */
+	public float getThreshold() {
+		return size < items.length || size == 0 ? Float.NEGATIVE_INFINITY : scores[0];
+	}
+
+	/**
+	 * @return the item with the lowest score in the selection, which must not be empty
+	 */
+	public int getWorstItem() {
+		return items[0];
+	}
+
+	/**
+	 * Raises the score of the item with the lowest score, e.g. because the score of the
+	 * item has grown since it was offered.
+	 * @param score - the new score, not lower than the current one
+	 */
+	public void raiseWorstScore(float score) {
+		siftDown(0, items[0], score);
+	}
+
+	/**
+	 * @return the number of items the selection keeps
+	 */
+	public int getCapacity() {
+		return items.length;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean isFull() {
+		return size == items.length;
+	}
+
+	public void clear() {
+		size = 0;
+	}
+
+	/**
+	 * Empties the selection into arrays sorted by descending score.
+	 * @param sortedItems - receives the items, must hold at least size() entries
+	 * @param sortedScores - receives the scores, may be null
+	 * @return the number of items written
+	 */
+	public int drainTo(int[] sortedItems, float[] sortedScores) {
+		int count = size;
+		// repeatedly remove the worst item, filling the arrays from the back
+		while (size > 0) {
+			int index = --size;
+			sortedItems[index] = items[0];
+			if (sortedScores != null) {
+				sortedScores[index] = scores[0];
+			}
+			if (size > 0) {
+				siftDown(0, items[size], scores[size]);
+			}
+		}
+		return count;
+	}
+
+	private static boolean isBetter(int item, float score, int otherItem, float otherScore) {
+		return score > otherScore || (score == otherScore && item > otherItem);
+	}
+
+	private void siftUp(int position, int item, float score) {
+		while (position > 0) {
+			int parent = (position - 1) >>> 1;
+			if (!isBetter(items[parent], scores[parent], item, score)) {
+				break;
+			}
+			items[position] = items[parent];
+			scores[position] = scores[parent];
+			position = parent;
+		}
+		items[position] = item;
+		scores[position] = score;
+	}
+
+	private void siftDown(int position, int item, float score) {
+		int half = size >>> 1;
+		while (position < half) {
+			int child = 2 * position + 1;
+			if (child + 1 < size && isBetter(items[child], scores[child], items[child + 1],
+					scores[child + 1])) {
+				child++;
+			}
+			if (!isBetter(item, score, items[child], scores[child])) {
+				break;
+			}
+			items[position] = items[child];
+			scores[position] = scores[child];
+			position = child;
+		}
+		items[position] = item;
+		scores[position] = score;
+	}
+
+}
@@ -0,0 +1,219 @@
+package de.dailab.plistacontest.client;
+
+import java.util.Arrays;
+
+/**
+ * The ids of the articles read by each user, most recent last, kept in primitive arrays.
+ * Users are found in open addressing hash tables keyed by the primitive user id, and the
+ * history of a user is a long array of exactly its length, so a user who read one article
+ * costs one table slot and a 24 byte array instead of a boxed key, a hash set and its
+ * entries. Histories are capped to the most recent reads, and the users who have not read
+ * anything for a while can be evicted.
+ *
+ * The users are spread over stripes by their id, each stripe guarded by its own monitor,
+ * so readers and writers of different users rarely wait for each other.
+ */
+public class UserHistoryStore {
+
+	private static final long[] NO_ARTICLES = new long[0];
+
+	private static final int STRIPES = 16;
+
+	/**
+	 * Assumed size of an object reference and of an array header in bytes, with compressed
+	 * references on a 64 bit JVM.
+	 */
+	private static final int REFERENCE_SIZE = 4;
+	private static final int ARRAY_HEADER_SIZE = 16;
+
+	private final LongArrayMap[] stripes;
+
+	/**
+	 * The number of most recent reads kept per user, 0 for no limit.
+	 */
+	private volatile int maxLength;
+
+	/**
+	 * @param maxLength - the number of most recent reads kept per user, 0 for no limit
+	 */
+	public UserHistoryStore(int maxLength) {
+		this.maxLength = maxLength;
+		stripes = new LongArrayMap[STRIPES];
+		for (int i = 0; i < STRIPES; i++) {
+			stripes[i] = new LongArrayMap();
+		}
+	}
+
+	/**
+	 * Sets the number of most recent reads kept per user. Longer histories are shortened on
+	 * their next read.
+	 * @param maxLength - the number of reads, 0 for no limit
+	 */
+	public void setMaxLength(int maxLength) {
+		this.maxLength = maxLength;
+	}
+
+	/**
+	 * Adds an article to the history of a user, dropping the oldest read if the history is
+	 * full.
+	 * @param timestamp - time of the read in milliseconds, which keeps the user from being
+	 * evicted as idle
+	 * @return false if the history already contains the article
+	 */
+	public boolean add(long userId, long articleId, long timestamp) {
+		LongArrayMap stripe = getStripe(userId);
+		synchronized (stripe) {
+			long[] history = stripe.get(userId);
+			if (history == null) {
+				stripe.put(userId, new long[] {articleId}, timestamp);
+				return true;
+			}
+			for (long read : history) {
+				if (read == articleId) {
+					stripe.put(userId, history, timestamp);
+					return false;
+				}
+			}
+			int max = maxLength;
+			long[] appended;
+			if (max > 0 && history.length >= max) {
+				// keep the max - 1 most recent reads and the new one
+				appended = Arrays.copyOfRange(history, history.length - max + 1,
+						history.length + 1);
+			} else {
+				appended = Arrays.copyOf(history, history.length + 1);
+			}
+			appended[appended.length - 1] = articleId;
+			stripe.put(userId, appended, timestamp);
+			return true;
+		}
+	}
+
+	/**
+	 * Removes the histories of the users who have not read an article since a given time.
+	 * @param minTimestamp - the time of the oldest read that keeps a user
+	 * @return the number of removed users
+	 */
+	public int evictIdleUsers(long minTimestamp) {
+		int evicted = 0;
+		for (LongArrayMap stripe : stripes) {
+			synchronized (stripe) {
+				evicted += stripe.removeOlderThan(minTimestamp);
+			}
+		}
+		return evicted;
+	}
+
+	/**
+	 * @return true if the user has read at least one article
+	 */
+	public boolean contains(long userId) {
+		LongArrayMap stripe = getStripe(userId);
+		synchronized (stripe) {
+			return stripe.get(userId) != null;
+		}
+	}
+
+	/**
+	 * Returns the history of a user.
+	 * @return the ids of the read articles, oldest first; empty if the user is unknown
+	 */
+	public long[] getHistory(long userId) {
+		LongArrayMap stripe = getStripe(userId);
+		synchronized (stripe) {
+			// histories are replaced, never changed, so they can be shared
+			long[] history = stripe.get(userId);
+			return history == null ? NO_ARTICLES : history;
+		}
+	}
+
+	/**
+	 * Returns the history of a user in ascending order of the article ids, for looking up
+	 * articles by binary search.
+	 * @return a sorted copy of the history; empty if the user is unknown
+	 */
+	public long[] getSortedHistory(long userId) {
+		long[] history = getHistory(userId).clone();
+		Arrays.sort(history);
+		return history;
+	}
+
+	/**
+	 * @return the ids of all users with a history
+	 */
+	public long[] getUsers() {
+		long[] users = new long[size()];
+		int n = 0;
+		for (LongArrayMap stripe : stripes) {
+			synchronized (stripe) {
+				for (int slot = 0; slot < stripe.capacity() && n < users.length; slot++) {
+					if (stripe.getValue(slot) != null) {
+						users[n++] = stripe.getKey(slot);
+					}
+				}
+			}
+		}
+		return n == users.length ? users : Arrays.copyOf(users, n);
+	}
+
+	/**
+	 * @return the number of users with a history
+	 */
+	public int size() {
+		int size = 0;
+		for (LongArrayMap stripe : stripes) {
+			synchronized (stripe) {
+				size += stripe.size();
+			}
+		}
+		return size;
+	}
+
+	/**
+	 * @return the number of reads in all histories
+	 */
+	public long getReadCount() {
+		long count = 0;
+		for (LongArrayMap stripe : stripes) {
+			synchronized (stripe) {
+				for (int slot = 0; slot < stripe.capacity(); slot++) {
+					if (stripe.getValue(slot) != null) {
+						count += stripe.getValue(slot).length;
+					}
+				}
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Estimates the heap used by the store: the hash tables with the times of the users
+	 * and the history arrays.
+	 * @return the estimate in bytes
+	 */
+	public long getMemoryUsage() {
+		long bytes = 0;
+		for (LongArrayMap stripe : stripes) {
+			synchronized (stripe) {
+				bytes += 3 * ARRAY_HEADER_SIZE + stripe.capacity() * (16L + REFERENCE_SIZE);
+				for (int slot = 0; slot < stripe.capacity(); slot++) {
+					if (stripe.getValue(slot) != null) {
+						bytes += ARRAY_HEADER_SIZE + 8L * stripe.getValue(slot).length;
+					}
+				}
+			}
+		}
+		return bytes;
+	}
+
+	private LongArrayMap getStripe(long userId) {
+		return stripes[(int) (LongArrayMap.mix(userId) >>> 60) & (STRIPES - 1)];
+	}
+
+	@Override
+	public String toString() {
+		return "[UserHistoryStore users=" + size() + ", reads=" + getReadCount() + ", bytes="
+				+ getMemoryUsage() + "]";
+	}
+
+}
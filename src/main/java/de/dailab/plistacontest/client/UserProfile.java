@@ -0,0 +1,96 @@
+package de.dailab.plistacontest.client;
+
+/**
+ * Content profile of a user: the centroid of the normalized TF-IDF vectors of the articles
+ * the user has read. Like the article term vectors, the profile is kept in term frequency
+ * space, i.e. each article contributes its term frequencies divided by the TF-IDF norm it
+ * had when it was read, so the IDF weights can be applied at scoring time. The dot product
+ * of the profile with a normalized candidate then equals the average cosine similarity of
+ * the candidate to the articles read by the user.
+ *
+ * Older reads can optionally be decayed exponentially. Profiles are immutable; reading an
+ * article yields a new profile.
+ */
+public class UserProfile {
+
+	public static final UserProfile EMPTY = new UserProfile(TermVector.EMPTY, 0, 0);
+
+	/**
+	 * Sum of the (decayed) contributions of the read articles.
+	 */
+	private final TermVector weights;
+
+	/**
+	 * Sum of the (decayed) weights of the read articles; the profile is divided by it.
+	 */
+	private final double mass;
+
+	/**
+	 * Time of the last read, in milliseconds.
+	 */
+	private final long lastUpdate;
+
+	private UserProfile(TermVector weights, double mass, long lastUpdate) {
+		this.weights = weights;
+		this.mass = mass;
+		this.lastUpdate = lastUpdate;
+	}
+
+	/**
+	 * Returns the profile after reading an article.
+	 * @param termFrequencies - term vector of the read article
+	 * @param norm - current TF-IDF norm of the read article
+	 * @param timestamp - time of the read, in milliseconds
+	 * @param halfLife - half life of a read in milliseconds, or 0 to weight all reads equally
+	 * @return the updated profile
+	 */
+	public UserProfile add(TermVector termFrequencies, double norm, long timestamp,
+			long halfLife) {
+		if (norm == 0) {
+			return this;
+		}
+		double decay = 1;
+		if (halfLife > 0 && timestamp > lastUpdate && mass > 0) {
+			decay = Math.pow(0.5, (double) (timestamp - lastUpdate) / halfLife);
+		}
+		return new UserProfile(
+				weights.scaleAndAdd((float) decay, termFrequencies, (float) (1 / norm)),
+				decay * mass + 1, Math.max(timestamp, lastUpdate));
+	}
+
+	/**
+	 * Returns the profile without some terms, e.g. because they were dropped from the
+	 * dictionary. The weights of the other terms are kept.
+	 * @param removed - term id -> whether the term is removed
+	 * @return the profile, this profile if it has none of the terms
+	 */
+	public UserProfile without(boolean[] removed) {
+		for (int i = 0; i < weights.size(); i++) {
+			int term = weights.getTerm(i);
+			if (term < removed.length && removed[term]) {
+				return new UserProfile(weights.without(removed), mass, lastUpdate);
+			}
+		}
+		return this;
+	}
+
+	public boolean isEmpty() {
+		return mass == 0;
+	}
+
+	public int size() {
+		return weights.size();
+	}
+
+	public int getTerm(int index) {
+		return weights.getTerm(index);
+	}
+
+	/**
+	 * @return the weight of the index-th term of the centroid
+	 */
+	public float getWeight(int index) {
+		return (float) (weights.getWeight(index) / mass);
+	}
+
+}
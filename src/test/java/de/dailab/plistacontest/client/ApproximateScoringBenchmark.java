@@ -0,0 +1,96 @@
+package de.dailab.plistacontest.client;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Reports the recall/latency trade-off of approximate scoring with random projection hashes
+ * against exact scoring, for growing catalogs and several hash configurations. Recall is the
+ * fraction of the exact top k that the approximate top k contains, averaged over the users
+ * of RecommenderScoringBenchmark. Latency is the average time of a recommendation after a
+ * warm-up. JMH is not used since it cannot report recall.
+ *
+ * Run with
+ * mvn test-compile exec:java -Dexec.classpathScope=test
+ *     -Dexec.mainClass=de.dailab.plistacontest.client.ApproximateScoringBenchmark
+ */
+public class ApproximateScoringBenchmark {
+
+	private static final int[] ARTICLES = {5000, 20000, 50000};
+
+	/**
+	 * Tables, bits and probes of the hash configurations to compare.
+	 */
+	private static final int[][] CONFIGURATIONS = {
+		{8, 8, 0}, {16, 8, 1}, {16, 6, 1}, {32, 6, 2}
+	};
+
+	private static final int USERS = 64;
+	private static final int K = 6;
+	private static final int ROUNDS = 10;
+
+	public static void main(String[] args) {
+		System.out.printf("%8s %-24s %8s %12s%n", "articles", "scoring", "recall", "us/request");
+		for (int articles : ARTICLES) {
+			Recommender recommender = RecommenderScoringBenchmark.createRecommender(articles,
+					new Random(42));
+			recommender.setParallelScoringThreshold(Long.MAX_VALUE);
+
+			List<List<Long>> exact = recommendAll(recommender);
+			System.out.printf("%8d %-24s %8.3f %12.1f%n", articles, "exact", 1.0,
+					measure(recommender));
+
+			for (int[] configuration : CONFIGURATIONS) {
+				RandomProjectionHash hash = new RandomProjectionHash(configuration[0],
+						configuration[1], configuration[2], 42L);
+				recommender.setApproximateScoring(hash);
+				double recall = recall(exact, recommendAll(recommender));
+				System.out.printf("%8d %-24s %8.3f %12.1f%n", articles, String.format(
+						"lsh %dx%d, %d probes", configuration[0], configuration[1],
+						configuration[2]), recall, measure(recommender));
+			}
+			recommender.setApproximateScoring(null);
+		}
+	}
+
+	private static List<List<Long>> recommendAll(Recommender recommender) {
+		List<List<Long>> result = new ArrayList<List<Long>>();
+		for (long user = 1; user <= USERS; user++) {
+			result.add(recommender.recommend(user, K));
+		}
+		return result;
+	}
+
+	private static double recall(List<List<Long>> exact, List<List<Long>> approximate) {
+		double sum = 0;
+		for (int i = 0; i < exact.size(); i++) {
+			Set<Long> found = new HashSet<Long>(approximate.get(i));
+			int hits = 0;
+			for (Long id : exact.get(i)) {
+				if (found.contains(id)) {
+					hits++;
+				}
+			}
+			sum += exact.get(i).isEmpty() ? 1 : (double) hits / exact.get(i).size();
+		}
+		return sum / exact.size();
+	}
+
+	/**
+	 * @return the average latency of a recommendation in microseconds
+	 */
+	private static double measure(Recommender recommender) {
+		for (int round = 0; round < ROUNDS; round++) {
+			recommendAll(recommender);
+		}
+		long start = System.nanoTime();
+		for (int round = 0; round < ROUNDS; round++) {
+			recommendAll(recommender);
+		}
+		return (System.nanoTime() - start) / 1000.0 / (ROUNDS * USERS);
+	}
+
+}
@@ -0,0 +1,35 @@
+package de.dailab.plistacontest.client;
+
+import static org.junit.Assert.*;
+
+import java.io.StringWriter;
+
+import org.junit.Test;
+
+public class BatchReplayTest {
+
+	@Test
+	public void testReplay_requestWithoutUser() throws Exception {
+		BatchReplay replay = new BatchReplay(new Recommender(), 10);
+		StringWriter predictions = new StringWriter();
+		replay.add(createItemLine(1L, "messi ronaldo"), predictions);
+		replay.add(createItemLine(2L, "messi madrid"), predictions);
+		// the converter writes a null user if the request has none
+		replay.add("request\t7\t3000\t{\"event_type\": \"recommendation_request\"}\t"
+				+ "{\"userID\":null, \"itemID\":2, \"domainID\":1}", predictions);
+		replay.flush(predictions);
+
+		// the request is served as that of an anonymous user
+		String[] prediction = predictions.toString().trim().split("\t");
+		assertEquals("7", prediction[1]);
+		assertEquals("0", prediction[5]);
+		assertEquals("{\"recs\": {\"ints\": {\"3\": [1]}}}", prediction[7]);
+	}
+
+	private static String createItemLine(Long id, String text) {
+		return "item-created\t" + id + "\t1000\t{\"id\":" + id + ", \"domainid\":1, "
+				+ "\"categoryid\":1, \"text\":\"" + text + "\", \"title\":\"\", \"flag\":0, "
+				+ "\"kind\":\"article\", \"timestamp\":1000}\t{}";
+	}
+
+}
@@ -0,0 +1,51 @@
+package de.dailab.plistacontest.client;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class CoClickModelTest {
+
+	@Test
+	public void testAddClick_countsWithinWindow() {
+		CoClickModel model = new CoClickModel(2, 8);
+		model.addClick(new long[0], 1L);
+		model.addClick(new long[] {1L}, 2L);
+		model.addClick(new long[] {1L, 2L}, 3L);
+		model.addClick(new long[] {1L, 2L, 3L}, 4L);
+		model.addClick(new long[] {5L}, 2L);
+		model.addClick(new long[] {5L, 2L}, 3L);
+
+		// article 1 is outside the window of the click on article 4
+		assertArrayEquals(new long[] {2L, 3L}, model.getNeighbours(1L));
+		assertArrayEquals(new long[] {3L, 1L, 4L, 5L}, model.getNeighbours(2L));
+		assertArrayEquals(new long[0], model.getNeighbours(6L));
+	}
+
+	@Test
+	public void testAddClick_keepsFrequentNeighbours() {
+		CoClickModel model = new CoClickModel(1, 4);
+		for (int i = 0; i < 6; i++) {
+			model.addClick(new long[] {1L}, 2L);
+		}
+		for (long rare = 10; rare < 20; rare++) {
+			model.addClick(new long[] {1L}, rare);
+		}
+
+		// a neighbour seen more often than clicks / capacity is kept, rare neighbours take
+		// turns in the smallest counters
+		long[] neighbours = model.getNeighbours(1L);
+		assertEquals(4, neighbours.length);
+		assertEquals(2L, neighbours[0]);
+		assertTrue(Arrays.binarySearch(sorted(neighbours), 19L) >= 0);
+	}
+
+	private static long[] sorted(long[] values) {
+		long[] result = values.clone();
+		Arrays.sort(result);
+		return result;
+	}
+
+}
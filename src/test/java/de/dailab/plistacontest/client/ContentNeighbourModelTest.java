@@ -0,0 +1,39 @@
+package de.dailab.plistacontest.client;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class ContentNeighbourModelTest {
+
+	@Test
+	public void testAdd_insertsArticleIntoListsOfNeighbours() {
+		ContentNeighbourModel model = new ContentNeighbourModel(2);
+		model.add(1L, new long[0], new float[0], 0);
+		model.add(2L, new long[] {1L}, new float[] {0.5f}, 1);
+		model.add(3L, new long[] {1L, 2L}, new float[] {0.8f, 0.1f}, 2);
+		model.add(4L, new long[] {1L, 2L}, new float[] {0.2f, 0.3f}, 2);
+
+		assertArrayEquals(new long[] {2L, 1L}, model.getNeighbours(4L));
+		// article 4 is less similar to article 1 than the neighbours it has
+		assertArrayEquals(new long[] {3L, 2L}, model.getNeighbours(1L));
+		// article 4 pushes out article 3
+		assertArrayEquals(new long[] {1L, 4L}, model.getNeighbours(2L));
+		assertArrayEquals(new long[0], model.getNeighbours(5L));
+	}
+
+	@Test
+	public void testAdd_replacesNeighboursOfChangedArticle() {
+		ContentNeighbourModel model = new ContentNeighbourModel(3);
+		model.add(2L, new long[] {1L}, new float[] {0.5f}, 1);
+		model.add(2L, new long[] {3L}, new float[] {0.4f}, 1);
+		model.add(3L, new long[] {1L, 2L}, new float[] {0.6f, 0.4f}, 2);
+
+		assertArrayEquals(new long[] {3L}, model.getNeighbours(2L));
+		// the similarity of article 3 to article 1 is updated rather than added twice
+		model.add(1L, new long[] {3L, 2L}, new float[] {0.1f, 0.5f}, 2);
+		assertArrayEquals(new long[] {2L, 1L}, model.getNeighbours(3L));
+		assertEquals(3, model.size());
+	}
+
+}
@@ -0,0 +1,29 @@
+package de.dailab.plistacontest.client;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class ContestHandlerTest {
+
+	@Test
+	public void testWithAnonymousUser_requestWithoutUser() {
+		RecommenderItem request = RecommenderItem.parseRecommendationRequest(
+				"{\"context\": {\"simple\": {\"27\": 1, \"25\": 2}}, \"limit\": 6}");
+		// the parser marks the missing user with -2
+		assertEquals(-2L, (long) request.getUserID());
+
+		assertSame(request, ContestHandler.withAnonymousUser(request));
+		assertEquals(0L, (long) request.getUserID());
+	}
+
+	@Test
+	public void testWithAnonymousUser_keepsKnownUser() {
+		RecommenderItem request = RecommenderItem.parseRecommendationRequest(
+				"{\"context\": {\"simple\": {\"27\": 1, \"25\": 2, \"57\": 42}}, \"limit\": 6}");
+
+		ContestHandler.withAnonymousUser(request);
+		assertEquals(42L, (long) request.getUserID());
+	}
+
+}
@@ -0,0 +1,51 @@
+package de.dailab.plistacontest.client;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class InvertedIndexTest {
+	
+	private static TermVector vector(int... terms) {
+		float[] weights = new float[terms.length];
+		Arrays.fill(weights, 1f);
+		return new TermVector(terms, weights);
+	}
+	
+	private static String postings(InvertedIndex index, int term) {
+		return Arrays.toString(Arrays.copyOf(index.getArticles(term), index.getLength(term)));
+	}
+	
+	@Test
+	public void testCopy_leavesOriginalUnchanged() {
+		InvertedIndex original = new InvertedIndex();
+		original.add(0, vector(1, 2));
+		original.add(1, vector(1));
+		original.add(3, vector(1, 2));
+		
+		InvertedIndex copy = new InvertedIndex(original);
+		copy.add(4, vector(1));
+		copy.add(2, vector(2));
+		copy.remove(0, vector(1, 2));
+		
+		assertEquals("[0, 1, 3]", postings(original, 1));
+		assertEquals("[0, 3]", postings(original, 2));
+		assertEquals("[1, 3, 4]", postings(copy, 1));
+		assertEquals("[2, 3]", postings(copy, 2));
+	}
+	
+	@Test
+	public void testUpdate_touchesOnlyChangedTerms() {
+		InvertedIndex index = new InvertedIndex();
+		index.add(0, vector(1, 2, 3));
+		index.add(1, vector(2));
+		
+		assertEquals(2, index.update(0, vector(1, 2, 3), vector(2, 3, 4)));
+		assertEquals("[]", postings(index, 1));
+		assertEquals("[0, 1]", postings(index, 2));
+		assertEquals("[0]", postings(index, 4));
+	}
+
+}
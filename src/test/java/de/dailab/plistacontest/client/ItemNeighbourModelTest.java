@@ -0,0 +1,67 @@
+package de.dailab.plistacontest.client;
+
+import static org.junit.Assert.*;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+
+import org.junit.Test;
+
+public class ItemNeighbourModelTest {
+
+	@Test
+	public void testWriteAndLoad() throws Exception {
+		File file = File.createTempFile("item-model", ".bin");
+		try {
+			ItemNeighbourModel.write(file, new long[] {3L, 7L, 11L},
+					new long[][] {{7L, 11L}, {}, {3L}},
+					new float[][] {{0.9f, 0.5f}, {}, {0.25f}});
+			ItemNeighbourModel model = ItemNeighbourModel.load(file);
+
+			assertEquals(3, model.getItemCount());
+			assertArrayEquals(new long[] {7L, 11L}, model.getNeighbours(3L));
+			assertArrayEquals(new float[] {0.9f, 0.5f}, model.getSimilarities(3L), 0f);
+			assertArrayEquals(new long[0], model.getNeighbours(7L));
+			assertArrayEquals(new long[] {3L}, model.getNeighbours(11L));
+			assertArrayEquals(new long[0], model.getNeighbours(5L));
+		} finally {
+			file.delete();
+		}
+	}
+
+	@Test
+	public void testTrain_neighboursReadBySameUsers() throws Exception {
+		// users 1-40 read articles 101-110, users 41-80 read articles 201-210
+		File relations = File.createTempFile("relations", ".txt");
+		File file = File.createTempFile("item-model", ".bin");
+		try {
+			BufferedWriter writer = new BufferedWriter(new FileWriter(relations));
+			for (int user = 1; user <= 80; user++) {
+				int first = user <= 40 ? 101 : 201;
+				for (int item = first; item < first + 10; item++) {
+					writer.write("impression\t" + user + item + "\t1383778800\t{}\t{\"userID\":"
+							+ user + ",\"itemID\":" + item + ",\"domainID\":1677}\t\n");
+				}
+			}
+			// requests without a known user are not used
+			writer.write("request\t1\t1383778800\t{}\t{\"userID\":0,\"itemID\":101,"
+					+ "\"domainID\":1677}\t\n");
+			writer.close();
+
+			ItemModelTrainer trainer = new ItemModelTrainer(8, 50, 5);
+			assertEquals(20, trainer.train(new File[] {relations}, file));
+			ItemNeighbourModel model = ItemNeighbourModel.load(file);
+
+			long[] neighbours = model.getNeighbours(101L);
+			assertEquals(5, neighbours.length);
+			for (long neighbour : neighbours) {
+				assertTrue(neighbour > 101L && neighbour <= 110L);
+			}
+		} finally {
+			relations.delete();
+			file.delete();
+		}
+	}
+
+}
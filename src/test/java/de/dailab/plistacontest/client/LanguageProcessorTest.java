@@ -34,6 +34,7 @@ public class LanguageProcessorTest {
 	
 	@Test
 	public void testGetWords_noStopWords() {
+		languageProcessor.loadStopWordsFromFile(null);
 		String testText = "Bendik is an hei ent.";
 		String expectedOutput = "[bendik, is, an, hei, ent]";
 		assertEquals("getWords() without loaded stop words should clean and tokenize",
@@ -53,6 +54,7 @@ public class LanguageProcessorTest {
 	
 	@Test
 	public void testGetKeywordMap_noStopWords() {
+		languageProcessor.loadStopWordsFromFile(null);
 		String testText = "Bendik is an ent.";
 		Map<String, Integer> keywords = languageProcessor.getKeywordMap(testText);
 		assertFalse("Keywords should not be empty", keywords.isEmpty());
@@ -0,0 +1,35 @@
+package de.dailab.plistacontest.client;
+
+import static org.junit.Assert.*;
+
+import java.util.Collections;
+
+import org.junit.Test;
+
+public class PopularityRankingTest {
+
+	@Test
+	public void testRemove_keepsOrderOfLargeScores() {
+		long halfLife = 1000;
+		PopularityRanking ranking = new PopularityRanking(halfLife, 3);
+		NewsArticle[] articles = new NewsArticle[5];
+		for (int i = 0; i < articles.length; i++) {
+			articles[i] = new NewsArticle((long) i, 1L, 1L, "text", true, i);
+		}
+		// 150 half-lives after the landmark the scores no longer fit into a float
+		long timestamp = 150 * halfLife;
+		ranking.add(articles[4], 1, 0);
+		for (int i = 0; i < articles.length; i++) {
+			ranking.add(articles[i], articles.length - i, timestamp);
+		}
+		assertEquals(0L, (long) ranking.getRanking()[0].getId());
+
+		ranking.remove(Collections.singletonList(articles[0]));
+		NewsArticle[] ranked = ranking.getRanking();
+		assertEquals(3, ranked.length);
+		for (int i = 0; i < ranked.length; i++) {
+			assertEquals(i + 1L, (long) ranked[i].getId());
+		}
+	}
+
+}
@@ -0,0 +1,70 @@
+package de.dailab.plistacontest.client;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+public class RecommendationCacheTest {
+
+	@Test
+	public void testGet_dropsChangedPublishers() {
+		RecommendationCache cache = new RecommendationCache(60000, 2, 10);
+		List<Long> result = Arrays.asList(1L, 2L);
+		cache.put(5L, 7L, 2, cache.getChanges(5L), result);
+		cache.put(6L, 7L, 2, cache.getChanges(6L), result);
+
+		assertEquals(result, cache.get(5L, 7L, 2));
+		assertNull(cache.get(5L, 7L, 3));
+		assertNull(cache.get(5L, null, 2));
+
+		// one change of the publisher is tolerated, two are not
+		cache.recordChange(5L);
+		assertEquals(result, cache.get(5L, 7L, 2));
+		cache.recordChange(5L);
+		assertNull(cache.get(5L, 7L, 2));
+
+		assertEquals(result, cache.get(6L, 7L, 2));
+		cache.invalidate(6L);
+		assertNull(cache.get(6L, 7L, 2));
+
+		assertEquals(3, cache.getHitCount());
+		assertEquals(4, cache.getMissCount());
+	}
+
+	@Test
+	public void testPut_evictsLeastRecentlyUsed() {
+		RecommendationCache cache = new RecommendationCache(60000, 1, 2);
+		cache.put(5L, 1L, 2, 0, Arrays.asList(11L));
+		cache.put(5L, 2L, 2, 0, Arrays.asList(12L));
+		assertNotNull(cache.get(5L, 1L, 2));
+		cache.put(5L, 3L, 2, 0, Arrays.asList(13L));
+
+		assertEquals(2, cache.size());
+		assertNotNull(cache.get(5L, 1L, 2));
+		assertNull(cache.get(5L, 2L, 2));
+		assertNotNull(cache.get(5L, 3L, 2));
+	}
+
+	@Test
+	public void testRecommend_cachesAnonymousUsers() {
+		Recommender recommender = new Recommender();
+		recommender.setResultCache(new RecommendationCache(60000, 100, 10));
+		recommender.addNewsArticle(new NewsArticle(1L, 5L, 0L, "one", true, 1000L));
+		recommender.addNewsArticle(new NewsArticle(2L, 5L, 0L, "two", true, 2000L));
+		List<Long> first = recommender.recommend(0L, 5L, 1L, 2);
+		assertEquals(Arrays.asList(2L), first);
+
+		// a new article is a minor change, the cached result is served
+		recommender.addNewsArticle(new NewsArticle(3L, 5L, 0L, "three", true, 3000L));
+		assertEquals(first, recommender.recommend(0L, 5L, 1L, 2));
+		assertEquals(1, recommender.getResultCache().getHitCount());
+
+		// an article that is no longer recommendable drops the results of its publisher
+		recommender.updateExistingArticle(2L, 5L, 0L, "two", false);
+		assertEquals(Arrays.asList(3L), recommender.recommend(0L, 5L, 1L, 2));
+	}
+
+}
@@ -0,0 +1,113 @@
+package de.dailab.plistacontest.client;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+import org.junit.Test;
+
+public class RecommenderChainTest {
+
+	@Test
+	public void testRecommend_fallsBackAfterDeadline() {
+		RecommenderChain chain = new RecommenderChain(20, 1, new FixedRecommender(1000, 1L),
+				new FixedRecommender(0, 2L));
+		RecommenderItem request = new RecommenderItem(5L, 7L, 9L, 0L);
+
+		assertEquals(Arrays.asList(2L), chain.recommend(request));
+		assertEquals(1, chain.getRequestCount(0));
+		assertEquals(1, chain.getTimeoutCount(0));
+		assertEquals(1, chain.getRequestCount(1));
+		assertEquals(0, chain.getTimeoutCount(1));
+		chain.shutdown();
+	}
+
+	@Test
+	public void testRecommend_usesFirstAnswer() {
+		FixedRecommender fallback = new FixedRecommender(0, 2L);
+		RecommenderChain chain = new RecommenderChain(1000, 1, new FixedRecommender(-1),
+				new FixedRecommender(0), new FixedRecommender(0, 1L), fallback);
+		RecommenderItem request = new RecommenderItem(5L, 7L, 9L, 0L);
+
+		// the failing and the empty stage are skipped
+		assertEquals(Arrays.asList(1L), chain.recommend(request));
+		assertEquals(1, chain.getFailureCount(0));
+		assertEquals(0, chain.getRequestCount(3));
+
+		chain.handleImpression(request);
+		assertEquals(1, fallback.impressions);
+		chain.shutdown();
+	}
+
+	@Test
+	public void testRecommend_fallbackSkipsSeenArticles() {
+		Recommender recommender = new Recommender();
+		recommender.setSeenFilter(new SeenFilter(512, 50));
+		RecommenderItemTable table = new RecommenderItemTable();
+		table.setRecommender(recommender);
+		for (long itemId = 1; itemId <= 4; itemId++) {
+			table.handleItemUpdate(new RecommenderItem(null, itemId, 7L, 0L));
+		}
+		recommender.userReadArticle(5L, 1L);
+		recommender.articlesRecommended(5L, Arrays.asList(2L));
+		RecommenderItem request = new RecommenderItem(5L, 3L, 7L, 0L);
+		request.setNumberOfRequestedResults(4);
+
+		// the user has read article 1, has been shown article 2 and is viewing article 3
+		assertEquals(new HashSet<Long>(Arrays.asList(4L)),
+				new HashSet<Long>(table.recommend(request)));
+		RecommenderItem anonymous = new RecommenderItem(0L, 3L, 7L, 0L);
+		anonymous.setNumberOfRequestedResults(4);
+		assertEquals(new HashSet<Long>(Arrays.asList(1L, 2L, 4L)),
+				new HashSet<Long>(table.recommend(anonymous)));
+	}
+
+	/**
+	 * Recommends the same items after a delay, or fails if the delay is negative.
+	 */
+	private static class FixedRecommender implements ContestRecommender {
+
+		private final long delay;
+		private final List<Long> result;
+		private int impressions;
+
+		FixedRecommender(long delay, Long... result) {
+			this.delay = delay;
+			this.result = Arrays.asList(result);
+		}
+
+		@Override
+		public List<Long> recommend(RecommenderItem request) {
+			if (delay < 0) {
+				throw new IllegalStateException("failed");
+			}
+			try {
+				Thread.sleep(delay);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			return result;
+		}
+
+		@Override
+		public boolean handleItemUpdate(RecommenderItem item) {
+			return true;
+		}
+
+		@Override
+		public void handleRecommended(RecommenderItem request, List<Long> itemIds) {
+		}
+
+		@Override
+		public void handleImpression(RecommenderItem item) {
+			impressions++;
+		}
+
+		@Override
+		public void handleClick(RecommenderItem item) {
+		}
+	}
+
+}
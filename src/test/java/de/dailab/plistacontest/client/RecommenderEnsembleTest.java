@@ -0,0 +1,146 @@
+package de.dailab.plistacontest.client;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+
+import org.junit.Test;
+
+public class RecommenderEnsembleTest {
+
+	@Test
+	public void testRecommend_mergesWeightedAndSkipsSlowMembers() {
+		RecommenderEnsemble ensemble = new RecommenderEnsemble(50, 3,
+				RecommenderEnsemble.Merge.WEIGHTED,
+				new ContestRecommender[] {new FixedRecommender(0, 1L, 2L, 3L),
+						new FixedRecommender(0, 3L, 4L), new FixedRecommender(1000, 5L)},
+				new double[] {1, 2, 10});
+		RecommenderItem request = new RecommenderItem(5L, 7L, 9L, 0L);
+		request.setNumberOfRequestedResults(3);
+
+		// 3: 1/3 + 2/1, 4: 2/2, 1: 1/1, 2: 1/2; the slow member is left out
+		assertEquals(Arrays.asList(3L, 1L, 4L), ensemble.recommend(request));
+		assertEquals(1, ensemble.getTimeoutCount(2));
+		assertEquals(1, ensemble.getPartialResultCount());
+		ensemble.shutdown();
+	}
+
+	@Test
+	public void testRecommend_interleavesByWeight() {
+		RecommenderEnsemble ensemble = new RecommenderEnsemble(1000, 2,
+				RecommenderEnsemble.Merge.INTERLEAVED,
+				new ContestRecommender[] {new FixedRecommender(0, 1L, 2L, 3L, 4L),
+						new FixedRecommender(0, 2L, 5L, 6L)},
+				new double[] {2, 1});
+		RecommenderItem request = new RecommenderItem(5L, 7L, 9L, 0L);
+		request.setNumberOfRequestedResults(5);
+
+		assertEquals(Arrays.asList(1L, 2L, 3L, 4L, 5L), ensemble.recommend(request));
+		assertEquals(0, ensemble.getPartialResultCount());
+		ensemble.shutdown();
+	}
+
+	@Test
+	public void testCreateEnsemble_feedsRecommenderWithoutContentMember() {
+		Properties properties = new Properties();
+		properties.setProperty("recommender.ensemble", "popularity:2,coclicks");
+		Recommender recommender = new Recommender();
+		RecommenderEnsemble ensemble =
+				(RecommenderEnsemble) Client.createEnsemble(properties, recommender);
+		RecommenderItem item = new RecommenderItem(null, 1L, 7L, 1000L);
+		item.setText("messi ronaldo");
+		item.setCategoryId(1L);
+		item.setRecommendable(true);
+		ensemble.handleItemUpdate(item);
+		ensemble.handleImpression(new RecommenderItem(5L, 1L, 7L, 2000L));
+
+		// the recommender sees the messages once, through the first strategy
+		assertTrue(recommender.hasArticleId(1L));
+		assertEquals(Arrays.asList(1L), recommender.recommendPopular(6L, 7L, null, 3));
+		ensemble.shutdown();
+	}
+
+	@Test
+	public void testCreateEnsemble_recencyExcludesSeenArticles() {
+		Properties properties = new Properties();
+		properties.setProperty("recommender.ensemble", "popularity,recency");
+		Recommender recommender = new Recommender();
+		recommender.setSeenFilter(new SeenFilter(512, 50));
+		ContestRecommender ensemble = Client.createEnsemble(properties, recommender);
+		for (long id = 1; id <= 2; id++) {
+			RecommenderItem item = new RecommenderItem(null, id, 7L, 1000L);
+			item.setText("messi ronaldo");
+			item.setCategoryId(1L);
+			item.setRecommendable(true);
+			ensemble.handleItemUpdate(item);
+		}
+		ensemble.handleImpression(new RecommenderItem(5L, 1L, 7L, 2000L));
+		RecommenderItem request = new RecommenderItem(5L, 2L, 7L, 3000L);
+		request.setNumberOfRequestedResults(3);
+
+		// user 5 has seen article 1 and is reading article 2
+		assertEquals(Arrays.asList(), ensemble.recommend(request));
+		((RecommenderEnsemble) ensemble).shutdown();
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testCreateEnsemble_rejectsDuplicateStrategy() {
+		Properties properties = new Properties();
+		properties.setProperty("recommender.ensemble", "content:2,popularity,content:1");
+		Client.createEnsemble(properties, new Recommender());
+	}
+
+	@Test
+	public void testRecommend_strategyWithoutLimit() {
+		Recommender recommender = new Recommender();
+		recommender.addNewsArticle(new NewsArticle(1L, 7L, 1L, "messi ronaldo", true));
+		RecommenderItem request = new RecommenderItem(5L, 2L, 7L, 0L);
+		for (RecommenderStrategy.Kind kind : RecommenderStrategy.Kind.values()) {
+			assertTrue(new RecommenderStrategy(recommender, kind).recommend(request).isEmpty());
+		}
+	}
+
+	/**
+	 * Recommends the same items after a delay.
+	 */
+	private static class FixedRecommender implements ContestRecommender {
+
+		private final long delay;
+		private final List<Long> result;
+
+		FixedRecommender(long delay, Long... result) {
+			this.delay = delay;
+			this.result = Arrays.asList(result);
+		}
+
+		@Override
+		public List<Long> recommend(RecommenderItem request) {
+			try {
+				Thread.sleep(delay);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			return result;
+		}
+
+		@Override
+		public boolean handleItemUpdate(RecommenderItem item) {
+			return true;
+		}
+
+		@Override
+		public void handleRecommended(RecommenderItem request, List<Long> itemIds) {
+		}
+
+		@Override
+		public void handleImpression(RecommenderItem item) {
+		}
+
+		@Override
+		public void handleClick(RecommenderItem item) {
+		}
+	}
+
+}
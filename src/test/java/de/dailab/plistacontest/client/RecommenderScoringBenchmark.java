@@ -0,0 +1,112 @@
+package de.dailab.plistacontest.client;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Measures the latency of content-based recommendations for users with a reading history,
+ * scoring on the calling thread versus scoring on the fork/join pool, for growing catalogs.
+ * The crossover of the two modes is the catalog size from which on the parallel scoring
+ * threshold should be applied.
+ *
+ * Run with
+ * mvn test-compile exec:java -Dexec.classpathScope=test
+ *     -Dexec.mainClass=de.dailab.plistacontest.client.RecommenderScoringBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RecommenderScoringBenchmark {
+
+	private static final int VOCABULARY_SIZE = 20000;
+	private static final int WORDS_PER_ARTICLE = 80;
+	private static final int USERS = 64;
+	private static final int READS_PER_USER = 20;
+
+	@Param({"1000", "5000", "20000", "50000"})
+	public int articles;
+
+	@Param({"false", "true"})
+	public boolean parallel;
+
+	private Recommender recommender;
+
+	private int nextUser;
+
+	@Setup
+	public void setUp() {
+		recommender = createRecommender(articles, new Random(42));
+		recommender.setParallelScoringThreshold(parallel ? 0 : Long.MAX_VALUE);
+	}
+
+	@Benchmark
+	public Object recommend() {
+		nextUser = (nextUser + 1) % USERS;
+		return recommender.recommend((long) nextUser + 1, 6);
+	}
+
+	/**
+	 * Creates a recommender with synthetic articles whose words follow a skewed
+	 * distribution, and users that have read random articles.
+	 */
+	static Recommender createRecommender(int articles, Random random) {
+		Recommender recommender = new Recommender();
+		for (long id = 1; id <= articles; id++) {
+			recommender.addNewsArticle(new NewsArticle(id, 1L, 1L + random.nextInt(20),
+					createText(random), true));
+		}
+		for (long user = 1; user <= USERS; user++) {
+			for (int i = 0; i < READS_PER_USER; i++) {
+				recommender.userReadArticle(user, 1L + random.nextInt(articles));
+			}
+		}
+		return recommender;
+	}
+
+	static String createText(Random random) {
+		StringBuilder text = new StringBuilder();
+		for (int i = 0; i < WORDS_PER_ARTICLE; i++) {
+			// cubing a uniform number makes small ranks much more frequent than large ones
+			int rank = (int) (Math.pow(random.nextDouble(), 3) * VOCABULARY_SIZE);
+			text.append(createWord(rank)).append(' ');
+		}
+		return text.toString();
+	}
+
+	/**
+	 * Encodes a word rank with letters only, since the language processor drops digits.
+	 */
+	static String createWord(int rank) {
+		StringBuilder word = new StringBuilder("x");
+		do {
+			word.append((char) ('a' + rank % 26));
+			rank /= 26;
+		} while (rank > 0);
+		return word.toString();
+	}
+
+	public static void main(String[] args) throws RunnerException {
+		new Runner(new OptionsBuilder()
+				.include(RecommenderScoringBenchmark.class.getSimpleName())
+				.build()).run();
+	}
+
+}
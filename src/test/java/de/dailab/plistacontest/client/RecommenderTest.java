@@ -2,7 +2,11 @@ package de.dailab.plistacontest.client;
 
 import static org.junit.Assert.*;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Properties;
+import java.util.Random;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -68,6 +72,366 @@ public class RecommenderTest {
 		assertEquals("[3, 2, 4]", recommender.recommend(1L, 10).toString());
 	}
 	
+	@Test
+	public void testRecommend_fillsUpWithRecentArticles() {
+		recommender.addNewsArticle(new NewsArticle(1L, 1L, 1L, "messi ronaldo madrid", true));
+		recommender.addNewsArticle(new NewsArticle(2L, 2L, 2L, "trump usa election", true));
+		recommender.addNewsArticle(new NewsArticle(3L, 3L, 3L, "dylan guitar audience", true));
+		recommender.addNewsArticle(new NewsArticle(4L, 4L, 4L, "messi barcelona", true));
+		
+		recommender.userReadArticle(1L, 1L);
+		
+		// only article 4 shares terms with article 1, the rest is filled up by recency
+		assertEquals("[4, 3, 2]", recommender.recommend(1L, 3).toString());
+	}
+	
+	@Test
+	public void testRecommend_withinPublisher() {
+		recommender.addNewsArticle(new NewsArticle(1L, 1L, 1L, "messi ronaldo madrid", true));
+		recommender.addNewsArticle(new NewsArticle(2L, 1L, 2L, "trump usa election", true));
+		recommender.addNewsArticle(new NewsArticle(3L, 2L, 1L, "messi ronaldo spain", true));
+		recommender.addNewsArticle(new NewsArticle(4L, 2L, 3L, "dylan guitar audience", true));
+
+		recommender.userReadArticle(1L, 1L);
+
+		// the profile built from publisher 1 is evaluated in the shard of publisher 2
+		assertEquals("[3, 4]", recommender.recommend(1L, 2L, 3).toString());
+		assertEquals("[2]", recommender.recommend(1L, 1L, 3).toString());
+		assertEquals("[]", recommender.recommend(1L, 3L, 3).toString());
+	}
+
+	@Test
+	public void testRecommend_skipsArticlesThatAreNotRecommendable() {
+		recommender.addNewsArticle(new NewsArticle(1L, 1L, 1L, "messi ronaldo madrid", true));
+		recommender.addNewsArticle(new NewsArticle(2L, 1L, 1L, "messi ronaldo spain", false));
+		recommender.addNewsArticle(new NewsArticle(3L, 1L, 1L, "trump usa election", true));
+		recommender.addNewsArticle(new NewsArticle(4L, 1L, 1L, "dylan guitar", false));
+
+		recommender.userReadArticle(1L, 1L);
+
+		// neither the similar article 2 nor the recent article 4 is recommended
+		assertEquals("[3]", recommender.recommend(1L, 1L, 3).toString());
+
+		// an update of the flag alone makes article 2 recommendable
+		recommender.updateExistingArticle(2L, 1L, 1L, "messi ronaldo spain", true);
+		assertEquals("[2, 3]", recommender.recommend(1L, 1L, 3).toString());
+	}
+
+	@Test
+	public void testRecommend_similarArticlesForAnonymousUsers() {
+		recommender.setContentNeighbourModel(new ContentNeighbourModel(5));
+		recommender.addNewsArticle(new NewsArticle(1L, 1L, 1L, "messi ronaldo madrid", true, 1));
+		recommender.addNewsArticle(new NewsArticle(2L, 1L, 1L, "trump usa election", true, 2));
+		recommender.addNewsArticle(new NewsArticle(3L, 1L, 1L, "messi ronaldo spain", true, 3));
+		recommender.addNewsArticle(new NewsArticle(4L, 1L, 1L, "dylan guitar", true, 4));
+		recommender.addNewsArticle(new NewsArticle(5L, 1L, 1L, "messi barcelona", true, 5));
+
+		// article 5 arrived after article 1 and was inserted into its list
+		assertEquals("[3, 5]", recommender.recommendSimilar(7L, 1L, 1L, 2).toString());
+		// rather than the most recent articles 5 and 4
+		assertEquals("[3, 5]", recommender.recommend(7L, 1L, 1L, 2).toString());
+	}
+
+	@Test
+	public void testHandleItemUpdates_appliesLastUpdateOfEachItem() {
+		List<RecommenderItem> updates = new ArrayList<RecommenderItem>();
+		updates.add(createItemUpdate(1L, "messi ronaldo", true));
+		updates.add(createItemUpdate(2L, "trump usa", true));
+		updates.add(createItemUpdate(1L, "dylan guitar", true));
+		updates.add(createItemUpdate(3L, "dylan audience", false));
+		recommender.handleItemUpdates(updates);
+
+		assertEquals(3, recommender.getNewsArticles().size());
+		assertFalse(recommender.getWords().contains("messi"));
+		recommender.userReadArticle(1L, 1L);
+		assertEquals("[2]", recommender.recommend(1L, 1L, 3).toString());
+
+		// updates of known articles are applied together as well
+		updates.clear();
+		updates.add(createItemUpdate(2L, "trump usa obama", true));
+		updates.add(createItemUpdate(3L, "dylan audience", true));
+		recommender.handleItemUpdates(updates);
+		assertTrue(recommender.getWords().contains("obama"));
+		assertEquals("[3, 2]", recommender.recommend(1L, 1L, 3).toString());
+	}
+
+	@Test
+	public void testRecommend_coldStartByPopularity() {
+		recommender.addNewsArticle(new NewsArticle(1L, 1L, 1L, "messi ronaldo", true, 1));
+		recommender.addNewsArticle(new NewsArticle(2L, 1L, 1L, "trump usa", true, 2));
+		recommender.addNewsArticle(new NewsArticle(3L, 1L, 1L, "dylan guitar", false, 3));
+		recommender.addNewsArticle(new NewsArticle(4L, 1L, 1L, "messi madrid", true, 4));
+		recommender.articleViewed(1L, 1000);
+		recommender.articleViewed(2L, 1000);
+		recommender.articleViewed(2L, 1000);
+		recommender.articleViewed(3L, 1000);
+		recommender.articleViewed(3L, 1000);
+		recommender.articleViewed(3L, 1000);
+		
+		// article 3 is not recommendable, article 4 has no views and fills up by recency
+		assertEquals("[2, 1, 4]", recommender.recommend(1L, 1L, 3).toString());
+		// requests without a user are served like those of anonymous users
+		assertEquals("[2, 1, 4]", recommender.recommend(null, 1L, 3).toString());
+		assertEquals("[2, 1]", recommender.recommendPopular(null, 1L, null, 2).toString());
+		// the article the user is viewing is not recommended
+		assertEquals("[1, 4]", recommender.recommend(1L, 1L, 2L, 2).toString());
+		
+		// a recent view outweighs older ones
+		recommender.articleViewed(1L, 1000 + 3 * ContentShard.DEFAULT_POPULARITY_HALF_LIFE);
+		assertEquals("[1, 2]", recommender.recommend(1L, 1L, 2).toString());
+		
+		// evicted articles leave the ranking
+		recommender.setRetention(0, 2);
+		recommender.evictExpiredArticles();
+		assertEquals("[4]", recommender.recommend(1L, 1L, 3L, 3).toString());
+	}
+	
+	@Test
+	public void testRecommend_skipsSeenArticles() {
+		recommender.addNewsArticle(new NewsArticle(1L, 1L, 1L, "messi ronaldo", true, 1));
+		recommender.addNewsArticle(new NewsArticle(2L, 1L, 1L, "messi madrid", true, 2));
+		recommender.addNewsArticle(new NewsArticle(3L, 1L, 1L, "trump usa", true, 3));
+		recommender.addNewsArticle(new NewsArticle(4L, 1L, 1L, "dylan guitar", true, 4));
+		recommender.setSeenFilter(new SeenFilter(512, 50));
+		
+		// articles shown to or recommended to a user are not recommended to them again
+		recommender.articleViewed(2L, 4L, 1000);
+		assertEquals("[3, 2]", recommender.recommend(2L, 1L, 2).toString());
+		recommender.articlesRecommended(2L, Arrays.asList(3L));
+		assertEquals("[2, 1]", recommender.recommend(2L, 1L, 2).toString());
+		
+		recommender.userReadArticle(1L, 1L);
+		recommender.articlesRecommended(1L, Arrays.asList(2L));
+		assertEquals("[4, 3]", recommender.recommend(1L, 1L, 2).toString());
+		
+		// other users are not affected, they get the clicked and the viewed article
+		assertEquals("[1, 4]", recommender.recommend(3L, 1L, 2).toString());
+	}
+	
+	@Test
+	public void testRecommend_coClickedArticles() {
+		recommender.addNewsArticle(new NewsArticle(1L, 1L, 1L, "messi ronaldo", true, 1));
+		recommender.addNewsArticle(new NewsArticle(2L, 1L, 1L, "trump usa", true, 2));
+		recommender.addNewsArticle(new NewsArticle(3L, 1L, 1L, "dylan guitar", true, 3));
+		recommender.addNewsArticle(new NewsArticle(4L, 2L, 1L, "messi madrid", true, 4));
+		recommender.userReadArticle(1L, 1L);
+		recommender.userReadArticle(1L, 2L);
+		recommender.userReadArticle(2L, 1L);
+		recommender.userReadArticle(2L, 2L);
+		recommender.userReadArticle(3L, 3L);
+		recommender.userReadArticle(3L, 1L);
+		recommender.userReadArticle(3L, 4L);
+		
+		// readers of article 1 read article 2 most often; article 4 is of another publisher
+		assertEquals("[2, 3, 4]", recommender.recommend(9L, null, 1L, 3).toString());
+		assertEquals("[2, 3]", recommender.recommend(9L, 1L, 1L, 3).toString());
+	}
+	
+	@Test
+	public void testRecommend_parallelScoringMatchesSequential() {
+		Random random = new Random(7);
+		recommender = RecommenderScoringBenchmark.createRecommender(300, random);
+		
+		for (long user = 1; user <= 10; user++) {
+			recommender.setParallelScoringThreshold(Long.MAX_VALUE);
+			List<Long> sequential = recommender.recommend(user, 6);
+			recommender.setParallelScoringThreshold(0);
+			assertEquals(sequential, recommender.recommend(user, 6));
+		}
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testCreateRecommender_requiresParallelThreshold() {
+		// the threshold depends on the machine and has no default
+		Client.createRecommender(new Properties());
+	}
+	
+	@Test
+	public void testRecommend_stopsScoringAtDeadline() {
+		Random random = new Random(7);
+		recommender = RecommenderScoringBenchmark.createRecommender(300, random);
+		
+		ScoringDeadline unlimited = ScoringDeadline.inMillis(0);
+		List<Long> complete = recommender.recommend(1L, null, null, 6, unlimited);
+		assertFalse(unlimited.isPartial());
+		
+		// a deadline that has passed stops the scoring before the first term, the
+		// recommendations are filled up with recent articles and flagged as partial
+		ScoringDeadline passed = new ScoringDeadline(0);
+		List<Long> partial = recommender.recommend(1L, null, null, 6, passed);
+		assertTrue(passed.isPartial());
+		assertEquals(6, partial.size());
+		assertFalse(complete.equals(partial));
+		assertEquals(1, recommender.getPartialResultCount());
+	}
+	
+	@Test
+	public void testRecommendAll_matchesSingleRequests() {
+		Random random = new Random(7);
+		recommender = RecommenderScoringBenchmark.createRecommender(300, random);
+		
+		List<RecommenderItem> requests = new ArrayList<RecommenderItem>();
+		for (long user = 0; user <= 20; user++) {
+			RecommenderItem request = new RecommenderItem(user, 1L + random.nextInt(300),
+					user % 2 == 0 ? 1L : null, 0L);
+			request.setNumberOfRequestedResults(1 + random.nextInt(6));
+			requests.add(request);
+		}
+		// a user with several requests on different articles
+		RecommenderItem request = new RecommenderItem(3L, 5L, null, 0L);
+		request.setNumberOfRequestedResults(3);
+		requests.add(request);
+		
+		List<List<Long>> results = recommender.recommendAll(requests);
+		assertEquals(requests.size(), results.size());
+		for (int i = 0; i < requests.size(); i++) {
+			assertEquals(recommender.recommend(requests.get(i)), results.get(i));
+		}
+	}
+	
+	@Test
+	public void testRecommend_approximateScoring() {
+		recommender.addNewsArticle(new NewsArticle(1L, 1L, 1L, "messi ronaldo madrid", true));
+		recommender.addNewsArticle(new NewsArticle(2L, 1L, 2L, "trump usa election", true));
+		recommender.addNewsArticle(new NewsArticle(3L, 1L, 3L, "dylan guitar audience", true));
+		recommender.addNewsArticle(new NewsArticle(4L, 1L, 1L, "messi ronaldo madrid", true));
+		recommender.setApproximateScoring(new RandomProjectionHash(8, 4, 0, 1L));
+		recommender.userReadArticle(1L, 1L);
+		
+		// a copy of the read article falls into the same buckets as the profile in every table
+		assertEquals(4L, (long) recommender.recommend(1L, 1L, 3).get(0));
+		
+		// articles added later are hashed as well
+		recommender.addNewsArticle(new NewsArticle(5L, 1L, 1L, "messi ronaldo madrid", true));
+		assertEquals(5L, (long) recommender.recommend(1L, 1L, 3).get(0));
+		
+		recommender.setApproximateScoring(null);
+		assertEquals("[5, 4, 3]", recommender.recommend(1L, 1L, 3).toString());
+	}
+	
+	@Test
+	public void testEvictExpiredArticles() {
+		long hour = 3600 * 1000L;
+		recommender.addNewsArticle(new NewsArticle(1L, 1L, 1L, "messi ronaldo", true, 0));
+		recommender.addNewsArticle(new NewsArticle(2L, 1L, 1L, "messi madrid", true, hour));
+		recommender.addNewsArticle(new NewsArticle(3L, 1L, 1L, "dylan guitar", true, 2 * hour));
+		recommender.addNewsArticle(new NewsArticle(4L, 2L, 1L, "trump usa", true, 3 * hour));
+		
+		// nothing is evicted without a retention policy
+		assertEquals(0, recommender.evictExpiredArticles());
+		
+		// article 1 is too old, and publisher 1 keeps only its newest article afterwards
+		recommender.setRetention(2 * hour + hour / 2, 1);
+		assertEquals(2, recommender.evictExpiredArticles());
+		assertFalse(recommender.hasArticleId(1L));
+		assertFalse(recommender.hasArticleId(2L));
+		assertTrue(recommender.hasArticleId(3L));
+		assertTrue(recommender.hasArticleId(4L));
+		assertFalse(recommender.getWords().contains("messi"));
+		assertTrue(recommender.getWords().contains("dylan"));
+		
+		// ordinals of evicted articles are reused
+		recommender.addNewsArticle(new NewsArticle(5L, 2L, 1L, "dylan usa", true, 4 * hour));
+		recommender.userReadArticle(1L, 3L);
+		assertEquals("[5, 4]", recommender.recommend(1L, 2).toString());
+	}
+	
+	@Test
+	public void testEvictExpiredArticles_forgetsIdleUsers() {
+		long hour = 3600 * 1000L;
+		SeenFilter seen = new SeenFilter(512, 50);
+		recommender.setSeenFilter(seen);
+		recommender.addNewsArticle(new NewsArticle(1L, 1L, 1L, "messi ronaldo", true, 0));
+		recommender.addNewsArticle(new NewsArticle(2L, 1L, 1L, "messi madrid", true, 3 * hour));
+		recommender.userReadArticle(1L, 1L, 0);
+		recommender.userReadArticle(2L, 1L, 0);
+		recommender.userReadArticle(2L, 2L, 3 * hour);
+		recommender.articleViewed(3L, 2L, 3 * hour);
+		
+		// user 1 has done nothing since article 1 expired, users 2 and 3 stay
+		recommender.setRetention(hour, 0);
+		assertEquals(1, recommender.evictExpiredArticles());
+		assertFalse(recommender.getUserHistories().contains(1L));
+		assertNull(seen.get(1L));
+		assertArrayEquals(new long[] {1L, 2L}, recommender.getUserHistories().getHistory(2L));
+		assertNotNull(seen.get(2L));
+		assertNotNull(seen.get(3L));
+		assertEquals(2, seen.size());
+	}
+	
+	@Test
+	public void testUserReadArticle_pairsOnlyLiveArticles() {
+		CoClickModel model = new CoClickModel(10, 8);
+		recommender.setCoClickModel(model);
+		recommender.addNewsArticle(new NewsArticle(1L, 1L, 1L, "messi ronaldo", true, 1));
+		recommender.addNewsArticle(new NewsArticle(2L, 1L, 1L, "messi madrid", true, 2));
+		recommender.userReadArticle(1L, 1L, 1);
+		recommender.userReadArticle(1L, 2L, 2);
+		assertEquals(2, model.size());
+		
+		// an unknown article gets no list, and neither do the articles paired with it
+		recommender.userReadArticle(1L, 99L, 3);
+		recommender.userReadArticle(2L, 98L, 3);
+		recommender.userReadArticle(2L, 97L, 3);
+		assertEquals(2, model.size());
+		
+		// nor does an evicted article that is still in a history
+		recommender.setRetention(0, 1);
+		assertEquals(1, recommender.evictExpiredArticles());
+		assertEquals(1, model.size());
+		recommender.userReadArticle(3L, 1L, 4);
+		recommender.userReadArticle(3L, 2L, 4);
+		assertEquals(1, model.size());
+	}
+	
+	@Test
+	public void testRecommend_requestWithoutLimit() {
+		recommender.addNewsArticle(new NewsArticle(1L, 1L, 1L, "messi ronaldo", true));
+		RecommenderItem request = new RecommenderItem(1L, 1L, 1L, 0L);
+		assertNull(request.getNumberOfRequestedResults());
+		
+		assertTrue(recommender.recommend(request).isEmpty());
+	}
+	
+	@Test
+	public void testTermPruning_boundsVocabulary() {
+		recommender.setTermPruning(new TermPruning(1, 1, 4, 12));
+		for (long id = 1; id <= 10; id++) {
+			StringBuilder text = new StringBuilder("messi messi");
+			for (int i = 0; i < 4; i++) {
+				text.append(' ').append(RecommenderScoringBenchmark.createWord(4 * (int) id + i));
+			}
+			recommender.addNewsArticle(new NewsArticle(id, 1L, 0L, text.toString(), true, id));
+		}
+		
+		// the articles keep 4 of their 6 keywords, and the shard 12 of the 40 terms at most
+		assertTrue(recommender.getWords().size() <= 12);
+		assertEquals(recommender.getWords().size(), recommender.getTermCount());
+		recommender.userReadArticle(1L, 10L);
+		assertEquals(3, recommender.recommend(1L, 1L, 3).size());
+		
+		// words of evicted articles leave the dictionary
+		recommender.setRetention(0, 1);
+		recommender.evictExpiredArticles();
+		assertTrue(recommender.getTermCount() <= 4);
+		assertEquals(recommender.getWords().size(), recommender.getTermCount());
+	}
+	
+	@Test
+	public void testUpdateArticle_recyclesTermIdsWithoutEviction() {
+		recommender.addNewsArticle(new NewsArticle(1L, 1L, 1L, "messi ronaldo", true));
+		recommender.userReadArticle(1L, 1L);
+		for (int i = 0; i < 3000; i++) {
+			recommender.updateExistingArticle(1L, 1L, 1L, "messi "
+					+ RecommenderScoringBenchmark.createWord(i), true);
+		}
+		
+		// every update drops a word, whose id is taken again once many are dropped
+		TermDictionary dictionary = recommender.getDictionary();
+		assertTrue(dictionary.getDroppedCount() < 1024);
+		assertTrue(dictionary.size() < 1100);
+	}
+	
 	@Test
 	public void testUpdateArticle_withPreExistingArticle() {
 		NewsArticle originalArticle = new NewsArticle(1L, 1L, 1L, "halla", true);
@@ -88,5 +452,52 @@ public class RecommenderTest {
 		Object[] readByUser1 = recommender.getReadByUser().get(1L).toArray();
 		assertEquals("hade", ((NewsArticle) readByUser1[0]).getText());
 	}
+	
+	@Test
+	public void testUpdateArticle_reindexesChangedTerms() {
+		recommender.addNewsArticle(new NewsArticle(1L, 1L, 1L, "messi ronaldo", true));
+		recommender.addNewsArticle(new NewsArticle(2L, 1L, 2L, "dylan guitar", true));
+		recommender.addNewsArticle(new NewsArticle(3L, 1L, 3L, "trump usa", true));
+		recommender.userReadArticle(1L, 1L);
+		
+		recommender.updateExistingArticle(2L, 1L, 2L, "messi madrid", true);
+		assertFalse(recommender.getWords().contains("dylan"));
+		assertTrue(recommender.getWords().contains("madrid"));
+		
+		// article 2 now shares a term with article 1 and beats the more recent article 3
+		assertEquals("[2]", recommender.recommend(1L, 1L, 1).toString());
+	}
+
+	@Test
+	public void testUpdateArticle_keepsPublishedArticle() {
+		NewsArticle article = new NewsArticle(1L, 1L, 1L, "messi ronaldo", true);
+		recommender.addNewsArticle(article);
+		recommender.addNewsArticle(new NewsArticle(2L, 1L, 1L, "messi madrid", true));
+		
+		// readers of older snapshots may still hold the article, so it is replaced
+		recommender.updateExistingArticle(1L, 1L, 2L, "dylan guitar", false);
+		assertEquals("messi ronaldo", article.getText());
+		assertEquals(1L, (long) article.getCategoryId());
+		assertTrue(article.isRecommendable());
+		for (NewsArticle current : recommender.getNewsArticles()) {
+			if (current.getId() == 1L) {
+				assertEquals("dylan guitar", current.getText());
+				assertFalse(current.isRecommendable());
+			}
+		}
+		recommender.userReadArticle(1L, 2L);
+		assertEquals("[]", recommender.recommend(1L, 1L, 3).toString());
+	}
+
+	private static RecommenderItem createItemUpdate(Long itemId, String text,
+			boolean recommendable) {
+		RecommenderItem item = new RecommenderItem(null, itemId, 1L, itemId);
+		item.setCategoryId(1L);
+		item.setTitle("");
+		item.setText(text);
+		item.setKicker("");
+		item.setRecommendable(recommendable);
+		return item;
+	}
 
 }
@@ -0,0 +1,54 @@
+package de.dailab.plistacontest.client;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class ScoreAccumulatorTest {
+
+	@Test
+	public void testGetThreshold_followsGrowingScores() {
+		Random random = new Random(42);
+		ScoreAccumulator accumulator = new ScoreAccumulator();
+		for (int query = 0; query < 20; query++) {
+			int k = 1 + random.nextInt(10);
+			accumulator.reset(200, k);
+			assertEquals(Float.NEGATIVE_INFINITY, accumulator.getThreshold(), 0f);
+			for (int posting = 0; posting < 500; posting++) {
+				int article = random.nextInt(200);
+				if (!accumulator.contains(article)) {
+					if (random.nextInt(10) == 0) {
+						accumulator.exclude(article);
+					} else {
+						accumulator.create(article, 1f);
+					}
+				}
+				accumulator.add(article, random.nextFloat());
+				assertEquals(kthLargest(accumulator, k), accumulator.getThreshold(), 0f);
+			}
+		}
+	}
+
+	/**
+	 * The k-th largest score of the eligible accumulators, by sorting them all.
+	 */
+	private static float kthLargest(ScoreAccumulator accumulator, int k) {
+		float[] scores = new float[accumulator.size()];
+		int n = 0;
+		for (int i = 0; i < accumulator.size(); i++) {
+			float score = accumulator.getScore(accumulator.getArticle(i));
+			if (score != Float.NEGATIVE_INFINITY) {
+				scores[n++] = score;
+			}
+		}
+		if (n < k) {
+			return Float.NEGATIVE_INFINITY;
+		}
+		Arrays.sort(scores, 0, n);
+		return scores[n - k];
+	}
+
+}
@@ -0,0 +1,53 @@
+package de.dailab.plistacontest.client;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class SeenFilterTest {
+
+	@Test
+	public void testMightContain_rotatesGenerations() {
+		SeenFilter filter = new SeenFilter(512, 50);
+		for (long article = 0; article < 50; article++) {
+			filter.add(1L, article, 0);
+		}
+		long[] seen = filter.get(1L);
+		for (long article = 0; article < 50; article++) {
+			assertTrue(filter.mightContain(seen, article));
+		}
+		assertNull(filter.get(2L));
+		assertFalse(filter.mightContain(null, 0L));
+
+		// the first generation is kept while the second fills up, then dropped
+		for (long article = 50; article < 100; article++) {
+			filter.add(1L, article, 0);
+		}
+		assertTrue(filter.mightContain(filter.get(1L), 0L));
+		filter.add(1L, 100L, 0);
+		seen = filter.get(1L);
+		int remembered = 0;
+		for (long article = 0; article < 50; article++) {
+			remembered += filter.mightContain(seen, article) ? 1 : 0;
+		}
+		assertTrue(remembered < 10);
+		for (long article = 50; article <= 100; article++) {
+			assertTrue(filter.mightContain(seen, article));
+		}
+	}
+
+	@Test
+	public void testMightContain_fewFalsePositives() {
+		SeenFilter filter = new SeenFilter(512, 50);
+		for (long article = 0; article < 100; article++) {
+			filter.add(7L, article * 7919, 0);
+		}
+		long[] seen = filter.get(7L);
+		int falsePositives = 0;
+		for (long article = 1000000; article < 1010000; article++) {
+			falsePositives += filter.mightContain(seen, article) ? 1 : 0;
+		}
+		assertTrue("false positives: " + falsePositives, falsePositives < 500);
+	}
+
+}
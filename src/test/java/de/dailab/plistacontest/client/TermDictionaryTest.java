@@ -0,0 +1,35 @@
+package de.dailab.plistacontest.client;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class TermDictionaryTest {
+
+	@Test
+	public void testRecycle_reusesIdsOfDroppedTerms() {
+		TermDictionary words = new TermDictionary();
+		int[] ids = words.acquire(Arrays.asList("messi", "ronaldo"));
+		words.acquire(Arrays.asList("messi"));
+		words.release(ids[0]);
+		words.release(ids[1]);
+
+		// messi is still counted once, ronaldo is dropped
+		assertEquals(ids[0], words.getId("messi"));
+		assertEquals(-1, words.getId("ronaldo"));
+		// a dropped id is not handed out before it is recycled
+		assertEquals(2, words.acquire(Arrays.asList("dylan"))[0]);
+		int[] dropped = words.takeDroppedIds();
+		assertArrayEquals(new int[] {ids[1]}, dropped);
+		assertEquals(0, words.takeDroppedIds().length);
+
+		words.recycle(dropped);
+		assertEquals(ids[1], words.acquire(Arrays.asList("trump"))[0]);
+		assertEquals("trump", words.getTerm(ids[1]));
+		assertEquals(3, words.size());
+		assertEquals(3, words.getTermCount());
+	}
+
+}
@@ -0,0 +1,65 @@
+package de.dailab.plistacontest.client;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class TopKSelectorTest {
+	
+	@Test
+	public void testDrainTo_keepsBestK() {
+		TopKSelector selector = new TopKSelector(3);
+		float[] scores = {0.1f, 0.9f, 0.5f, 0.3f, 0.7f, 0.2f};
+		for (int i = 0; i < scores.length; i++) {
+			selector.offer(i, scores[i]);
+		}
+		assertEquals(0.5f, selector.getThreshold(), 0f);
+		
+		int[] items = new int[3];
+		float[] sortedScores = new float[3];
+		assertEquals(3, selector.drainTo(items, sortedScores));
+		assertEquals("[1, 4, 2]", Arrays.toString(items));
+		assertEquals("[0.9, 0.7, 0.5]", Arrays.toString(sortedScores));
+		assertEquals(0, selector.size());
+	}
+	
+	@Test
+	public void testOffer_prefersLargerOrdinalOnTies() {
+		TopKSelector selector = new TopKSelector(2);
+		selector.offer(1, 0.5f);
+		selector.offer(2, 0.5f);
+		assertTrue(selector.offer(3, 0.5f));
+		assertFalse(selector.offer(0, 0.5f));
+		
+		int[] items = new int[2];
+		selector.drainTo(items, null);
+		assertEquals("[3, 2]", Arrays.toString(items));
+	}
+	
+	@Test
+	public void testRaiseWorstScore_reordersHeap() {
+		TopKSelector selector = new TopKSelector(3);
+		selector.offer(1, 0.1f);
+		selector.offer(2, 0.5f);
+		selector.offer(3, 0.3f);
+		assertEquals(1, selector.getWorstItem());
+		
+		selector.raiseWorstScore(0.9f);
+		assertEquals(3, selector.getWorstItem());
+		assertEquals(0.3f, selector.getThreshold(), 0f);
+		
+		int[] items = new int[3];
+		selector.drainTo(items, null);
+		assertEquals("[1, 2, 3]", Arrays.toString(items));
+	}
+	
+	@Test
+	public void testGetThreshold_notFull() {
+		TopKSelector selector = new TopKSelector(2);
+		selector.offer(1, 0.5f);
+		assertEquals(Float.NEGATIVE_INFINITY, selector.getThreshold(), 0f);
+	}
+
+}
@@ -0,0 +1,63 @@
+package de.dailab.plistacontest.client;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class UserHistoryStoreTest {
+
+	@Test
+	public void testAdd_keepsMostRecentReads() {
+		UserHistoryStore store = new UserHistoryStore(3);
+		assertTrue(store.add(7L, 10L, 0));
+		assertFalse(store.add(7L, 10L, 0));
+		store.add(7L, 30L, 0);
+		store.add(7L, 20L, 0);
+		store.add(7L, 40L, 0);
+
+		// the oldest read is dropped once the cap is reached
+		assertArrayEquals(new long[] {30L, 20L, 40L}, store.getHistory(7L));
+		assertArrayEquals(new long[] {20L, 30L, 40L}, store.getSortedHistory(7L));
+		assertEquals(0, store.getHistory(8L).length);
+		assertFalse(store.contains(8L));
+	}
+
+	@Test
+	public void testEvictIdleUsers() {
+		UserHistoryStore store = new UserHistoryStore(0);
+		for (long user = 0; user < 1000; user++) {
+			store.add(user, 1L, user);
+		}
+		long bytes = store.getMemoryUsage();
+		// reading an article again keeps a user as well
+		store.add(5L, 1L, 2000);
+
+		assertEquals(899, store.evictIdleUsers(900));
+		assertEquals(101, store.size());
+		assertTrue(store.contains(5L));
+		assertFalse(store.contains(6L));
+		assertTrue(store.contains(900L));
+		store.add(999L, 2L, 0);
+		assertArrayEquals(new long[] {1L, 2L}, store.getHistory(999L));
+		// the tables shrink with the users
+		assertTrue(store.getMemoryUsage() < bytes / 4);
+	}
+
+	@Test
+	public void testAdd_manyUsers() {
+		UserHistoryStore store = new UserHistoryStore(0);
+		for (long user = 0; user < 10000; user++) {
+			store.add(user, user, 0);
+			store.add(user, -user - 1, 0);
+		}
+		assertEquals(10000, store.size());
+		assertEquals(20000, store.getReadCount());
+		assertEquals(10000, store.getUsers().length);
+		for (long user = 0; user < 10000; user++) {
+			assertArrayEquals(new long[] {user, -user - 1}, store.getHistory(user));
+		}
+		// each history costs its array, each user at least one slot of the tables
+		assertTrue(store.getMemoryUsage() > 10000 * (16 + 2 * 8 + 20));
+	}
+
+}